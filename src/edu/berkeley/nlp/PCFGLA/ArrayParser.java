@@ -6,10 +6,12 @@ import java.util.Iterator;
 import java.util.List;
 
 import edu.berkeley.nlp.discPCFG.Linearizer;
+import edu.berkeley.nlp.discPCFG.SparseCounts;
 import edu.berkeley.nlp.math.DoubleArrays;
 import edu.berkeley.nlp.syntax.StateSet;
 import edu.berkeley.nlp.syntax.Tree;
 import edu.berkeley.nlp.util.ArrayUtil;
+import edu.berkeley.nlp.util.DoubleArrayPool;
 import edu.berkeley.nlp.util.Numberer;
 import edu.berkeley.nlp.util.ScalingTools;
 
@@ -59,6 +61,10 @@ public class ArrayParser implements Parser {
 	Grammar grammar;
 	int[] stateClass;
 
+	// the score arrays of the nodes of pooledTree, see setReuseScoreArrays
+	DoubleArrayPool scorePool;
+	Tree<StateSet> pooledTree;
+
 	public ArrayParser() {
 	}
 
@@ -584,8 +590,10 @@ public class ArrayParser implements Parser {
 		if (tree.isPreTerminal()) {
 			// Plays a role similar to initializeChart()
 			StateSet wordStateSet = tree.getChildren().get(0).getLabel();
-			double[] lexiconScores = lexicon.score(wordStateSet, pState,
-					noSmoothing, false);
+			double[] lexiconScores = (scorePool == null) ? lexicon.score(
+					wordStateSet, pState, noSmoothing, false) : lexicon.score(
+					wordStateSet, pState, noSmoothing, false,
+					newScores(nParentStates));
 			if (lexiconScores.length != nParentStates) {
 				System.out.println("Have more scores than substates!"
 						+ lexiconScores.length + " " + nParentStates);// truncate
@@ -603,7 +611,7 @@ public class ArrayParser implements Parser {
 				short cState = child.getState();
 				int nChildStates = child.numSubStates();
 				double[][] uscores = grammar.getUnaryScore(pState, cState);
-				double[] iScores = new double[nParentStates];
+				double[] iScores = newScores(nParentStates);
 				boolean foundOne = false;
 				for (int j = 0; j < nChildStates; j++) {
 					if (uscores[j] != null) { // check whether one of the
@@ -646,7 +654,7 @@ public class ArrayParser implements Parser {
 				short rState = rightChild.getState();
 				double[][][] bscores = grammar.getBinaryScore(pState, lState,
 						rState);
-				double[] iScores2 = new double[nParentStates];
+				double[] iScores2 = newScores(nParentStates);
 				boolean foundOne2 = false;
 				for (int j = 0; j < nLeftChildStates; j++) {
 					double lcS = leftChild.getIScore(j);
@@ -710,8 +718,11 @@ public class ArrayParser implements Parser {
 	 * @param tree
 	 */
 	void setRootOutsideScore(Tree<StateSet> tree) {
-		tree.getLabel().setOScore(0, 1);
-		tree.getLabel().setOScale(0);
+		StateSet root = tree.getLabel();
+		if (scorePool != null && root.getOScores() == null)
+			root.setOScores(newScores(root.numSubStates()));
+		root.setOScore(0, 1);
+		root.setOScale(0);
 	}
 
 	/**
@@ -755,7 +766,7 @@ public class ArrayParser implements Parser {
 				int nChildStates = child.numSubStates();
 				// UnaryRule uR = new UnaryRule(pState,cState);
 				double[][] uscores = grammar.getUnaryScore(pState, cState);
-				double[] oScores = new double[nChildStates];
+				double[] oScores = newScores(nChildStates);
 				for (int j = 0; j < nChildStates; j++) {
 					if (uscores[j] != null) {
 						double childScore = 0;
@@ -789,8 +800,8 @@ public class ArrayParser implements Parser {
 				// nParentStates];
 				double[][][] bscores = grammar.getBinaryScore(pState, lState,
 						rState);
-				double[] lOScores = new double[nLeftChildStates];
-				double[] rOScores = new double[nRightChildStates];
+				double[] lOScores = newScores(nLeftChildStates);
+				double[] rOScores = newScores(nRightChildStates);
 				for (int j = 0; j < nLeftChildStates; j++) {
 					double lcS = leftChild.getIScore(j);
 					double leftScore = 0;
@@ -828,8 +839,45 @@ public class ArrayParser implements Parser {
 		}
 	}
 
+	/**
+	 * Lets doInsideOutsideScores(Tree...) take the inside and outside score
+	 * arrays of the tree nodes from a pool owned by this parser instead of
+	 * allocating new ones for every tree. The arrays of a tree go back to the
+	 * pool, and its nodes are deallocated, when the next tree is scored. This
+	 * is for the loops (like the E-step) that are done with a tree before
+	 * they score the next one. The lexicon puts the inside scores of the
+	 * preterminals in pooled arrays as well, if it can. Off by default: it
+	 * saves allocation, but has not made the E-step faster.
+	 */
+	public void setReuseScoreArrays(boolean reuse) {
+		scorePool = (reuse) ? new DoubleArrayPool() : null;
+		pooledTree = null;
+	}
+
+	private double[] newScores(int length) {
+		return (scorePool == null) ? new double[length] : scorePool
+				.get(length);
+	}
+
+	private void startTree(Tree<StateSet> tree) {
+		if (scorePool == null)
+			return;
+		if (pooledTree != null)
+			deallocate(pooledTree);
+		scorePool.releaseAll();
+		pooledTree = tree;
+	}
+
+	private static void deallocate(Tree<StateSet> tree) {
+		tree.getLabel().deallocate();
+		for (Tree<StateSet> child : tree.getChildren()) {
+			deallocate(child);
+		}
+	}
+
 	public double doInsideOutsideScores(Tree<StateSet> tree,
 			boolean noSmoothing, boolean debugOutput, double[][][] spanScores) {
+		startTree(tree);
 		doInsideScores(tree, noSmoothing, debugOutput, spanScores);
 		setRootOutsideScore(tree);
 		doOutsideScores(tree, false, spanScores);
@@ -840,6 +888,7 @@ public class ArrayParser implements Parser {
 
 	public void doInsideOutsideScores(Tree<StateSet> tree, boolean noSmoothing,
 			boolean debugOutput) {
+		startTree(tree);
 		doInsideScores(tree, noSmoothing, debugOutput, null);
 		setRootOutsideScore(tree);
 		doOutsideScores(tree, false, null);
@@ -1290,7 +1339,7 @@ public class ArrayParser implements Parser {
 	}
 
 	public void incrementExpectedGoldCounts(Linearizer linearizer,
-			double[] probs, Tree<StateSet> tree) {
+			SparseCounts probs, Tree<StateSet> tree) {
 		double tree_score = tree.getLabel().getIScore(0);
 		int tree_scale = tree.getLabel().getIScale();
 		incrementExpectedGoldCounts(linearizer, probs, tree, tree_score,
@@ -1298,7 +1347,7 @@ public class ArrayParser implements Parser {
 	}
 
 	public void incrementExpectedGoldCounts(Linearizer linearizer,
-			double[] probs, Tree<StateSet> tree, double tree_score,
+			SparseCounts probs, Tree<StateSet> tree, double tree_score,
 			int tree_scale) {
 
 		if (tree.isLeaf())
@@ -106,6 +106,12 @@ public class BerkeleyParser {
 
 		@Option(name = "-nGrammars", usage = "Use a product model based on that many grammars")
 		public int nGrammars = 1;
+
+		@Option(name = "-spanFilter", usage = "Close the spans rejected by this span filter (see BoundarySpanFilter) before parsing.")
+		public String spanFilter;
+
+		@Option(name = "-metrics", usage = "Write per-level parsing metrics as JSON to this file.")
+		public String metricsFile;
 	}
 
 	@SuppressWarnings("unchecked")
@@ -162,8 +168,23 @@ public class BerkeleyParser {
 						opts.substates, opts.scores, opts.accurate,
 						opts.variational, false, true);
 			parser.binarization = pData.getBinarization();
+			if (opts.spanFilter != null) {
+				SpanFilter spanFilter = BoundarySpanFilter
+						.load(opts.spanFilter);
+				if (spanFilter == null) {
+					System.out.println("Failed to load span filter from file "
+							+ opts.spanFilter + ".");
+					System.exit(1);
+				}
+				parser.setSpanFilter(spanFilter);
+			}
 		}
 
+		ParserMetrics metrics = null;
+		if (opts.metricsFile != null) {
+			metrics = new ParserMetrics();
+			parser.setMetrics(metrics);
+		}
 		MultiThreadedParserWrapper m_parser = null;
 		if (opts.nThreads > 1) {
 			System.err.println("Parsing with " + opts.nThreads
@@ -287,6 +308,12 @@ public class BerkeleyParser {
 				String fileName = opts.grFileName + ".posteriors";
 				parser.dumpPosteriors(fileName, -1);
 			}
+			if (metrics != null) {
+				PrintWriter metricsOut = new PrintWriter(new OutputStreamWriter(
+						new FileOutputStream(opts.metricsFile), "UTF-8"));
+				metricsOut.println(metrics.toJSON());
+				metricsOut.close();
+			}
 			outputData.flush();
 			outputData.close();
 		} catch (Exception ex) {
@@ -305,14 +332,19 @@ public class BerkeleyParser {
 			edu.berkeley.nlp.PCFGLA.BerkeleyParser.Options opts, String line,
 			String sentenceID) {
 		String delimiter = "\t";
+		// the tree likelihoods, if the ec_format filter computed them already
+		List<Double> treeLLs = null;
 		if (opts.ec_format) {
 			List<Tree<String>> newList = new ArrayList<Tree<String>>(
 					parseTrees.size());
+			treeLLs = new ArrayList<Double>(parseTrees.size());
 			for (Tree<String> parsedTree : parseTrees) {
 				if (parsedTree.getChildren().isEmpty())
 					continue;
-				if (parser.getLogLikelihood(parsedTree) != Double.NEGATIVE_INFINITY) {
+				double treeLL = parser.getLogLikelihood(parsedTree);
+				if (treeLL != Double.NEGATIVE_INFINITY) {
 					newList.add(parsedTree);
+					treeLLs.add(treeLL);
 				}
 			}
 			parseTrees = newList;
@@ -322,11 +354,16 @@ public class BerkeleyParser {
 			delimiter = ",\t";
 		}
 
-		for (Tree<String> parsedTree : parseTrees) {
+		for (int t = 0; t < parseTrees.size(); t++) {
+			Tree<String> parsedTree = parseTrees.get(t);
 			boolean addDelimiter = false;
 			if (opts.tree_likelihood) {
-				double treeLL = (parsedTree.getChildren().isEmpty()) ? Double.NEGATIVE_INFINITY
-						: parser.getLogLikelihood(parsedTree);
+				double treeLL;
+				if (treeLLs != null)
+					treeLL = treeLLs.get(t);
+				else
+					treeLL = (parsedTree.getChildren().isEmpty()) ? Double.NEGATIVE_INFINITY
+							: parser.getLogLikelihood(parsedTree);
 				if (treeLL == Double.NEGATIVE_INFINITY)
 					continue;
 				outputData.write(treeLL + "");
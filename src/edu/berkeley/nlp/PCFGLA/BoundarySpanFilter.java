@@ -0,0 +1,481 @@
+package edu.berkeley.nlp.PCFGLA;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PrintWriter;
+import java.io.Serializable;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import edu.berkeley.nlp.PCFGLA.Corpus.TreeBankType;
+import edu.berkeley.nlp.parser.EnglishPennTreebankParseEvaluator;
+import edu.berkeley.nlp.syntax.Tree;
+import edu.berkeley.nlp.util.Numberer;
+
+/**
+ * A SpanFilter scoring each span with a linear model over the words at and
+ * just outside its boundaries (frequent words by identity, the others by
+ * their shape), the pairs (preceding word, first word) and (last word,
+ * following word), the span length and the number of punctuation marks
+ * inside it, much like the features of SpanPredictor. All features are
+ * looked up in constant time, so filtering a sentence costs O(n^2).
+ *
+ * The weights are trained with logistic regression on the spans of binarized
+ * treebank trees and the threshold is then lowered until a given fraction of
+ * the training constituents is kept. main() trains a filter and reports its
+ * recall and the parsing speedup on the dev set.
+ */
+public class BoundarySpanFilter implements SpanFilter, Serializable {
+	private static final long serialVersionUID = 1L;
+
+	static final int BOUNDARY = 0, PUNCTUATION = 1, NUMBER = 2,
+			CAPITALIZED = 3, LOWERCASE = 4, OTHER = 5, N_SHAPES = 6;
+	static final int MAX_LENGTH = 12, MAX_PUNCTUATION = 4;
+	static final int PAIR_BITS = 16;
+
+	Map<String, Integer> wordIndex;
+	int nClasses;
+	double bias;
+	double[] prevWeights, firstWeights, lastWeights, nextWeights;
+	double[] leftPairWeights, rightPairWeights;
+	double[] lengthWeights, punctuationWeights;
+	double threshold;
+
+	public BoundarySpanFilter(Map<String, Integer> wordIndex) {
+		this.wordIndex = wordIndex;
+		this.nClasses = N_SHAPES + wordIndex.size();
+		prevWeights = new double[nClasses];
+		firstWeights = new double[nClasses];
+		lastWeights = new double[nClasses];
+		nextWeights = new double[nClasses];
+		leftPairWeights = new double[1 << PAIR_BITS];
+		rightPairWeights = new double[1 << PAIR_BITS];
+		lengthWeights = new double[MAX_LENGTH + 1];
+		punctuationWeights = new double[MAX_PUNCTUATION + 1];
+		threshold = Double.NEGATIVE_INFINITY;
+	}
+
+	public boolean[][] getAllowedSpans(List<String> sentence) {
+		int length = sentence.size();
+		int[] classes = classify(sentence);
+		int[] punctuation = punctuationCounts(sentence);
+		boolean[][] allowed = new boolean[length][length + 1];
+		for (int start = 0; start < length; start++) {
+			allowed[start][start + 1] = true;
+			for (int end = start + 2; end <= length; end++) {
+				allowed[start][end] = score(classes, punctuation, start, end) >= threshold;
+			}
+		}
+		allowed[0][length] = true;
+		return allowed;
+	}
+
+	/**
+	 * The classes of the words of the sentence, padded with a BOUNDARY on
+	 * each side, so that word i has class classes[i+1].
+	 */
+	int[] classify(List<String> sentence) {
+		int[] classes = new int[sentence.size() + 2];
+		classes[0] = classes[classes.length - 1] = BOUNDARY;
+		for (int i = 0; i < sentence.size(); i++) {
+			String word = sentence.get(i);
+			Integer index = wordIndex.get(word);
+			classes[i + 1] = (index != null) ? N_SHAPES + index : shape(word);
+		}
+		return classes;
+	}
+
+	static int shape(String word) {
+		boolean hasLetter = false, hasDigit = false;
+		for (int i = 0; i < word.length(); i++) {
+			char c = word.charAt(i);
+			if (Character.isLetter(c))
+				hasLetter = true;
+			else if (Character.isDigit(c))
+				hasDigit = true;
+		}
+		if (hasDigit)
+			return NUMBER;
+		if (!hasLetter)
+			return PUNCTUATION;
+		if (Character.isUpperCase(word.charAt(0)))
+			return CAPITALIZED;
+		if (Character.isLowerCase(word.charAt(0)))
+			return LOWERCASE;
+		return OTHER;
+	}
+
+	/** Prefix sums: punctuation[i] words among the first i are punctuation. */
+	static int[] punctuationCounts(List<String> sentence) {
+		int[] punctuation = new int[sentence.size() + 1];
+		for (int i = 1; i < punctuation.length; i++) {
+			punctuation[i] = punctuation[i - 1]
+					+ ((shape(sentence.get(i - 1)) == PUNCTUATION) ? 1 : 0);
+		}
+		return punctuation;
+	}
+
+	int leftPair(int[] classes, int start) {
+		return pairIndex(classes[start], classes[start + 1]);
+	}
+
+	int rightPair(int[] classes, int end) {
+		return pairIndex(classes[end], classes[end + 1]);
+	}
+
+	static int pairIndex(int a, int b) {
+		int h = a * 0x9E3779B1 + b * 0x85EBCA6B;
+		return (h ^ (h >>> PAIR_BITS)) & ((1 << PAIR_BITS) - 1);
+	}
+
+	static int lengthBucket(int start, int end) {
+		return Math.min(end - start, MAX_LENGTH);
+	}
+
+	static int punctuationBucket(int[] punctuation, int start, int end) {
+		// punctuation strictly inside the span, its boundary words excluded
+		if (end - start < 3)
+			return 0;
+		return Math.min(punctuation[end - 1] - punctuation[start + 1],
+				MAX_PUNCTUATION);
+	}
+
+	double score(int[] classes, int[] punctuation, int start, int end) {
+		return bias + prevWeights[classes[start]]
+				+ firstWeights[classes[start + 1]]
+				+ lastWeights[classes[end]] + nextWeights[classes[end + 1]]
+				+ leftPairWeights[leftPair(classes, start)]
+				+ rightPairWeights[rightPair(classes, end)]
+				+ lengthWeights[lengthBucket(start, end)]
+				+ punctuationWeights[punctuationBucket(punctuation, start, end)];
+	}
+
+	void update(int[] classes, int[] punctuation, int start, int end,
+			double step) {
+		bias += step;
+		prevWeights[classes[start]] += step;
+		firstWeights[classes[start + 1]] += step;
+		lastWeights[classes[end]] += step;
+		nextWeights[classes[end + 1]] += step;
+		leftPairWeights[leftPair(classes, start)] += step;
+		rightPairWeights[rightPair(classes, end)] += step;
+		lengthWeights[lengthBucket(start, end)] += step;
+		punctuationWeights[punctuationBucket(punctuation, start, end)] += step;
+	}
+
+	/**
+	 * The spans [start,end) of length at least two covered by some node of
+	 * the tree, as constituents[start][end].
+	 */
+	public static boolean[][] getConstituents(Tree<String> tree) {
+		int length = tree.getYield().size();
+		boolean[][] constituents = new boolean[length][length + 1];
+		markConstituents(tree, 0, constituents);
+		return constituents;
+	}
+
+	private static int markConstituents(Tree<String> tree, int start,
+			boolean[][] constituents) {
+		if (tree.isLeaf())
+			return start + 1;
+		int end = start;
+		for (Tree<String> child : tree.getChildren()) {
+			end = markConstituents(child, end, constituents);
+		}
+		if (end - start > 1)
+			constituents[start][end] = true;
+		return end;
+	}
+
+	/**
+	 * Trains a filter on the spans of the given trees, binarized the way the
+	 * grammar was, and sets its threshold so that the fraction recall of
+	 * their constituents is kept. Words occurring at least minCount times get
+	 * their own weights.
+	 */
+	public static BoundarySpanFilter train(List<Tree<String>> trees,
+			Binarization binarization, int minCount, int nIterations,
+			double recall) {
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		for (Tree<String> tree : trees) {
+			for (String word : tree.getYield()) {
+				Integer count = counts.get(word);
+				counts.put(word, (count == null) ? 1 : count + 1);
+			}
+		}
+		Map<String, Integer> wordIndex = new HashMap<String, Integer>();
+		for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+			if (entry.getValue() >= minCount)
+				wordIndex.put(entry.getKey(), wordIndex.size());
+		}
+		BoundarySpanFilter filter = new BoundarySpanFilter(wordIndex);
+
+		List<int[]> allClasses = new ArrayList<int[]>();
+		List<int[]> allPunctuation = new ArrayList<int[]>();
+		List<boolean[][]> allConstituents = new ArrayList<boolean[][]>();
+		for (Tree<String> tree : trees) {
+			allClasses.add(filter.classify(tree.getYield()));
+			allPunctuation.add(punctuationCounts(tree.getYield()));
+			allConstituents.add(getConstituents(TreeAnnotations.processTree(
+					tree, 1, 0, binarization, false)));
+		}
+
+		// stochastic gradient ascent on the log-likelihood, the sentences
+		// visited in a random order
+		List<Integer> order = new ArrayList<Integer>();
+		for (int i = 0; i < trees.size(); i++)
+			order.add(i);
+		Random random = new Random(0);
+		double rate = 0.1, regularization = 1e-6;
+		for (int iteration = 0; iteration < nIterations; iteration++) {
+			Collections.shuffle(order, random);
+			double logLikelihood = 0;
+			for (int i : order) {
+				int[] classes = allClasses.get(i);
+				int[] punctuation = allPunctuation.get(i);
+				boolean[][] constituents = allConstituents.get(i);
+				int length = constituents.length;
+				for (int start = 0; start < length; start++) {
+					for (int end = start + 2; end <= length; end++) {
+						if (start == 0 && end == length)
+							continue;
+						double s = filter.score(classes, punctuation, start,
+								end);
+						double p = 1 / (1 + Math.exp(-s));
+						boolean positive = constituents[start][end];
+						logLikelihood += Math.log(positive ? p : 1 - p);
+						filter.update(classes, punctuation, start, end, rate
+								* ((positive ? 1 : 0) - p) - regularization
+								* s);
+					}
+				}
+			}
+			rate *= 0.7;
+			System.out.println("Iteration " + iteration
+					+ ": log-likelihood " + logLikelihood);
+		}
+
+		List<Double> positiveScores = new ArrayList<Double>();
+		for (int i = 0; i < trees.size(); i++) {
+			boolean[][] constituents = allConstituents.get(i);
+			int length = constituents.length;
+			for (int start = 0; start < length; start++) {
+				for (int end = start + 2; end <= length; end++) {
+					if (constituents[start][end] && !(start == 0 && end == length))
+						positiveScores.add(filter.score(allClasses.get(i),
+								allPunctuation.get(i), start, end));
+				}
+			}
+		}
+		Collections.sort(positiveScores);
+		int cutoff = (int) Math.floor((1 - recall) * positiveScores.size());
+		if (!positiveScores.isEmpty())
+			filter.threshold = positiveScores.get(Math.min(cutoff,
+					positiveScores.size() - 1));
+		return filter;
+	}
+
+	public boolean save(String fileName) {
+		try {
+			ObjectOutputStream out = new ObjectOutputStream(
+					new GZIPOutputStream(new FileOutputStream(fileName)));
+			out.writeObject(this);
+			out.flush();
+			out.close();
+		} catch (IOException e) {
+			System.out.println("IOException: " + e);
+			return false;
+		}
+		return true;
+	}
+
+	public static BoundarySpanFilter load(String fileName) {
+		BoundarySpanFilter filter = null;
+		try {
+			ObjectInputStream in = new ObjectInputStream(new GZIPInputStream(
+					new FileInputStream(fileName)));
+			filter = (BoundarySpanFilter) in.readObject();
+			in.close();
+		} catch (IOException e) {
+			System.out.println("IOException\n" + e);
+			return null;
+		} catch (ClassNotFoundException e) {
+			System.out.println("Class not found!");
+			return null;
+		}
+		return filter;
+	}
+
+	public static class Options {
+
+		@Option(name = "-path", usage = "Path to Corpus (Default: null)")
+		public String path = null;
+
+		@Option(name = "-treebank", usage = "Language:  WSJ, CHNINESE, GERMAN, CONLL, SINGLEFILE (Default: ENGLISH)")
+		public TreeBankType treebank = TreeBankType.WSJ;
+
+		@Option(name = "-out", usage = "Output File for the span filter")
+		public String outFileName = null;
+
+		@Option(name = "-in", usage = "Evaluate this span filter instead of training one")
+		public String inFileName = null;
+
+		@Option(name = "-gr", usage = "Grammar file: also report the parsing speed and accuracy with and without the filter")
+		public String grFileName = null;
+
+		@Option(name = "-b", usage = "LEFT/RIGHT Binarization of the training trees, should match the grammar's (Default: RIGHT)")
+		public Binarization binarization = Binarization.RIGHT;
+
+		@Option(name = "-recall", usage = "Fraction of the training constituents to keep (Default: 0.999)")
+		public double recall = 0.999;
+
+		@Option(name = "-minCount", usage = "Words seen this often get their own weights (Default: 5)")
+		public int minCount = 5;
+
+		@Option(name = "-iterations", usage = "Passes over the training data (Default: 10)")
+		public int nIterations = 10;
+
+		@Option(name = "-maxL", usage = "Maximum sentence length (Default <=40)")
+		public int maxSentenceLength = 40;
+	}
+
+	public static void main(String[] args) {
+		OptionParser optParser = new OptionParser(Options.class);
+		Options opts = (Options) optParser.parse(args, true);
+		System.out.println("Calling with " + optParser.getPassedInOptions());
+
+		Corpus corpus = new Corpus(opts.path, opts.treebank, 1.0, false);
+		List<Tree<String>> testTrees = new ArrayList<Tree<String>>();
+		for (Tree<String> tree : corpus.getDevTestingTrees()) {
+			if (tree.getYield().size() <= opts.maxSentenceLength)
+				testTrees.add(tree);
+		}
+
+		BoundarySpanFilter filter;
+		if (opts.inFileName != null) {
+			filter = load(opts.inFileName);
+			if (filter == null)
+				System.exit(1);
+		} else {
+			filter = train(corpus.getTrainTrees(), opts.binarization,
+					opts.minCount, opts.nIterations, opts.recall);
+			if (opts.outFileName != null && !filter.save(opts.outFileName))
+				System.exit(1);
+		}
+
+		// recall on the binarized and on the original constituents
+		int nSpans = 0, nClosed = 0;
+		int nBinarized = 0, nBinarizedKept = 0, nBrackets = 0, nBracketsKept = 0;
+		for (Tree<String> tree : testTrees) {
+			List<String> sentence = tree.getYield();
+			int length = sentence.size();
+			boolean[][] allowed = filter.getAllowedSpans(sentence);
+			boolean[][] binarized = getConstituents(TreeAnnotations
+					.processTree(tree, 1, 0, opts.binarization, false));
+			boolean[][] brackets = getConstituents(tree);
+			for (int start = 0; start < length; start++) {
+				for (int end = start + 2; end <= length; end++) {
+					if (start == 0 && end == length)
+						continue;
+					nSpans++;
+					if (!allowed[start][end])
+						nClosed++;
+					if (binarized[start][end]) {
+						nBinarized++;
+						if (allowed[start][end])
+							nBinarizedKept++;
+					}
+					if (brackets[start][end]) {
+						nBrackets++;
+						if (allowed[start][end])
+							nBracketsKept++;
+					}
+				}
+			}
+		}
+		System.out.println(testTrees.size() + " dev sentences, " + nSpans
+				+ " spans of length >= 2");
+		System.out.printf("closed %.1f%% of the spans\n", 100.0 * nClosed
+				/ nSpans);
+		System.out.printf("recall on binarized constituents %.2f%% (%d/%d)\n",
+				100.0 * nBinarizedKept / nBinarized, nBinarizedKept,
+				nBinarized);
+		System.out.printf("recall on treebank brackets      %.2f%% (%d/%d)\n",
+				100.0 * nBracketsKept / nBrackets, nBracketsKept, nBrackets);
+
+		if (opts.grFileName == null)
+			return;
+		ParserData pData = ParserData.Load(opts.grFileName);
+		if (pData == null) {
+			System.out.println("Failed to load grammar from file "
+					+ opts.grFileName + ".");
+			System.exit(1);
+		}
+		Numberer.setNumberers(pData.getNumbs());
+		CoarseToFineMaxRuleParser parser = new CoarseToFineMaxRuleParser(
+				pData.getGrammar(), pData.getLexicon(), 1.0, -1, false, false,
+				false, false, false, false, true);
+		parser.binarization = pData.getBinarization();
+
+		// warm up, then alternate so that both settings see the same JIT state
+		parse(parser, testTrees, null);
+		parser.setSpanFilter(filter);
+		parse(parser, testTrees, null);
+		long[] times = new long[2];
+		double[] f1 = new double[2];
+		// sentences parsed again without the filter, in one round; their time
+		// is part of the time with the filter
+		int nFallbacks = 0;
+		for (int round = 0; round < 3; round++) {
+			for (int withFilter = 0; withFilter < 2; withFilter++) {
+				parser.setSpanFilter((withFilter == 1) ? filter : null);
+				EnglishPennTreebankParseEvaluator.LabeledConstituentEval<String> eval = newEval();
+				int fallbacks = parser.getSpanFilterFallbacks();
+				long start = System.nanoTime();
+				parse(parser, testTrees, eval);
+				times[withFilter] += System.nanoTime() - start;
+				nFallbacks = parser.getSpanFilterFallbacks() - fallbacks;
+				f1[withFilter] = eval.display(false, new PrintWriter(
+						new StringWriter()));
+			}
+		}
+		System.out.printf("without filter: %8.1f ms, F1 %.2f\n",
+				times[0] / 3e6, 100 * f1[0]);
+		System.out.printf("with filter:    %8.1f ms, F1 %.2f, %d of %d "
+				+ "sentences parsed again without it\n", times[1] / 3e6,
+				100 * f1[1], nFallbacks, testTrees.size());
+		System.out.printf("speedup %.2fx\n", (double) times[0] / times[1]);
+	}
+
+	static EnglishPennTreebankParseEvaluator.LabeledConstituentEval<String> newEval() {
+		return new EnglishPennTreebankParseEvaluator.LabeledConstituentEval<String>(
+				new HashSet<String>(Arrays.asList(new String[] { "ROOT",
+						"PSEUDO" })), new HashSet<String>(Arrays
+						.asList(new String[] { "''", "``", ".", ":", "," })));
+	}
+
+	static void parse(CoarseToFineMaxRuleParser parser,
+			List<Tree<String>> trees,
+			EnglishPennTreebankParseEvaluator.LabeledConstituentEval<String> eval) {
+		for (Tree<String> tree : trees) {
+			Tree<String> parsedTree = parser.getBestParse(tree.getYield());
+			if (eval == null)
+				continue;
+			parsedTree = TreeAnnotations.unAnnotateTree(parsedTree, false);
+			eval.evaluate(parsedTree, tree, false);
+		}
+	}
+
+}
@@ -12,6 +12,7 @@ import edu.berkeley.nlp.math.DoubleArrays;
 import edu.berkeley.nlp.syntax.StateSet;
 import edu.berkeley.nlp.syntax.Tree;
 import edu.berkeley.nlp.util.ArrayUtil;
+import edu.berkeley.nlp.util.BitArrays;
 import edu.berkeley.nlp.util.Numberer;
 import edu.berkeley.nlp.util.ScalingTools;
 
@@ -32,9 +33,24 @@ import edu.berkeley.nlp.util.ScalingTools;
  */
 
 public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
-	boolean[][][][] allowedSubStates;
+	// allowedSubStates[start][end][state] is a bitset (see BitArrays) of the
+	// substates that survived pruning, null if all of them are allowed
+	long[][][][] allowedSubStates;
 	boolean[][][] allowedStates;
 	boolean[][] vAllowedStates;
+	// Sparse chart cells for the pruned levels of the cascade: when only a
+	// few substates of a state survive, iScore/oScore[start][end][state] hold
+	// just their scores and packedSubStates[start][end][state] lists which
+	// substates these are (null for dense cells).
+	short[][][][] packedSubStates;
+	// cells with fewer allowed substates than this fraction are packed
+	double sparseCellOccupancy = 0.5;
+	short[] subStateList;
+	double[] rightScoresToAdd;
+	// closes spans before the coarsest pass, null to keep all of them
+	SpanFilter spanFilter;
+	// sentences the coarsest pass could not parse with the filter
+	int nSpanFilterFallbacks;
 	double[][] spanMass;
 	// allowedStates[start][end][state][0] -> is this category allowed
 	// allowedStates[start][end][state][i+1] -> is subcategory i allowed
@@ -50,6 +66,9 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 	// protected short[] numSubStatesArray;
 	double[] maxThresholds;
 	double logLikelihood;
+	// unscaled inside scores above this have not lost any precision that
+	// matters to underflow; see firstInexactSpan()
+	static final double EXACT_SCORE = 1e-280;
 	Tree<String> bestTree;
 	boolean isBaseline;
 	protected final boolean doVariational;
@@ -77,8 +96,18 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 	final boolean accurate;
 	final boolean useGoldPOS;
 	double[] unscaledScoresToAdd;
-	ArrayParser llParser;
+	// position, tag --> the lexicon scores of the final level
+	double[][][] finalLexiconScores;
+	List<String> finalLexiconSentence;
+	boolean keepLexiconScores;
 	List<Posterior> posteriorsToDump;
+	// the lexicon scores of the current batch of sentences, if any
+	LexicalScoreTable lexicalScores;
+	// null unless the parser collects metrics
+	ParserMetrics metrics;
+	ParserMetrics.Sentence sentenceMetrics;
+	// (binary rule, split point) pairs tried by the inside passes so far
+	long ruleApplications;
 
 	// double edgesTouched;
 	// int sentencesParsed;
@@ -119,6 +148,8 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 		this.idxC = new int[maxNSubStates];
 		this.scoresToAdd = new double[maxNSubStates];
 		this.unscaledScoresToAdd = new double[maxNSubStates];
+		this.subStateList = new short[maxNSubStates];
+		this.rightScoresToAdd = new double[maxNSubStates];
 		this.grammarTags = new boolean[numStates];
 		for (int i = 0; i < numStates; i++) {
 			grammarTags[i] = gr.isGrammarTag(i);
@@ -223,6 +254,7 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 					"This would require logAdds and is slow. Exponentiate the scores instead.");
 		short[] numSubStatesArray = grammar.numSubStates;
 		double initVal = (logScores) ? Double.NEGATIVE_INFINITY : 0;
+		long rules = 0;
 
 		for (int diff = 1; diff <= length; diff++) {
 			for (int start = 0; start < (length - diff + 1); start++) {
@@ -235,6 +267,14 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 						continue;
 					BinaryRule[] parentRules = grammar.splitRulesWithP(pState);
 					final int nParentStates = numSubStatesArray[pState];
+					// the parent substates that are still allowed
+					short[] pSubStates = getPackedSubStates(start, end, pState);
+					final int nAllowedParentStates;
+					if (pSubStates == null) {
+						nAllowedParentStates = listAllowedSubStates(allowedSubStates[start][end][pState]);
+						pSubStates = subStateList;
+					} else
+						nAllowedParentStates = pSubStates.length;
 					Arrays.fill(scoresToAdd, initVal);
 					boolean somethingChanged = false;
 					final int numRules = parentRules.length;
@@ -294,38 +334,38 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 						if (min > max) {
 							continue;
 						}
-						// TODO switch order of loops for efficiency
 						double[][][] scores = r.getScores2();
-						final int nLeftChildStates = numSubStatesArray[lState];
-						final int nRightChildStates = numSubStatesArray[rState];
 						for (int split = min; split <= max; split++) {
 							if (!allowedStates[start][split][lState])
 								continue;
 							if (!allowedStates[split][end][rState])
 								continue;
-							for (int lp = 0; lp < nLeftChildStates; lp++) {
-								// if (iScore[start][split][lState] == null)
-								// continue;
-								// if
-								// (!allowedSubStates[start][split][lState][lp])
-								// continue;
-								double lS = iScore[start][split][lState][lp];
+							rules++;
+							final double[] lScores = iScore[start][split][lState];
+							final double[] rScores = iScore[split][end][rState];
+							final short[] lSubStates = getPackedSubStates(
+									start, split, lState);
+							final short[] rSubStates = getPackedSubStates(
+									split, end, rState);
+							for (int li = 0; li < lScores.length; li++) {
+								double lS = lScores[li];
 								if (lS == initVal)
 									continue;
-
-								for (int rp = 0; rp < nRightChildStates; rp++) {
-									if (scores[lp][rp] == null)
+								int lp = (lSubStates == null) ? li
+										: lSubStates[li];
+
+								for (int ri = 0; ri < rScores.length; ri++) {
+									int rp = (rSubStates == null) ? ri
+											: rSubStates[ri];
+									double[] pScores = scores[lp][rp];
+									if (pScores == null)
 										continue;
-									double rS = iScore[split][end][rState][rp];
+									double rS = rScores[ri];
 									if (rS == initVal)
 										continue;
-									for (int np = 0; np < nParentStates; np++) {
-										if (!allowedSubStates[start][end][pState][np])
-											continue;
-										// if (level==endLevel-1)
-										// edgesTouched++;
-
-										double pS = scores[lp][rp][np];
+									for (int pi = 0; pi < nAllowedParentStates; pi++) {
+										int np = pSubStates[pi];
+										double pS = pScores[np];
 										if (pS == initVal)
 											continue;
 
@@ -346,11 +386,8 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 					if (!somethingChanged)
 						continue;
 
-					for (int np = 0; np < nParentStates; np++) {
-						if (scoresToAdd[np] > initVal) {
-							iScore[start][end][pState][np] = scoresToAdd[np];
-						}
-					}
+					addToCell(iScore[start][end][pState], getPackedSubStates(
+							start, end, pState), scoresToAdd, viterbi, initVal);
 					if (true) {// firstTime) {
 						if (start > narrowLExtent[end][pState]) {
 							narrowLExtent[end][pState] = start;
@@ -384,6 +421,13 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 						unaries = grammar
 								.getClosedSumUnaryRulesByParent(pState);
 					final int nParentStates = numSubStatesArray[pState];// scores[0].length;
+					short[] pSubStates = getPackedSubStates(start, end, pState);
+					final int nAllowedParentStates;
+					if (pSubStates == null) {
+						nAllowedParentStates = listAllowedSubStates(allowedSubStates[start][end][pState]);
+						pSubStates = subStateList;
+					} else
+						nAllowedParentStates = pSubStates.length;
 					boolean firstTime = true;
 					final int numRules = unaries.length;
 					for (int r = 0; r < numRules; r++) {
@@ -391,29 +435,26 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 						int cState = ur.childState;
 						if ((pState == cState))
 							continue;// && (np == cp))continue;
-						if (iScore[start][end][cState] == null)
+						final double[] cScores = iScore[start][end][cState];
+						if (cScores == null)
 							continue;
+						final short[] cSubStates = getPackedSubStates(start,
+								end, cState);
 						double[][] scores = ur.getScores2();
-						final int nChildStates = numSubStatesArray[cState];// scores[0].length;
-						for (int cp = 0; cp < nChildStates; cp++) {
-							if (scores[cp] == null)
+						for (int ci = 0; ci < cScores.length; ci++) {
+							int cp = (cSubStates == null) ? ci : cSubStates[ci];
+							double[] pScores = scores[cp];
+							if (pScores == null)
 								continue;
-							for (int np = 0; np < nParentStates; np++) {
-								if (!allowedSubStates[start][end][pState][np])
-									continue;
-								// if
-								// (!allowedSubStates[start][end][cState][cp])
-								// continue;
-								// if (level==endLevel-1) edgesTouched++;
-
-								double pS = scores[cp][np];
+							double iS = cScores[ci];
+							if (iS == initVal)
+								continue;
+							for (int pi = 0; pi < nAllowedParentStates; pi++) {
+								int np = pSubStates[pi];
+								double pS = pScores[np];
 								if (pS == initVal)
 									continue;
 
-								double iS = iScore[start][end][cState][cp];
-								if (iS == initVal)
-									continue;
-
 								if (firstTime) {
 									firstTime = false;
 									scoresAfterUnaries[pState] = new double[nParentStates];
@@ -438,21 +479,11 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 				if (!somethingChanged)
 					continue;
 				for (int pState = 0; pState < numStates; pState++) {
-					final int nParentStates = numSubStatesArray[pState];
 					double[] thisCell = scoresAfterUnaries[pState];
 					if (thisCell == null)
 						continue;
-					for (int np = 0; np < nParentStates; np++) {
-						if (thisCell[np] > initVal) {
-							if (viterbi)
-								iScore[start][end][pState][np] = Math.max(
-										iScore[start][end][pState][np],
-										thisCell[np]);
-							else
-								iScore[start][end][pState][np] = iScore[start][end][pState][np]
-										+ thisCell[np];
-						}
-					}
+					addToCell(iScore[start][end][pState], getPackedSubStates(
+							start, end, pState), thisCell, viterbi, initVal);
 					if (true) {
 						if (start > narrowLExtent[end][pState]) {
 							narrowLExtent[end][pState] = start;
@@ -474,6 +505,7 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 				}
 			}
 		}
+		ruleApplications += rules;
 	}
 
 	/**
@@ -505,29 +537,41 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 					else
 						rules = grammar.getClosedSumUnaryRulesByChild(cState);
 					final int nChildStates = numSubStatesArray[cState];
+					// the child substates that are still allowed
+					short[] cSubStates = getPackedSubStates(start, end, cState);
+					final int nAllowedChildStates;
+					if (cSubStates == null) {
+						nAllowedChildStates = listAllowedSubStates(allowedSubStates[start][end][cState]);
+						cSubStates = subStateList;
+					} else
+						nAllowedChildStates = cSubStates.length;
 					final int numRules = rules.length;
 					for (int r = 0; r < numRules; r++) {
 						UnaryRule ur = rules[r];
 						int pState = ur.parentState;
 						if ((pState == cState))
 							continue;// && (np == cp))continue;
-						if (oScore[start][end][pState] == null) {
+						final double[] pOScores = oScore[start][end][pState];
+						if (pOScores == null) {
 							continue;
 						}
+						final short[] pSubStates = getPackedSubStates(start,
+								end, pState);
 
 						double[][] scores = ur.getScores2();
-						final int nParentStates = numSubStatesArray[pState];
-						for (int cp = 0; cp < nChildStates; cp++) {
-							if (scores[cp] == null)
-								continue;
-							if (!allowedSubStates[start][end][cState][cp])
+						for (int ci = 0; ci < nAllowedChildStates; ci++) {
+							int cp = cSubStates[ci];
+							double[] pScores = scores[cp];
+							if (pScores == null)
 								continue;
-							for (int np = 0; np < nParentStates; np++) {
-								double pS = scores[cp][np];
+							for (int pi = 0; pi < pOScores.length; pi++) {
+								int np = (pSubStates == null) ? pi
+										: pSubStates[pi];
+								double pS = pScores[np];
 								if (pS == initVal)
 									continue;
 
-								double oS = oScore[start][end][pState][np];
+								double oS = pOScores[pi];
 								if (oS == initVal)
 									continue;
 
@@ -535,7 +579,7 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 										* pS;
 
 								if (scoresAfterUnaries[cState] == null) {
-									scoresAfterUnaries[cState] = new double[numSubStatesArray[cState]];
+									scoresAfterUnaries[cState] = new double[nChildStates];
 									if (viterbi)
 										Arrays.fill(scoresAfterUnaries[cState],
 												initVal);
@@ -557,26 +601,21 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 						double[] thisCell = scoresAfterUnaries[cState];
 						if (thisCell == null)
 							continue;
-						for (int cp = 0; cp < numSubStatesArray[cState]; cp++) {
-							if (thisCell[cp] > initVal) {
-								if (viterbi)
-									oScore[start][end][cState][cp] = Math.max(
-											oScore[start][end][cState][cp],
-											thisCell[cp]);
-								else
-									oScore[start][end][cState][cp] += thisCell[cp];
-							}
-						}
+						addToCell(oScore[start][end][cState],
+								getPackedSubStates(start, end, cState),
+								thisCell, viterbi, initVal);
 					}
 				}
 
 				// do binaries
 
 				for (int pState = 0; pState < numSubStatesArray.length; pState++) {
-					if (oScore[start][end][pState] == null) {
+					final double[] pOScores = oScore[start][end][pState];
+					if (pOScores == null) {
 						continue;
 					}
-					final int nParentChildStates = numSubStatesArray[pState];
+					final short[] pSubStates = getPackedSubStates(start, end,
+							pState);
 					// if (!allowedStates[start][end][pState]) continue;
 					BinaryRule[] rules = grammar.splitRulesWithP(pState);
 					final int numRules = rules.length;
@@ -610,7 +649,6 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 						}
 
 						double[][][] scores = br.getScores2();
-						final int nLeftChildStates = numSubStatesArray[lState];
 						final int nRightChildStates = numSubStatesArray[rState];
 						for (int split = min; split <= max; split++) {
 							if (oScore[start][split][lState] == null)
@@ -620,36 +658,43 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 							// if (!allowedStates[start][split][lState])
 							// continue;
 							// if (!allowedStates[split][end][rState]) continue;
-							double[] rightScores = new double[nRightChildStates];
-							if (viterbi)
-								Arrays.fill(rightScores, initVal);
+							final double[] lScores = iScore[start][split][lState];
+							final double[] rScores = iScore[split][end][rState];
+							final short[] lSubStates = getPackedSubStates(
+									start, split, lState);
+							final short[] rSubStates = getPackedSubStates(
+									split, end, rState);
+							double[] rightScores = rightScoresToAdd;
+							Arrays.fill(rightScores, 0, nRightChildStates,
+									(viterbi) ? initVal : 0.0);
 							Arrays.fill(scoresToAdd, initVal);
 							somethingChanged = false;
-							for (int lp = 0; lp < nLeftChildStates; lp++) {
-								double lS = iScore[start][split][lState][lp];
+							for (int li = 0; li < lScores.length; li++) {
+								double lS = lScores[li];
 								if (lS == initVal) {
 									continue;
 								}
-								// if
-								// (!allowedSubStates[start][split][lState][lp])
-								// continue;
-								for (int rp = 0; rp < nRightChildStates; rp++) {
-									if (scores[lp][rp] == null)
+								int lp = (lSubStates == null) ? li
+										: lSubStates[li];
+								for (int ri = 0; ri < rScores.length; ri++) {
+									int rp = (rSubStates == null) ? ri
+											: rSubStates[ri];
+									double[] pScores = scores[lp][rp];
+									if (pScores == null)
 										continue;
-									double rS = iScore[split][end][rState][rp];
+									double rS = rScores[ri];
 									if (rS == initVal) {
 										continue;
 									}
-									// if
-									// (!allowedSubStates[split][end][rState][rp])
-									// continue;
 
-									for (int np = 0; np < nParentChildStates; np++) {
-										double pS = scores[lp][rp][np];
+									for (int pi = 0; pi < pOScores.length; pi++) {
+										int np = (pSubStates == null) ? pi
+												: pSubStates[pi];
+										double pS = pScores[np];
 										if (pS == initVal)
 											continue;
 
-										double oS = oScore[start][end][pState][np];
+										double oS = pOScores[pi];
 										if (oS == initVal)
 											continue;
 
@@ -676,27 +721,10 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 							}
 							if (!somethingChanged)
 								continue;
-							for (int cp = 0; cp < nLeftChildStates; cp++) {
-								if (scoresToAdd[cp] > initVal) {
-									if (viterbi)
-										oScore[start][split][lState][cp] = Math
-												.max(oScore[start][split][lState][cp],
-														scoresToAdd[cp]);
-									else
-										oScore[start][split][lState][cp] += scoresToAdd[cp];
-								}
-							}
-
-							for (int cp = 0; cp < nRightChildStates; cp++) {
-								if (rightScores[cp] > initVal) {
-									if (viterbi)
-										oScore[split][end][rState][cp] = Math
-												.max(oScore[split][end][rState][cp],
-														rightScores[cp]);
-									else
-										oScore[split][end][rState][cp] += rightScores[cp];
-								}
-							}
+							addToCell(oScore[start][split][lState], lSubStates,
+									scoresToAdd, viterbi, initVal);
+							addToCell(oScore[split][end][rState], rSubStates,
+									rightScores, viterbi, initVal);
 						}
 					}
 				}
@@ -704,6 +732,41 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 		}
 	}
 
+	/**
+	 * Returns the substates that the scores of a sparse chart cell belong to,
+	 * or null if the cell is stored densely.
+	 */
+	protected final short[] getPackedSubStates(int start, int end, int state) {
+		if (packedSubStates == null || packedSubStates[start][end] == null)
+			return null;
+		return packedSubStates[start][end][state];
+	}
+
+	/**
+	 * Collects the allowed substates in increasing order in subStateList and
+	 * returns how many there are.
+	 */
+	private int listAllowedSubStates(long[] allowed) {
+		return BitArrays.toList(allowed, subStateList);
+	}
+
+	/**
+	 * Adds (or maxes, for viterbi scores) the substate scores in toAdd that
+	 * are above initVal into a dense or packed chart cell.
+	 */
+	private static void addToCell(double[] cell, short[] packed,
+			double[] toAdd, boolean viterbi, double initVal) {
+		for (int i = 0; i < cell.length; i++) {
+			double score = toAdd[(packed == null) ? i : packed[i]];
+			if (score > initVal) {
+				if (viterbi)
+					cell[i] = Math.max(cell[i], score);
+				else
+					cell[i] += score;
+			}
+		}
+	}
+
 	void initializeChart(List<String> sentence, Lexicon lexicon,
 			boolean noSubstates, boolean noSmoothing, List<String> posTags,
 			boolean scale) {
@@ -715,6 +778,8 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 			if (useGoldPOS && posTags != null) {
 				goldTag = tagNumberer.number(posTags.get(start));
 			}
+			double[][] wordScores = (lexicalScores == null) ? null
+					: lexicalScores.getScores(lexicon, word, start, noSmoothing);
 			for (int tag = 0; tag < numStates; tag++) {
 				if (!noSubstates && !allowedStates[start][end][tag])
 					continue;
@@ -728,12 +793,24 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 				narrowLExtent[end][tag] = start;
 				wideRExtent[start][tag] = end;
 				wideLExtent[end][tag] = start;
-				double[] lexiconScores = lexicon.score(word, (short) tag,
-						start, noSmoothing, false);
+				double[] lexiconScores = (wordScores != null) ? wordScores[tag]
+						: lexicon.score(word, (short) tag, start, noSmoothing,
+								false);
+				if (keepLexiconScores)
+					finalLexiconScores[start][tag] = lexiconScores;
 				if (scale)
 					iScale[start][end][tag] = 0;
+				short[] packed = (noSubstates) ? null : getPackedSubStates(
+						start, end, tag);
+				if (packed != null) {
+					for (int i = 0; i < packed.length; i++) {
+						iScore[start][end][tag][i] = lexiconScores[packed[i]];
+					}
+					continue;
+				}
 				for (short n = 0; n < lexiconScores.length; n++) {
-					if (!noSubstates && !allowedSubStates[start][end][tag][n])
+					if (!noSubstates
+							&& !BitArrays.get(allowedSubStates[start][end][tag], n))
 						continue;
 					double prob = lexiconScores[n];
 					if (noSubstates)
@@ -751,10 +828,39 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 		}
 	}
 
+	/**
+	 * Initializes the chart of the final level and keeps the lexicon scores,
+	 * so that getLogLikelihood(tree) can score the trees of this sentence
+	 * without going back to the lexicon.
+	 */
+	void initializeFinalChart(List<String> sentence, Lexicon lexicon,
+			List<String> posTags, boolean scale) {
+		finalLexiconScores = new double[sentence.size()][numStates][];
+		finalLexiconSentence = sentence;
+		keepLexiconScores = true;
+		initializeChart(sentence, lexicon, false, false, posTags, scale);
+		keepLexiconScores = false;
+	}
+
 	protected void createArrays(boolean firstTime, int numStates,
 			short[] numSubStatesArray, int level, double initVal,
 			boolean justInit) {
+		createArrays(firstTime, numStates, numSubStatesArray, level, initVal,
+				justInit, false);
+	}
+
+	/**
+	 * As above, but if sparseCells is set the cells in which less than
+	 * sparseCellOccupancy of the substates are still allowed only store the
+	 * scores of the allowed substates (see packedSubStates).
+	 */
+	protected void createArrays(boolean firstTime, int numStates,
+			short[] numSubStatesArray, int level, double initVal,
+			boolean justInit, boolean sparseCells) {
 		// spanMass = new double[length][length+1];
+		packedSubStates = (sparseCells) ? new short[length][length + 1][][]
+				: null;
+		this.numSubStatesArray = numSubStatesArray;
 		if (firstTime) {
 			// clearArrays();
 
@@ -772,7 +878,7 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 			// iScale = new int[length][length + 1][];
 			// oScale = new int[length][length + 1][];
 			// }
-			allowedSubStates = new boolean[length][length + 1][][];
+			allowedSubStates = new long[length][length + 1][][];
 			allowedStates = new boolean[length][length + 1][];
 			vAllowedStates = new boolean[length][length + 1];
 
@@ -787,7 +893,7 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 					oScore[start][end] = new double[numStates][];
 					// iScale[start][end] = new int[numStates];
 					// oScale[start][end] = new int[numStates];
-					allowedSubStates[start][end] = new boolean[numStates][];
+					allowedSubStates[start][end] = new long[numStates][];
 					allowedStates[start][end] = grammarTags.clone();
 					// Arrays.fill(allowedStates[start][end], true);
 					vAllowedStates[start][end] = true;
@@ -805,31 +911,35 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 							viScore[start][end][state] = Double.NEGATIVE_INFINITY;
 							voScore[start][end][state] = Double.NEGATIVE_INFINITY;
 						} else {
-							iScore[start][end][state] = new double[numSubStatesArray[state]];
-							oScore[start][end][state] = new double[numSubStatesArray[state]];
-							Arrays.fill(iScore[start][end][state], initVal);
-							Arrays.fill(oScore[start][end][state], initVal);
-							// Arrays.fill(iScale[start][end],
-							// Integer.MIN_VALUE);
-							// Arrays.fill(oScale[start][end],
-							// Integer.MIN_VALUE);
-
-							boolean[] newAllowedSubStates = new boolean[numSubStatesArray[state]];
 							if (allowedSubStates[start][end][state] == null) {
-								Arrays.fill(newAllowedSubStates, true);
-								allowedSubStates[start][end][state] = newAllowedSubStates;
+								allowedSubStates[start][end][state] = BitArrays
+										.allSet(numSubStatesArray[state]);
 							} else {
 								if (!justInit) {
-									int[][] curLChildMap = lChildMap[level - 2];
-									int[][] curRChildMap = rChildMap[level - 2];
-									for (int i = 0; i < allowedSubStates[start][end][state].length; i++) {
-										boolean val = allowedSubStates[start][end][state][i];
-										newAllowedSubStates[curLChildMap[state][i]] = val;
-										newAllowedSubStates[curRChildMap[state][i]] = val;
-									}
-									allowedSubStates[start][end][state] = newAllowedSubStates;
+									allowedSubStates[start][end][state] = BitArrays
+											.project(
+													allowedSubStates[start][end][state],
+													lChildMap[level - 2][state],
+													rChildMap[level - 2][state],
+													numSubStatesArray[state]);
+								}
+							}
+							int cellSize = numSubStatesArray[state];
+							if (sparseCells) {
+								short[] packed = packSubStates(
+										allowedSubStates[start][end][state],
+										cellSize);
+								if (packed != null) {
+									if (packedSubStates[start][end] == null)
+										packedSubStates[start][end] = new short[numStates][];
+									packedSubStates[start][end][state] = packed;
+									cellSize = packed.length;
 								}
 							}
+							iScore[start][end][state] = new double[cellSize];
+							oScore[start][end][state] = new double[cellSize];
+							Arrays.fill(iScore[start][end][state], initVal);
+							Arrays.fill(oScore[start][end][state], initVal);
 						}
 					} else {
 						if (level < 1) {
@@ -879,8 +989,98 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 
 	}
 
+	/**
+	 * Returns the allowed substates in increasing order if there are few
+	 * enough of them for the cell to be stored sparsely, null otherwise.
+	 */
+	private short[] packSubStates(long[] allowed, int nSubStates) {
+		int nAllowed = BitArrays.cardinality(allowed);
+		if (nAllowed >= sparseCellOccupancy * nSubStates)
+			return null;
+		short[] packed = new short[nAllowed];
+		BitArrays.toList(allowed, packed);
+		return packed;
+	}
+
+	/**
+	 * Sets the fraction of allowed substates below which the cells of the
+	 * pruned levels are stored sparsely; 0 keeps all cells dense.
+	 */
+	public void setSparseCellOccupancy(double occupancy) {
+		this.sparseCellOccupancy = occupancy;
+	}
+
+	/**
+	 * Spans that the filter rules out are closed for all states before the
+	 * X-bar pass, so no level of the cascade builds anything over them. If
+	 * that leaves the X-bar pass without a parse, it is run again without the
+	 * filter. Pass null to parse without a filter.
+	 */
+	public void setSpanFilter(SpanFilter spanFilter) {
+		this.spanFilter = spanFilter;
+	}
+
+	/**
+	 * The number of sentences this parser had to parse again without the span
+	 * filter, because the filter closed a span that every parse needs.
+	 */
+	public int getSpanFilterFallbacks() {
+		return nSpanFilterFallbacks;
+	}
+
+	/**
+	 * Takes the lexicon scores of the words from the table, when it has them,
+	 * instead of computing them for every sentence. The table has to be built
+	 * from this parser's cascade. Pass null to go back to the lexicons.
+	 */
+	public void setLexicalScores(LexicalScoreTable lexicalScores) {
+		this.lexicalScores = lexicalScores;
+	}
+
+	/**
+	 * Adds the time, pruning and rule applications of every level of every
+	 * sentence parsed from now on to the metrics, which any number of parsers
+	 * can share. Pass null to stop.
+	 */
+	public void setMetrics(ParserMetrics metrics) {
+		this.metrics = metrics;
+		sentenceMetrics = (metrics == null) ? null
+				: new ParserMetrics.Sentence();
+	}
+
+	public ParserMetrics getMetrics() {
+		return metrics;
+	}
+
+	/** The smoothed score of the word, from the lexical score table if set. */
+	double[] scoreWord(Lexicon lexicon, String word, short tag, int loc) {
+		if (lexicalScores != null) {
+			double[][] wordScores = lexicalScores.getScores(lexicon, word, loc,
+					false);
+			if (wordScores != null)
+				return wordScores[tag];
+		}
+		return lexicon.score(word, tag, loc, false, false);
+	}
+
+	/**
+	 * Closes the spans rejected by the span filter in vAllowedStates. Single
+	 * words and the whole sentence are always kept.
+	 */
+	void applySpanFilter(List<String> sentence) {
+		boolean[][] allowedSpans = spanFilter.getAllowedSpans(sentence);
+		for (int start = 0; start < length; start++) {
+			for (int end = start + 2; end <= length; end++) {
+				if (!allowedSpans[start][end]
+						&& !(start == 0 && end == length))
+					vAllowedStates[start][end] = false;
+			}
+		}
+	}
+
 	@Override
 	protected void clearArrays() {
+		packedSubStates = null;
 		iScore = oScore = null;
 		viScore = voScore = null;
 		allowedSubStates = null;
@@ -893,6 +1093,7 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 	protected void pruneChart(double threshold, short[] numSubStatesArray,
 			int level) {
 		int totalStates = 0, previouslyPossible = 0, nowPossible = 0;
+		int nowPossibleCells = 0;
 		// threshold = Double.NEGATIVE_INFINITY;
 
 		double sentenceProb = (level < 1) ? viScore[0][length][0]
@@ -959,29 +1160,32 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 						}
 						continue;
 					}
-					// level >= 1 -> iterate over substates
+					// level >= 1 -> iterate over the allowed substates
 					boolean nonePossible = true;
-					for (int substate = 0; substate < numSubStatesArray[state]; substate++) {
-						totalStates++;
-						if (!allowedSubStates[start][end][state][substate])
-							continue;
+					long[] allowed = allowedSubStates[start][end][state];
+					// sparse cells hold the allowed substates in order
+					short[] packed = getPackedSubStates(start, end, state);
+					int cellIndex = 0;
+					totalStates += numSubStatesArray[state];
+					for (int substate = BitArrays.nextSetBit(allowed, 0); substate >= 0; substate = BitArrays
+							.nextSetBit(allowed, substate + 1)) {
 						previouslyPossible++;
-						double iS = iScore[start][end][state][substate];
-						double oS = oScore[start][end][state][substate];
+						int i = (packed == null) ? substate : cellIndex++;
+						double iS = iScore[start][end][state][i];
+						double oS = oScore[start][end][state][i];
 
 						if (iS == Double.NEGATIVE_INFINITY
 								|| oS == Double.NEGATIVE_INFINITY) {
-							allowedSubStates[start][end][state][substate] = false;
+							BitArrays.clear(allowed, substate);
 							continue;
 						}
 						double posterior = iS + oS - sentenceProb;
 						if (posterior > threshold) {
-							allowedSubStates[start][end][state][substate] = true;
 							nowPossible++;
 							// spanMass[start][end]+=Math.exp(posterior);
 							nonePossible = false;
 						} else {
-							allowedSubStates[start][end][state][substate] = false;
+							BitArrays.clear(allowed, substate);
 						}
 
 						/*
@@ -1002,9 +1206,14 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 					}
 					if (nonePossible)
 						allowedStates[start][end][state] = false;
+					else
+						nowPossibleCells++;
 				}
 			}
 		}
+		if (metrics != null)
+			sentenceMetrics.pruned((level < 1) ? nowPossible
+					: nowPossibleCells, previouslyPossible, nowPossible);
 
 		// System.out.print("[");
 		// for(int st=0; st<length; st++){
@@ -1056,25 +1265,43 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 				continue;//
 			curGrammar = grammarCascade[level - startLevel];
 			curLexicon = lexiconCascade[level - startLevel];
+			if (metrics != null)
+				sentenceMetrics.startLevel(level, ruleApplications);
 
 			// createArrays(level==startLevel,curGrammar.numStates,curGrammar.numSubStates,level,Double.NEGATIVE_INFINITY,false);
-			createArrays(level == 0, curGrammar.numStates,
-					curGrammar.numSubStates, level, Double.NEGATIVE_INFINITY,
-					false);
-			initializeChart(sentence, curLexicon, level < 1, noSmoothing,
-					posTags, false);
+			boolean filterSpans = level == 0 && spanFilter != null
+					&& !keepGoldAlive;
 			final boolean viterbi = true, logScores = true;
-			if (level < 1) {
-				doConstrainedViterbiInsideScores(curGrammar,
-						level == startLevel);
-				score = viScore[0][length][0];
-			} else {
-				doConstrainedInsideScores(curGrammar, viterbi, logScores);
-				score = iScore[0][length][0][0];
+			while (true) {
+				createArrays(level == 0, curGrammar.numStates,
+						curGrammar.numSubStates, level,
+						Double.NEGATIVE_INFINITY, false, level > 0);
+				if (filterSpans)
+					applySpanFilter(sentence);
+				initializeChart(sentence, curLexicon, level < 1, noSmoothing,
+						posTags, false);
+				if (level < 1) {
+					doConstrainedViterbiInsideScores(curGrammar,
+							level == startLevel);
+					score = viScore[0][length][0];
+				} else {
+					doConstrainedInsideScores(curGrammar, viterbi, logScores);
+					score = iScore[0][length][0][0];
+				}
+				if (score != Double.NEGATIVE_INFINITY || !filterSpans)
+					break;
+				// the filter closed a span that every parse needs
+				filterSpans = false;
+				nSpanFilterFallbacks++;
+				if (metrics != null)
+					sentenceMetrics.setSpanFilterFallback();
 			}
 
-			if (score == Double.NEGATIVE_INFINITY)
+			if (score == Double.NEGATIVE_INFINITY) {
+				if (metrics != null)
+					sentenceMetrics.endLevel(ruleApplications);
 				continue;
+			}
 			// System.out.println("\nFound a parse for sentence with length "+length+". The LL is "+score+".");
 			if (level < 1) {
 				voScore[0][length][0] = 0.0;
@@ -1090,6 +1317,8 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 					curGrammar.numSubStates, level);
 			if (keepGoldAlive)
 				ensureGoldTreeSurvives(tree, level);
+			if (metrics != null)
+				sentenceMetrics.endLevel(ruleApplications);
 		}
 
 	}
@@ -1115,7 +1344,7 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 			 */
 			allowedStates[start][end][state] = true;
 			if (allowedSubStates[start][end] == null)
-				allowedSubStates[start][end] = new boolean[numStates][];
+				allowedSubStates[start][end] = new long[numStates][];
 			allowedSubStates[start][end][state] = null; // will be taken care of
 														// in createArrays
 			// boolean[] newArray = new boolean[numSubStatesArray[state]+1];
@@ -1159,6 +1388,62 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 		return logLikelihood;
 	}
 
+	/**
+	 * Initializes the chart of the final level, computes its inside scores
+	 * and sets logLikelihood. Returns whether the scores are scaled, which
+	 * they are if the unscaled inside score of the root underflows to zero.
+	 * The scaled pass then continues from the unscaled one: it keeps the
+	 * scores of the spans that are shorter than the first one with a cell that
+	 * lost precision (see firstInexactSpan()) and only computes the others.
+	 */
+	boolean doFinalInsideScores(List<String> sentence, Grammar grammar,
+			Lexicon lexicon, List<String> posTags) {
+		initializeFinalChart(sentence, lexicon, posTags, false);
+		doConstrainedInsideScores(grammar, viterbiParse, viterbiParse);
+		double score = iScore[0][length][0][0];
+		if (!viterbiParse)
+			score = Math.log(score);// + (100*iScale[0][length][0]);
+		logLikelihood = score;
+		if (score != Double.NEGATIVE_INFINITY)
+			return false;
+		// System.err.println("Using scaling code for sentence with length "+length+".");
+		// Viterbi scores are log scores, there is nothing to keep
+		int scaleFrom = (viterbiParse) ? 1 : firstInexactSpan();
+		if (metrics != null)
+			sentenceMetrics.setScaling(scaleFrom);
+		setupScaling(scaleFrom);
+		if (scaleFrom == 1)
+			initializeFinalChart(sentence, lexicon, posTags, true);
+		doScaledConstrainedInsideScores(grammar, scaleFrom);
+		score = iScore[0][length][0][0];
+		if (!viterbiParse)
+			score = Math.log(score) + (100 * iScale[0][length][0]);
+		logLikelihood = score;
+		return true;
+	}
+
+	/**
+	 * The length of the shortest spans whose unscaled inside scores may have
+	 * lost precision to underflow, i.e. that have an allowed state none of
+	 * whose scores is above EXACT_SCORE. The root state is left out, it only
+	 * gets a score over the whole sentence. The scores of all shorter spans
+	 * are exact up to rounding.
+	 */
+	int firstInexactSpan() {
+		for (int diff = 1; diff < length; diff++) {
+			for (int start = 0; start < (length - diff + 1); start++) {
+				int end = start + diff;
+				for (int state = 1; state < numStates; state++) {
+					if (!allowedStates[start][end][state])
+						continue;
+					if (DoubleArrays.max(iScore[start][end][state]) < EXACT_SCORE)
+						return diff;
+				}
+			}
+		}
+		return length;
+	}
+
 	@Override
 	public Tree<String> getBestConstrainedParse(List<String> sentence,
 			List<String> posTags, boolean[][][][] allowedS) {// List<Integer>[][]
@@ -1171,7 +1456,6 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 		Lexicon curLexicon = lexiconCascade[endLevel - startLevel + 1];
 		double initVal = (viterbiParse) ? Double.NEGATIVE_INFINITY : 0;
 		int level = isBaseline ? 1 : endLevel;
-		allowedSubStates = allowedS;
 		createArrays(true, curGrammar.numStates, curGrammar.numSubStates,
 				level, initVal, false);
 		setConstraints(allowedS);
@@ -1182,19 +1466,18 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 	 * @param allowedS
 	 */
 	private void setConstraints(boolean[][][][] allowedS) {
-		allowedSubStates = allowedS;
 		for (int start = 0; start < length; start++) {
 			for (int end = start + 1; end <= length; end++) {
 				for (int state = 0; state < numStates; state++) {
-					boolean onePossible = false;
-					if (allowedSubStates[start][end][state] == null)
+					if (allowedS[start][end][state] == null) {
+						allowedSubStates[start][end][state] = null;
 						continue;
-					for (int substate = 0; substate < grammar.numSubStates[state]; substate++) {
-						if (allowedSubStates[start][end][state][substate]) {
-							onePossible = true;
-							break;
-						}
 					}
+					allowedSubStates[start][end][state] = BitArrays
+							.fromBooleans(allowedS[start][end][state]);
+					int first = BitArrays.nextSetBit(
+							allowedSubStates[start][end][state], 0);
+					boolean onePossible = (first >= 0 && first < grammar.numSubStates[state]);
 					if (onePossible)
 						allowedStates[start][end][state] = true;
 				}
@@ -1206,8 +1489,12 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 			List<String> posTags, boolean noPreparse) {
 		if (sentence.size() == 0)
 			return new Tree<String>("ROOT");
+		if (metrics != null)
+			sentenceMetrics.start(sentence.size());
 		if (!noPreparse)
 			doPreParses(sentence, null, false, posTags);
+		if (metrics != null)
+			sentenceMetrics.startFinalLevel(ruleApplications);
 		bestTree = new Tree<String>("ROOT");
 		double score = 0;
 		Grammar curGrammar = grammarCascade[endLevel - startLevel + 1];
@@ -1218,14 +1505,8 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 		int level = isBaseline ? 1 : endLevel;
 		createArrays(false, curGrammar.numStates, curGrammar.numSubStates,
 				level, initVal, false);
-		initializeChart(sentence, curLexicon, false, false, posTags, false);
-		doConstrainedInsideScores(curGrammar, viterbiParse, viterbiParse);
-
-		score = iScore[0][length][0][0];
-		if (!viterbiParse)
-			score = Math.log(score);// + (100*iScale[0][length][0]);
-		logLikelihood = score;
-		if (score != Double.NEGATIVE_INFINITY) {
+		if (!doFinalInsideScores(sentence, curGrammar, curLexicon, posTags)) {
+			score = logLikelihood;
 			// System.out.println("\nFinally found a parse for sentence with length "+length+". The LL is "+score+".");
 
 			if (!viterbiParse) {
@@ -1235,13 +1516,6 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 			}
 
 		} else {
-			// System.err.println("Using scaling code for sentence with length "+length+".");
-			setupScaling();
-			initializeChart(sentence, curLexicon, false, false, posTags, true);
-			doScaledConstrainedInsideScores(curGrammar);
-			score = iScore[0][length][0][0];
-			if (!viterbiParse)
-				score = Math.log(score) + (100 * iScale[0][length][0]);
 			// System.out.println("Finally found a parse for sentence with length "+length+". The LL is "+score+".");
 			// System.out.println("Scale: "+iScale[0][length][0]);
 			oScore[0][length][0][0] = 1.0;
@@ -1263,6 +1537,10 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 				savedScore = maxcScore[0][length][0];
 			}
 		}
+		if (metrics != null) {
+			sentenceMetrics.endLevel(ruleApplications);
+			sentenceMetrics.finish(metrics);
+		}
 
 		// sentencesParsed++;
 		// System.out.println("For parsing "+sentencesParsed+" I hat to touch "+edgesTouched/((double)sentencesParsed)+" on average.");
@@ -1296,24 +1574,114 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 
 		if (viterbiParse)
 			return logLikelihood;
-		ArrayList<Tree<String>> resultList = new ArrayList<Tree<String>>();
 		Tree<String> newTree = TreeAnnotations.processTree(tree, 1, 0,
 				binarization, false);
-		resultList.add(newTree);
-		StateSetTreeList resultStateSetTrees = new StateSetTreeList(resultList,
-				grammar.numSubStates, false, tagNumberer);
-		if (llParser == null)
-			llParser = new ArrayParser(grammar, lexicon);
-		for (Tree<StateSet> t : resultStateSetTrees) {
-			llParser.doInsideScores(t, false, false, null); // Only inside
-															// scores are needed
-															// here
-			double ll = Math.log(t.getLabel().getIScore(0));
-			ll += 100 * t.getLabel().getIScale();
-			return ll;
+		if (newTree.isLeaf())
+			return Double.NEGATIVE_INFINITY;
+		int[] position = new int[1], scale = new int[1];
+		double[] rootScores = treeInsideScores(newTree, true, position, scale);
+		return Math.log(rootScores[0]) + ScalingTools.LOGSCALE * scale[0];
+	}
+
+	/**
+	 * The scaled inside scores of the given (binarized) tree under the final
+	 * grammar, with the same arithmetic as ArrayParser.doInsideScores, so it
+	 * gives the same likelihoods. The lexicon scores of the sentence that was
+	 * parsed last are taken from the chart initialization. position is the
+	 * index of the next word and scale returns the scale of the scores.
+	 */
+	private double[] treeInsideScores(Tree<String> tree, boolean isRoot,
+			int[] position, int[] scale) {
+		short state = (short) tagNumberer.number(tree.getLabel());
+		if (state < 0)
+			state = 0;
+		int nParentStates = isRoot ? 1 : nSubStates(state);
+		List<Tree<String>> children = tree.getChildren();
+		if (tree.isPreTerminal()) {
+			String word = children.get(0).getLabel();
+			int pos = position[0]++;
+			double[] lexiconScores = null;
+			if (finalLexiconScores != null && pos < finalLexiconScores.length
+					&& state < finalLexiconScores[pos].length
+					&& word.equals(finalLexiconSentence.get(pos)))
+				lexiconScores = finalLexiconScores[pos][state];
+			if (lexiconScores != null)
+				lexiconScores = lexiconScores.clone();
+			else
+				lexiconScores = lexicon.score(word, state, pos, false, false);
+			scale[0] = ScalingTools.scaleArray(lexiconScores, 0);
+			return lexiconScores;
 		}
-		return Double.NEGATIVE_INFINITY;
+		double[] iScores = new double[nParentStates];
+		switch (children.size()) {
+		case 1: {
+			Tree<String> childTree = children.get(0);
+			double[] cScores = treeInsideScores(childTree, false, position,
+					scale);
+			short cState = (short) Math.max(0, tagNumberer.number(childTree
+					.getLabel()));
+			double[][] uscores = grammar.getUnaryScore(state, cState);
+			int nChildStates = nSubStates(cState);
+			for (int j = 0; j < nChildStates; j++) {
+				if (uscores[j] == null)
+					continue;
+				double cS = cScores[j];
+				if (cS == 0)
+					continue;
+				for (int i = 0; i < nParentStates; i++) {
+					double rS = uscores[j][i];
+					if (rS == 0)
+						continue;
+					iScores[i] += rS * cS;
+				}
+			}
+			scale[0] = ScalingTools.scaleArray(iScores, scale[0]);
+			return iScores;
+		}
+		case 2: {
+			Tree<String> leftTree = children.get(0), rightTree = children
+					.get(1);
+			double[] lScores = treeInsideScores(leftTree, false, position,
+					scale);
+			int lScale = scale[0];
+			double[] rScores = treeInsideScores(rightTree, false, position,
+					scale);
+			int rScale = scale[0];
+			short lState = (short) Math.max(0, tagNumberer.number(leftTree
+					.getLabel()));
+			short rState = (short) Math.max(0, tagNumberer.number(rightTree
+					.getLabel()));
+			double[][][] bscores = grammar.getBinaryScore(state, lState,
+					rState);
+			int nLeftChildStates = nSubStates(lState);
+			int nRightChildStates = nSubStates(rState);
+			for (int j = 0; j < nLeftChildStates; j++) {
+				double lcS = lScores[j];
+				if (lcS == 0)
+					continue;
+				for (int k = 0; k < nRightChildStates; k++) {
+					double rcS = rScores[k];
+					if (rcS == 0 || bscores[j][k] == null)
+						continue;
+					for (int i = 0; i < nParentStates; i++) {
+						double rS = bscores[j][k][i];
+						if (rS == 0)
+							continue;
+						iScores[i] += rS * lcS * rcS;
+					}
+				}
+			}
+			scale[0] = ScalingTools.scaleArray(iScores, lScale + rScale);
+			return iScores;
+		}
+		default:
+			throw new Error("Malformed tree: more than two children");
+		}
+	}
 
+	private int nSubStates(short state) {
+		short[] numSubStates = grammar.numSubStates;
+		return numSubStates[(state < numSubStates.length) ? state : 0];
 	}
 
 	public double getLogLikelihood() {
@@ -1449,12 +1817,11 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 
 								double scalingFactor = 0.0;
 								if (scale)
-									scalingFactor = Math
-											.log(ScalingTools
-													.calcScaleFactor(oScale[start][end][pState]
-															+ iScale[start][split][lState]
-															+ iScale[split][end][rState]
-															- iScale[0][length][0]));
+									scalingFactor = ScalingTools
+											.calcLogScaleFactor(oScale[start][end][pState]
+													+ iScale[start][split][lState]
+													+ iScale[split][end][rState]
+													- iScale[0][length][0]);
 								double gScore = leftChildScore + scalingFactor
 										+ rightChildScore;
 
@@ -1540,8 +1907,8 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 							continue;
 						// System.out.println("Computing maxcScore for span "
 						// +start + " to "+end);
-						double[] lexiconScoreArray = lexicon.score(word,
-								(short) tag, start, false, false);
+						double[] lexiconScoreArray = scoreWord(lexicon, word,
+								(short) tag, start);
 						double lexiconScores = 0;
 						for (int tp = 0; tp < nTagStates; tp++) {
 							double pOS = oScore[start][end][tag][tp];
@@ -1560,9 +1927,9 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 						if (doVariational)
 							lexiconScores = 1;
 						else if (scale)
-							scalingFactor = Math.log(ScalingTools
-									.calcScaleFactor(oScale[start][end][tag]
-											- iScale[0][length][0]));
+							scalingFactor = ScalingTools
+									.calcLogScaleFactor(oScale[start][end][tag]
+											- iScale[0][length][0]);
 
 						maxcScore[start][end][tag] = Math.log(lexiconScores)
 								+ scalingFactor;
@@ -1604,10 +1971,10 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 
 						double scalingFactor = 0.0;
 						if (scale)
-							scalingFactor = Math.log(ScalingTools
-									.calcScaleFactor(oScale[start][end][pState]
+							scalingFactor = ScalingTools
+									.calcLogScaleFactor(oScale[start][end][pState]
 											+ iScale[start][end][cState]
-											- iScale[0][length][0]));
+											- iScale[0][length][0]);
 
 						double gScore = scalingFactor + childScore;
 						if (gScore < maxcScoreStartEnd[pState])
@@ -1787,6 +2154,7 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 	 */
 
 	void doConstrainedViterbiInsideScores(Grammar grammar, boolean level0grammar) {
+		long rules = 0;
 		short[] numSubStatesArray = grammar.numSubStates;
 		// double[] oldIScores = new double[maxNSubStates];
 		// int smallestScale = 10, largestScale = -10;
@@ -1873,6 +2241,7 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 								continue;
 							if (!vAllowedStates[split][end])
 								continue;
+							rules++;
 
 							double lS = viScore[start][split][lState];
 							if (lS == Double.NEGATIVE_INFINITY)
@@ -1975,6 +2344,7 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 				}
 			}
 		}
+		ruleApplications += rules;
 	}
 
 	// void doConstrainedViterbiSubstateInsideScores(Grammar grammar) {
@@ -2780,10 +3150,16 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 	}
 
 	void doScaledConstrainedInsideScores(Grammar grammar) {
+		doScaledConstrainedInsideScores(grammar, 1);
+	}
+
+	/** Only fills in the spans of length fromSpan or more. */
+	void doScaledConstrainedInsideScores(Grammar grammar, int fromSpan) {
+		long rules = 0;
 		double initVal = 0;
 		short[] numSubStatesArray = grammar.numSubStates;
 		// int smallestScale = 10, largestScale = -10;
-		for (int diff = 1; diff <= length; diff++) {
+		for (int diff = fromSpan; diff <= length; diff++) {
 			// smallestScale = 10; largestScale = -10;
 			// System.out.print(diff + " ");
 			for (int start = 0; start < (length - diff + 1); start++) {
@@ -2861,6 +3237,7 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 								continue;
 							if (allowedStates[split][end][rState] == false)
 								continue;
+							rules++;
 
 							for (int lp = 0; lp < nLeftChildStates; lp++) {
 								double lS = iScore[start][split][lState][lp];
@@ -2875,7 +3252,7 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 										continue;
 
 									for (int np = 0; np < nParentStates; np++) {
-										if (!allowedSubStates[start][end][pState][np])
+										if (!BitArrays.get(allowedSubStates[start][end][pState], np))
 											continue;
 										double pS = scores[lp][rp][np];
 										if (pS == initVal)
@@ -2896,7 +3273,7 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 							int currentScale = iScale[start][split][lState]
 									+ iScale[split][end][rState];
 							currentScale = ScalingTools.scaleArray(
-									unscaledScoresToAdd, currentScale);
+									unscaledScoresToAdd, nParentStates, currentScale);
 
 							if (parentScale != currentScale) {
 								if (parentScale == Integer.MIN_VALUE) { // first
@@ -2910,7 +3287,7 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 									int newScale = Math.max(currentScale,
 											parentScale);
 									ScalingTools.scaleArrayToScale(
-											unscaledScoresToAdd, currentScale,
+											unscaledScoresToAdd, nParentStates, currentScale,
 											newScale);
 									ScalingTools.scaleArrayToScale(
 											iScore[start][end][pState],
@@ -2980,7 +3357,7 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 								continue;
 
 							for (int np = 0; np < nParentStates; np++) {
-								if (!allowedSubStates[start][end][pState][np])
+								if (!BitArrays.get(allowedSubStates[start][end][pState], np))
 									continue;
 								double pS = scores[cp][np];
 								if (pS == initVal)
@@ -3002,7 +3379,7 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 
 						int currentScale = iScale[start][end][cState];
 						currentScale = ScalingTools.scaleArray(
-								unscaledScoresToAdd, currentScale);
+								unscaledScoresToAdd, nParentStates, currentScale);
 						if (parentScale != currentScale) {
 							if (parentScale == Integer.MIN_VALUE) { // first
 																	// time to
@@ -3013,7 +3390,7 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 								int newScale = Math.max(currentScale,
 										parentScale);
 								ScalingTools.scaleArrayToScale(
-										unscaledScoresToAdd, currentScale,
+										unscaledScoresToAdd, nParentStates, currentScale,
 										newScale);
 								ScalingTools.scaleArrayToScale(
 										scoresAfterUnaries[pState],
@@ -3065,12 +3442,14 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 				}
 			}
 		}
+		ruleApplications += rules;
 	}
 
 	void doScaledConstrainedOutsideScores(Grammar grammar) {
 		double initVal = 0;
 		short[] numSubStatesArray = grammar.numSubStates;
-		// Arrays.fill(scoresToAdd,initVal);
+		// the log domain passes leave it at -Infinity
+		Arrays.fill(scoresToAdd, initVal);
 		for (int diff = length; diff >= 1; diff--) {
 			for (int start = 0; start + diff <= length; start++) {
 				int end = start + diff;
@@ -3110,10 +3489,10 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 						for (int cp = 0; cp < nChildStates; cp++) {
 							if (scores[cp] == null)
 								continue;
-							if (!allowedSubStates[start][end][cState][cp])
+							if (!BitArrays.get(allowedSubStates[start][end][cState], cp))
 								continue;
 							for (int np = 0; np < nParentStates; np++) {
-								if (!allowedSubStates[start][end][pState][np])
+								if (!BitArrays.get(allowedSubStates[start][end][pState], np))
 									continue;
 								double pS = scores[cp][np];
 								if (pS == initVal)
@@ -3137,7 +3516,7 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 						}
 						int currentScale = oScale[start][end][pState];
 						currentScale = ScalingTools.scaleArray(
-								unscaledScoresToAdd, currentScale);
+								unscaledScoresToAdd, nChildStates, currentScale);
 						if (childScale != currentScale) {
 							if (childScale == Integer.MIN_VALUE) { // first time
 																	// to build
@@ -3147,7 +3526,7 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 								int newScale = Math.max(currentScale,
 										childScale);
 								ScalingTools.scaleArrayToScale(
-										unscaledScoresToAdd, currentScale,
+										unscaledScoresToAdd, nChildStates, currentScale,
 										newScale);
 								ScalingTools.scaleArrayToScale(
 										scoresAfterUnaries[cState], childScale,
@@ -3273,7 +3652,7 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 								int currentScale = oScale[start][end][pState]
 										+ iScale[split][end][rState];
 								currentScale = ScalingTools.scaleArray(
-										scoresToAdd, currentScale);
+										scoresToAdd, nLeftChildStates, currentScale);
 								if (leftScale != currentScale) {
 									if (leftScale == Integer.MIN_VALUE) { // first
 																			// time
@@ -3286,7 +3665,7 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 										int newScale = Math.max(currentScale,
 												leftScale);
 										ScalingTools.scaleArrayToScale(
-												scoresToAdd, currentScale,
+												scoresToAdd, nLeftChildStates, currentScale,
 												newScale);
 										ScalingTools.scaleArrayToScale(
 												oScore[start][split][lState],
@@ -3309,7 +3688,7 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 								int currentScale = oScale[start][end][pState]
 										+ iScale[start][split][lState];
 								currentScale = ScalingTools.scaleArray(
-										unscaledScoresToAdd, currentScale);
+										unscaledScoresToAdd, nRightChildStates, currentScale);
 								if (rightScale != currentScale) {
 									if (rightScale == Integer.MIN_VALUE) { // first
 																			// time
@@ -3322,7 +3701,7 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 										int newScale = Math.max(currentScale,
 												rightScale);
 										ScalingTools.scaleArrayToScale(
-												unscaledScoresToAdd,
+												unscaledScoresToAdd, nRightChildStates,
 												currentScale, newScale);
 										ScalingTools.scaleArrayToScale(
 												oScore[split][end][rState],
@@ -3345,6 +3724,14 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 	}
 
 	protected void setupScaling() {
+		setupScaling(1);
+	}
+
+	/**
+	 * Spans shorter than fromSpan keep the inside scores of the unscaled pass,
+	 * rescaled to the range of the scaled pass; the others are scrubbed.
+	 */
+	protected void setupScaling(int fromSpan) {
 		// create arrays for scaling coefficients
 		iScale = new int[length][length + 1][];
 		oScale = new int[length][length + 1][];
@@ -3362,7 +3749,11 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 			for (int end = start + 1; end <= length; end++) {
 				for (int state = 0; state < numStates; state++) {
 					if (allowedStates[start][end][state] == true) {// != null){
-						Arrays.fill(iScore[start][end][state], 0);
+						if (end - start >= fromSpan)
+							Arrays.fill(iScore[start][end][state], 0);
+						else if (DoubleArrays.max(iScore[start][end][state]) > 0)
+							iScale[start][end][state] = ScalingTools
+									.scaleArray(iScore[start][end][state], 0);
 					}
 				}
 			}
@@ -3390,6 +3781,9 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 				outputSub, outputScore, accurate, this.doVariational,
 				useGoldPOS, false);
 		newParser.initCascade(this);
+		newParser.sparseCellOccupancy = sparseCellOccupancy;
+		newParser.spanFilter = spanFilter;
+		newParser.setMetrics(metrics);
 		return newParser;
 	}
 
@@ -3417,7 +3811,23 @@ public class CoarseToFineMaxRuleParser extends ConstrainedArrayParser {
 	}
 
 	public boolean[][][][] getAllowedSubStates() {
-		return allowedSubStates;
+		if (allowedSubStates == null)
+			return null;
+		boolean[][][][] allowed = new boolean[length][length + 1][][];
+		for (int start = 0; start < length; start++) {
+			for (int end = start + 1; end <= length; end++) {
+				if (allowedSubStates[start][end] == null)
+					continue;
+				allowed[start][end] = new boolean[numStates][];
+				for (int state = 0; state < numStates; state++) {
+					long[] bits = allowedSubStates[start][end][state];
+					if (bits != null)
+						allowed[start][end][state] = BitArrays.toBooleans(bits,
+								numSubStatesArray[state]);
+				}
+			}
+		}
+		return allowed;
 	}
 
 	int nThBlock = 0;
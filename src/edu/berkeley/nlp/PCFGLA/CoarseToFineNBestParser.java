@@ -8,6 +8,7 @@ import java.util.Arrays;
 import java.util.List;
 
 import edu.berkeley.nlp.syntax.Tree;
+import edu.berkeley.nlp.util.ArrayUtil;
 import edu.berkeley.nlp.util.ScalingTools;
 
 /**
@@ -15,8 +16,15 @@ import edu.berkeley.nlp.util.ScalingTools;
  * 
  */
 public class CoarseToFineNBestParser extends CoarseToFineMaxRuleParser {
-	LazyList[][][] chartBeforeU;
-	LazyList[][][] chartAfterU;
+	// the candidate hyperedges of each chart item before and after the unary
+	// rules are the edges first..first+n-1 of the table; the k-best lists
+	// are only made for the items that the extraction visits
+	HyperEdgeTable edges;
+	int[][][] firstEdgeBeforeU, nEdgesBeforeU;
+	int[][][] firstEdgeAfterU, nEdgesAfterU;
+	KBestList[][][] chartBeforeU;
+	KBestList[][][] chartAfterU;
+	boolean[] isGrammarTag;
 	int k;
 	List<Double> maxRuleScores;
 	int tmp_k;
@@ -52,8 +60,20 @@ public class CoarseToFineNBestParser extends CoarseToFineMaxRuleParser {
 			Lexicon lexicon, final boolean scale) {
 		numSubStatesArray = grammar.numSubStates;
 		double initVal = Double.NEGATIVE_INFINITY;
-		chartBeforeU = new LazyList[length][length + 1][numStates];
-		chartAfterU = new LazyList[length][length + 1][numStates];
+		if (edges == null)
+			edges = new HyperEdgeTable();
+		edges.clear();
+		isGrammarTag = grammar.isGrammarTag;
+		maxsScore = new double[length][length + 1][numStates];
+		maxcScore = new double[length][length + 1][numStates];
+		ArrayUtil.fill(maxsScore, Double.NEGATIVE_INFINITY);
+		ArrayUtil.fill(maxcScore, Double.NEGATIVE_INFINITY);
+		firstEdgeBeforeU = new int[length][length + 1][numStates];
+		nEdgesBeforeU = new int[length][length + 1][numStates];
+		firstEdgeAfterU = new int[length][length + 1][numStates];
+		nEdgesAfterU = new int[length][length + 1][numStates];
+		chartBeforeU = new KBestList[length][length + 1][numStates];
+		chartAfterU = new KBestList[length][length + 1][numStates];
 
 		double logNormalizer = iScore[0][length][0][0];
 		// double thresh2 = threshold*logNormalizer;
@@ -66,14 +86,13 @@ public class CoarseToFineNBestParser extends CoarseToFineMaxRuleParser {
 					for (int pState = 0; pState < numSubStatesArray.length; pState++) {
 						if (!allowedStates[start][end][pState])
 							continue;
-						chartBeforeU[start][end][pState] = new LazyList(
-								grammar.isGrammarTag);
+						int first = edges.size();
 						BinaryRule[] parentRules = grammar
 								.splitRulesWithP(pState);
 						int nParentStates = numSubStatesArray[pState]; // ==
 																		// scores[0][0].length;
 						double bestScore = Double.NEGATIVE_INFINITY;
-						HyperEdge bestElement = null;
+						int bestElement = -1;
 
 						for (int i = 0; i < parentRules.length; i++) {
 							BinaryRule r = parentRules[i];
@@ -149,20 +168,8 @@ public class CoarseToFineNBestParser extends CoarseToFineMaxRuleParser {
 								if (!allowedStates[split][end][rState])
 									continue;
 
-								HyperEdge bestLeft = chartAfterU[start][split][lState]
-										.getKbest(0);
-								double leftChildScore = (bestLeft == null) ? Double.NEGATIVE_INFINITY
-										: bestLeft.score;
-
-								HyperEdge bestRight = chartAfterU[split][end][rState]
-										.getKbest(0);
-								double rightChildScore = (bestRight == null) ? Double.NEGATIVE_INFINITY
-										: bestRight.score;
-
-								// double leftChildScore =
-								// maxcScore[start][split][lState];
-								// double rightChildScore =
-								// maxcScore[split][end][rState];
+								double leftChildScore = maxcScore[start][split][lState];
+								double rightChildScore = maxcScore[split][end][rState];
 								if (leftChildScore == initVal
 										|| rightChildScore == initVal)
 									continue;
@@ -225,24 +232,19 @@ public class CoarseToFineNBestParser extends CoarseToFineMaxRuleParser {
 								gScore += ruleScore;
 
 								if (gScore > Double.NEGATIVE_INFINITY) {
-									HyperEdge newElement = new HyperEdge(
-											pState, lState, rState, 0, 0, 0,
-											start, split, end, gScore,
-											ruleScore);
+									int newElement = edges.addBinary(pState,
+											lState, rState, 0, 0, 0, start,
+											split, end, gScore, ruleScore);
 									if (gScore > bestScore) {
 										bestScore = gScore;
 										bestElement = newElement;
 									}
-									if (diff > 2)
-										chartBeforeU[start][end][pState]
-												.addToFringe(newElement);
 								}
 							}
 						}
-						if (diff == 2 && bestElement != null)
-							chartBeforeU[start][end][pState]
-									.addToFringe(bestElement);
-						// chartBeforeU[start][end][pState].expandNextBest();
+						if (diff == 2)
+							edges.keepOnly(first, bestElement);
+						setEdgesBeforeU(start, end, pState, first);
 					}
 				} else { // diff == 1
 					// We treat TAG --> word exactly as if it was a unary rule,
@@ -253,8 +255,7 @@ public class CoarseToFineNBestParser extends CoarseToFineMaxRuleParser {
 					for (int tag = 0; tag < numSubStatesArray.length; tag++) {
 						if (!allowedStates[start][end][tag])
 							continue;
-						chartBeforeU[start][end][tag] = new LazyList(
-								grammar.isGrammarTag);
+						int first = edges.size();
 						int nTagStates = numSubStatesArray[tag];
 						String word = sentence.get(start);
 						// System.out.print("Attempting");
@@ -262,8 +263,8 @@ public class CoarseToFineNBestParser extends CoarseToFineMaxRuleParser {
 							continue;
 						// System.out.println("Computing maxcScore for span "
 						// +start + " to "+end);
-						double[] lexiconScoreArray = lexicon.score(word,
-								(short) tag, start, false, false);
+						double[] lexiconScoreArray = scoreWord(lexicon, word,
+								(short) tag, start);
 						double lexiconScores = 0;
 						for (int tp = 0; tp < nTagStates; tp++) {
 							double pOS = oScore[start][end][tag][tp];
@@ -286,10 +287,9 @@ public class CoarseToFineNBestParser extends CoarseToFineMaxRuleParser {
 
 						lexiconScores = Math.log(lexiconScores);
 						double gScore = lexiconScores + scalingFactor;
-						HyperEdge newElement = new HyperEdge(tag, -1, -1, 0, 0,
-								0, start, start, end, gScore, lexiconScores);
-						chartBeforeU[start][end][tag].addToFringe(newElement);
-						// chartBeforeU[start][end][tag].expandNextBest();
+						edges.addBinary(tag, -1, -1, 0, 0, 0, start, start, end,
+								gScore, lexiconScores);
+						setEdgesBeforeU(start, end, tag, first);
 					}
 				}
 				// Try unary rules
@@ -302,13 +302,12 @@ public class CoarseToFineNBestParser extends CoarseToFineMaxRuleParser {
 				for (int pState = 0; pState < numSubStatesArray.length; pState++) {
 					if (!allowedStates[start][end][pState])
 						continue;
-					chartAfterU[start][end][pState] = new LazyList(
-							grammar.isGrammarTag);
+					int first = edges.size();
 					int nParentStates = numSubStatesArray[pState]; // ==
 																	// scores[0].length;
 					UnaryRule[] unaries = grammar
 							.getClosedSumUnaryRulesByParent(pState);
-					HyperEdge bestElement = null;
+					int bestElement = -1;
 					double bestScore = Double.NEGATIVE_INFINITY;
 
 					for (int r = 0; r < unaries.length; r++) {
@@ -319,15 +318,7 @@ public class CoarseToFineNBestParser extends CoarseToFineMaxRuleParser {
 						if (iScore[start][end][cState] == null)
 							continue;
 
-						double childScore = Double.NEGATIVE_INFINITY;
-						if (chartBeforeU[start][end][cState] != null) {
-							HyperEdge bestChild = chartBeforeU[start][end][cState]
-									.getKbest(0);
-							childScore = (bestChild == null) ? Double.NEGATIVE_INFINITY
-									: bestChild.score;
-						}
-
-						// double childScore = maxcScore[start][end][cState];
+						double childScore = maxsScore[start][end][cState];
 						if (childScore == initVal)
 							continue;
 
@@ -378,38 +369,70 @@ public class CoarseToFineNBestParser extends CoarseToFineMaxRuleParser {
 						gScore += ruleScore;
 
 						if (gScore > Double.NEGATIVE_INFINITY) {
-							HyperEdge newElement = new HyperEdge(pState,
-									cState, 0, 0, start, end, gScore, ruleScore);
+							int newElement = edges.addUnary(pState, cState, 0,
+									0, start, end, gScore, ruleScore);
 							if (gScore > bestScore) {
 								bestScore = gScore;
 								bestElement = newElement;
 							}
-							if (diff > 1)
-								chartAfterU[start][end][pState]
-										.addToFringe(newElement);
 						}
 					}
-					if (diff == 1 && bestElement != null)
-						chartAfterU[start][end][pState]
-								.addToFringe(bestElement);
-					if (chartBeforeU[start][end][pState] != null) {
-						HyperEdge bestSelf = chartBeforeU[start][end][pState]
-								.getKbest(0);
-						if (bestSelf != null) {
-							HyperEdge selfRule = new HyperEdge(pState, pState,
-									0, 0, start, end, bestSelf.score, 0);
-							chartAfterU[start][end][pState]
-									.addToFringe(selfRule);
-						}
+					if (diff == 1)
+						edges.keepOnly(first, bestElement);
+					if (nEdgesBeforeU[start][end][pState] > 0) {
+						// the self rule
+						edges.addUnary(pState, pState, 0, 0, start, end,
+								maxsScore[start][end][pState], 0);
 					}
-
-					// chartAfterU[start][end][pState].expandNextBest();
+					firstEdgeAfterU[start][end][pState] = first;
+					nEdgesAfterU[start][end][pState] = edges.size() - first;
+					maxcScore[start][end][pState] = edges.bestScore(first,
+							edges.size() - first);
 				}
 				// maxcScore[start][end] = maxcScoreStartEnd;
 			}
 		}
 	}
 
+	private void setEdgesBeforeU(int start, int end, int state, int first) {
+		firstEdgeBeforeU[start][end][state] = first;
+		nEdgesBeforeU[start][end][state] = edges.size() - first;
+		maxsScore[start][end][state] = edges.bestScore(first, edges.size()
+				- first);
+	}
+
+	/**
+	 * The k-best list of an item before the unary rules, made from its
+	 * candidate edges the first time it is asked for.
+	 */
+	KBestList chartBeforeU(int start, int end, int state) {
+		KBestList list = chartBeforeU[start][end][state];
+		if (list == null) {
+			list = newKBestList(firstEdgeBeforeU[start][end][state],
+					nEdgesBeforeU[start][end][state]);
+			chartBeforeU[start][end][state] = list;
+		}
+		return list;
+	}
+
+	KBestList chartAfterU(int start, int end, int state) {
+		KBestList list = chartAfterU[start][end][state];
+		if (list == null) {
+			list = newKBestList(firstEdgeAfterU[start][end][state],
+					nEdgesAfterU[start][end][state]);
+			chartAfterU[start][end][state] = list;
+		}
+		return list;
+	}
+
+	private KBestList newKBestList(int first, int n) {
+		KBestList list = new KBestList(edges, isGrammarTag, n + 2);
+		for (int e = first; e < first + n; e++) {
+			list.addToFringe(e);
+		}
+		return list;
+	}
+
 	/**
 	 * Returns the best parse, the one with maximum expected labelled recall.
 	 * Assumes that the maxc* arrays have been filled.
@@ -436,10 +459,9 @@ public class CoarseToFineNBestParser extends CoarseToFineMaxRuleParser {
 			Tree<String> tmp = extractBestMaxRuleParse1(start, end, 0, i,
 					sentence);
 			if (tmp != null) {
-				maxRuleScores.add(chartAfterU[0][length][0].getKbest(i).score);
+				maxRuleScores.add(edges.score[chartAfterU(0, length, 0)
+						.getKbest(i)]);
 			}
-			// HyperEdge parentNode = chartAfterU[start][end][0].getKbest(i);
-			// if (parentNode!=null) System.out.println(parentNode.score+" ");
 			if (tmp != null)
 				list.add(tmp);
 			else
@@ -462,18 +484,18 @@ public class CoarseToFineNBestParser extends CoarseToFineMaxRuleParser {
 			int suboptimalities, List<String> sentence) {
 		// System.out.println(start+", "+end+";");
 
-		HyperEdge parentNode = chartAfterU[start][end][state]
-				.getKbest(suboptimalities);
-		if (parentNode == null) {
+		int parentNode = chartAfterU(start, end, state).getKbest(
+				suboptimalities);
+		if (parentNode == -1) {
 			System.err.println("Don't have a " + (suboptimalities + 1)
 					+ "-best tree.");
 			return null;
 		}
-		int cState = parentNode.childState;
+		int cState = edges.lChildState[parentNode];
 		Tree<String> result = null;
 
-		HyperEdge childNode = chartBeforeU[start][end][cState]
-				.getKbest(parentNode.childBest);
+		int childNode = chartBeforeU(start, end, cState).getKbest(
+				edges.lChildBest[parentNode]);
 
 		List<Tree<String>> children = new ArrayList<Tree<String>>();
 		String stateStr = (String) tagNumberer.object(cState);// +""+start+""+end;
@@ -492,7 +514,7 @@ public class CoarseToFineNBestParser extends CoarseToFineMaxRuleParser {
 			children.add(new Tree<String>(sentence.get(start)));
 			// }
 		} else {
-			int split = childNode.split;
+			int split = edges.split[childNode];
 			if (split == -1) {
 				System.err
 						.println("Warning: no symbol can generate the span from "
@@ -510,12 +532,12 @@ public class CoarseToFineNBestParser extends CoarseToFineMaxRuleParser {
 				// maxcChild[start][end][state], sentence);
 				return new Tree<String>("ROOT");
 			}
-			int lState = childNode.lChildState;
-			int rState = childNode.rChildState;
+			int lState = edges.lChildState[childNode];
+			int rState = edges.rChildState[childNode];
 			Tree<String> leftChildTree = extractBestMaxRuleParse1(start, split,
-					lState, childNode.lChildBest, sentence);
+					lState, edges.lChildBest[childNode], sentence);
 			Tree<String> rightChildTree = extractBestMaxRuleParse1(split, end,
-					rState, childNode.rChildBest, sentence);
+					rState, edges.rChildBest[childNode], sentence);
 			children.add(leftChildTree);
 			children.add(rightChildTree);
 		}
@@ -549,94 +571,79 @@ public class CoarseToFineNBestParser extends CoarseToFineMaxRuleParser {
 		return result;
 	}
 
+	/**
+	 * Adds the successors of the edge parent, the derivations that use the
+	 * next best derivation of one of its children, to the k-best list of its
+	 * item. For a binary edge only the better of the two successors is added.
+	 */
 	void updateConstrainedMaxCScores(List<String> sentence,
-			final boolean scale, HyperEdge parent) {
-
-		int start = parent.start;
-		int end = parent.end;
-		int pState = parent.parentState;
-		int suboptimalities = parent.parentBest + 1;
-		double ruleScore = parent.ruleScore;
-
-		if (parent.alreadyExpanded)
+			final boolean scale, int parent) {
+		if (edges.alreadyExpanded[parent])
 			return;
 
-		if (!parent.isUnary) {
-			// if (chartBeforeU[start][end][pState].sortedListSize() >=
-			// suboptimalities) return; // already have enough derivations
-
-			int lState = parent.lChildState;
-			int rState = parent.rChildState;
-			int split = parent.split;
-
-			HyperEdge newParentL = null, newParentR = null;
+		int start = edges.start[parent];
+		int end = edges.end[parent];
+		int pState = edges.parentState[parent];
+		int suboptimalities = edges.parentBest[parent] + 1;
+		double ruleScore = edges.ruleScore[parent];
+
+		if (!edges.isUnary[parent]) {
+			int lState = edges.lChildState[parent];
+			int rState = edges.rChildState[parent];
+			int split = edges.split[parent];
+
+			// the successors with the next left and the next right child
+			boolean hasL = false, hasR = false;
+			double scoreL = 0, scoreR = 0;
+			int lBestL = 0, rBestL = 0, lBestR = 0, rBestR = 0;
 			if (split - start > 1) { // left is not a POS
-				int lBest = parent.lChildBest + 1;
-				HyperEdge lChild = chartAfterU[start][split][lState]
-						.getKbest(lBest);
-				if (lChild != null) {
-					int rBest = parent.rChildBest;
-					HyperEdge rChild = chartAfterU[split][end][rState]
-							.getKbest(rBest);
-					double newScore = lChild.score + rChild.score + ruleScore;
-					newParentL = new HyperEdge(pState, lState, rState,
-							suboptimalities, lBest, rBest, start, split, end,
-							newScore, ruleScore);
-					// chartBeforeU[start][end][pState].addToFringe(newParentL);
+				lBestL = edges.lChildBest[parent] + 1;
+				int lChild = chartAfterU(start, split, lState).getKbest(lBestL);
+				if (lChild != -1) {
+					rBestL = edges.rChildBest[parent];
+					int rChild = chartAfterU(split, end, rState).getKbest(rBestL);
+					scoreL = edges.score[lChild] + edges.score[rChild]
+							+ ruleScore;
+					hasL = true;
 				}
 			}
 			if (end - split > 1) {
-				int rBest = parent.rChildBest + 1;
-				HyperEdge rChild = chartAfterU[split][end][rState]
-						.getKbest(rBest);
-				if (rChild != null) {
-					int lBest = parent.lChildBest;
-					HyperEdge lChild = chartAfterU[start][split][lState]
-							.getKbest(lBest);
-					double newScore = lChild.score + rChild.score + ruleScore;
-					newParentR = new HyperEdge(pState, lState, rState,
-							suboptimalities, lBest, rBest, start, split, end,
-							newScore, ruleScore);
-					// chartBeforeU[start][end][pState].addToFringe(newParentR);
+				rBestR = edges.rChildBest[parent] + 1;
+				int rChild = chartAfterU(split, end, rState).getKbest(rBestR);
+				if (rChild != -1) {
+					lBestR = edges.lChildBest[parent];
+					int lChild = chartAfterU(start, split, lState).getKbest(
+							lBestR);
+					scoreR = edges.score[lChild] + edges.score[rChild]
+							+ ruleScore;
+					hasR = true;
 				}
 			}
 
-			if (newParentL != null && newParentR != null
-					&& newParentL.score > newParentR.score)
-				chartBeforeU[start][end][pState].addToFringe(newParentL);
-			else if (newParentL != null && newParentR != null)
-				chartBeforeU[start][end][pState].addToFringe(newParentR);
-			else if (newParentL != null || newParentR != null) {
-				if (newParentL != null)
-					chartBeforeU[start][end][pState].addToFringe(newParentL);
-				else
-					/* newParentR!=null */chartBeforeU[start][end][pState]
-							.addToFringe(newParentR);
-			}
-			parent.alreadyExpanded = true;
-
-			// chartBeforeU[start][end][pState].expandNextBest();
+			if (hasL && (!hasR || scoreL > scoreR))
+				chartBeforeU(start, end, pState).addToFringe(
+						edges.addBinary(pState, lState, rState,
+								suboptimalities, lBestL, rBestL, start, split,
+								end, scoreL, ruleScore));
+			else if (hasR)
+				chartBeforeU(start, end, pState).addToFringe(
+						edges.addBinary(pState, lState, rState,
+								suboptimalities, lBestR, rBestR, start, split,
+								end, scoreR, ruleScore));
+			edges.alreadyExpanded[parent] = true;
 		} else { // unary
-		// if (chartAfterU[start][end][pState].sortedListSize() >=
-		// suboptimalities) return; // already have enough derivations
-
-			int cState = parent.childState;
-			int cBest = parent.childBest + 1;
+			int cState = edges.lChildState[parent];
+			int cBest = edges.lChildBest[parent] + 1;
 
 			if (end - start > 1) {
-				HyperEdge child = chartBeforeU[start][end][cState]
-						.getKbest(cBest);
-				if (child != null) {
-					double newScore = child.score + ruleScore;
-					HyperEdge newParent = new HyperEdge(pState, cState,
-							suboptimalities, cBest, start, end, newScore,
-							ruleScore);
-					// if (newScore>=parent.score)
-					// System.out.println("ullala");
-					chartAfterU[start][end][pState].addToFringe(newParent);
+				int child = chartBeforeU(start, end, cState).getKbest(cBest);
+				if (child != -1) {
+					double newScore = edges.score[child] + ruleScore;
+					chartAfterU(start, end, pState).addToFringe(
+							edges.addUnary(pState, cState, suboptimalities,
+									cBest, start, end, newScore, ruleScore));
 				}
-				parent.alreadyExpanded = true;
-				// chartAfterU[start][end][pState].expandNextBest();
+				edges.alreadyExpanded[parent] = true;
 			}
 		}
 	}
@@ -649,7 +656,11 @@ public class CoarseToFineNBestParser extends CoarseToFineMaxRuleParser {
 			result.add(new Tree<String>("ROOT"));
 			return result;
 		}
+		if (metrics != null)
+			sentenceMetrics.start(sentence.size());
 		doPreParses(sentence, null, false, posTags);
+		if (metrics != null)
+			sentenceMetrics.startFinalLevel(ruleApplications);
 		List<Tree<String>> bestTrees = null;
 		double score = 0;
 		// bestTree = extractBestViterbiParse(0, 0, 0, length, sentence);
@@ -671,14 +682,7 @@ public class CoarseToFineNBestParser extends CoarseToFineMaxRuleParser {
 			int level = isBaseline ? 1 : endLevel;
 			createArrays(false, curGrammar.numStates, curGrammar.numSubStates,
 					level, initVal, false);
-			initializeChart(sentence, curLexicon, false, false, posTags, false);
-			doConstrainedInsideScores(curGrammar, viterbiParse, viterbiParse);
-
-			score = iScore[0][length][0][0];
-			if (!viterbiParse)
-				score = Math.log(score);// + (100*iScale[0][length][0]);
-			logLikelihood = score;
-			if (score != Double.NEGATIVE_INFINITY) {
+			if (!doFinalInsideScores(sentence, curGrammar, curLexicon, posTags)) {
 				// System.out.println("\nFinally found a parse for sentence with length "+length+". The LL is "+score+".");
 
 				if (!viterbiParse) {
@@ -699,14 +703,6 @@ public class CoarseToFineNBestParser extends CoarseToFineMaxRuleParser {
 
 				// System.out.print(bestTree);
 			} else {
-				// System.out.println("Using scaling code for sentence with length "+length+".");
-				setupScaling();
-				initializeChart(sentence, curLexicon, false, false, posTags,
-						true);
-				doScaledConstrainedInsideScores(curGrammar);
-				score = iScore[0][length][0][0];
-				if (!viterbiParse)
-					score = Math.log(score) + (100 * iScale[0][length][0]);
 				// System.out.println("Finally found a parse for sentence with length "+length+". The LL is "+score+".");
 				// System.out.println("Scale: "+iScale[0][length][0]);
 				oScore[0][length][0][0] = 1.0;
@@ -719,6 +715,10 @@ public class CoarseToFineNBestParser extends CoarseToFineMaxRuleParser {
 			lexicon = curLexicon;
 			bestTrees = extractKBestMaxRuleParses(0, length, sentence, k);
 		}
+		if (metrics != null) {
+			sentenceMetrics.endLevel(ruleApplications);
+			sentenceMetrics.finish(metrics);
+		}
 		return bestTrees;
 	}
 
@@ -729,6 +729,9 @@ public class CoarseToFineNBestParser extends CoarseToFineMaxRuleParser {
 				outputSub, outputScore, accurate, this.doVariational,
 				useGoldPOS, false);
 		newParser.initCascade(this);
+		newParser.sparseCellOccupancy = sparseCellOccupancy;
+		newParser.spanFilter = spanFilter;
+		newParser.setMetrics(metrics);
 		return newParser;
 	}
 
@@ -7,6 +7,7 @@ import java.util.Arrays;
 import java.util.List;
 
 import edu.berkeley.nlp.discPCFG.Linearizer;
+import edu.berkeley.nlp.discPCFG.SparseCounts;
 import edu.berkeley.nlp.syntax.StateSet;
 import edu.berkeley.nlp.syntax.Tree;
 
@@ -22,6 +23,9 @@ public class CoarseToFineTwoChartsParser extends CoarseToFineMaxRuleParser {
 	/** NEW: we now have two charts one before applying unaries and one after: */
 	protected double[][][][] iScorePreU, iScorePostU;
 	protected double[][][][] oScorePreU, oScorePostU;
+	// this parser keeps its substate masks as booleans, null meaning that no
+	// substate is allowed
+	boolean[][][][] allowedSubStates;
 
 	/**
 	 * @param gr
@@ -1497,9 +1501,9 @@ public class CoarseToFineTwoChartsParser extends CoarseToFineMaxRuleParser {
 	}
 
 	// recently updated, slav (may 2nd)
-	public void incrementExpectedCounts(Linearizer linearizer, double[] probs,
-			Grammar grammar, Lexicon lexicon, List<StateSet> sentence,
-			boolean hardCounts, int lexiconOffset) {
+	public void incrementExpectedCounts(Linearizer linearizer,
+			SparseCounts probs, Grammar grammar, Lexicon lexicon,
+			List<StateSet> sentence, boolean hardCounts, int lexiconOffset) {
 		throw new Error("Currently disabled");
 		// numSubStatesArray = grammar.numSubStates;
 		// double tree_score = iScorePostU[0][length][0][0];
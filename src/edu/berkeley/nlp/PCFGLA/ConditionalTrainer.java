@@ -22,6 +22,7 @@ import edu.berkeley.nlp.discPCFG.Linearizer;
 import edu.berkeley.nlp.discPCFG.ParsingObjectiveFunction;
 import edu.berkeley.nlp.math.LBFGSMinimizer;
 import edu.berkeley.nlp.math.OW_LBFGSMinimizer;
+import edu.berkeley.nlp.math.ParallelLBFGSMinimizer;
 import edu.berkeley.nlp.math.SloppyMath;
 import edu.berkeley.nlp.syntax.StateSet;
 import edu.berkeley.nlp.syntax.Tree;
@@ -269,6 +270,20 @@ public class ConditionalTrainer {
 		public static int minFeatureFrequency = 0;
 		@Option(name = "-lbfgsHistorySize", usage = "Max size of L-BFGS history (use -1 for defaults)")
 		public int lbfgsHistorySize = -1;
+		@Option(name = "-lbfgsThreads", usage = "Threads for the vector operations of L-BFGS (Default: 1)")
+		public int lbfgsThreads = 1;
+		@Option(name = "-lbfgsFloatHistory", usage = "Keep the L-BFGS history as floats (Default: false)")
+		public boolean lbfgsFloatHistory = false;
+		@Option(name = "-reuseScoreArrays", usage = "Reuse the score arrays of the trees in the E-step instead of allocating new ones (Default: false)")
+		public boolean reuseScoreArrays = false;
+		@Option(name = "-batchSize", usage = "Optimize with mini-batch stochastic gradient descent on batches of that many trees instead of L-BFGS (Default: 0, use L-BFGS)")
+		public int batchSize = 0;
+		@Option(name = "-sgdPasses", usage = "Passes over the training set in each round of stochastic optimization (Default: 5)")
+		public int sgdPasses = 5;
+		@Option(name = "-learningRate", usage = "Initial step size of the stochastic optimization, halved after each pass that does not improve the objective (Default: 0.1)")
+		public double learningRate = 0.1;
+		@Option(name = "-learningRateDecay", usage = "Use learningRate/(1+learningRateDecay*t) for the t-th update of the stochastic optimization (Default: 0)")
+		public double learningRateDecay = 0;
 
 		// -spanFeatures -usePunctuation -useSyntheticClass -useFirstAndLast
 		// -usePreviousAndNext -useBeginAndEndPairs
@@ -327,6 +342,7 @@ public class ConditionalTrainer {
 					.println("Using grammar output file " + outFileName + ".");
 
 		GrammarTrainer.VERBOSE = opts.verbose;
+		GrammarTrainer.REUSE_SCORE_ARRAYS = opts.reuseScoreArrays;
 		GrammarTrainer.RANDOM = new Random(opts.randSeed);
 		System.out.println("Random number generator seeded at " + opts.randSeed
 				+ ".");
@@ -483,7 +499,7 @@ public class ConditionalTrainer {
 						trainTrees, numSubStatesArray, false, tagNumberer);
 				CorpusStatistics corpusStatistics = new CorpusStatistics(
 						tagNumberer, trainStateSetTrees);
-				int[] counts = corpusStatistics.getSymbolCounts();
+				int[] counts = corpusStatistics.getSymbolCounts(opts.nProcess);
 				if (opts.predefinedMaxSplit) {
 					System.out
 							.println("Using predefnied max number of subcategories!");
@@ -685,6 +701,9 @@ public class ConditionalTrainer {
 			for (int it = 1; it < maxIter; it++) {
 				if (opts.regularize == 1)
 					minimizer = new OW_LBFGSMinimizer(iterations);
+				else if (opts.lbfgsThreads > 1 || opts.lbfgsFloatHistory)
+					minimizer = new ParallelLBFGSMinimizer(iterations,
+							opts.lbfgsThreads, opts.lbfgsFloatHistory);
 				else
 					minimizer = new LBFGSMinimizer(iterations);
 				if (opts.lbfgsHistorySize >= 0)
@@ -748,7 +767,12 @@ public class ConditionalTrainer {
 				// trainStateSetTrees, sigma, consFileName, regularize,false,
 				// nRules, nRules2);
 				System.out.println("In the " + it + ". EM-like Iteration.");
-				weights = minimizer.minimize(objective, weights, 1e-4);
+				if (opts.batchSize > 0)
+					weights = objective.minimizeStochastically(weights,
+							opts.sgdPasses, opts.batchSize, opts.learningRate,
+							opts.learningRateDecay);
+				else
+					weights = minimizer.minimize(objective, weights, 1e-4);
 
 				linearizer.delinearizeWeights(weights);
 				grammar = linearizer.getGrammar();
@@ -831,7 +855,7 @@ public class ConditionalTrainer {
 							+ maxGrammar.totalSubStates() + " substates.");
 					CorpusStatistics corpusStatistics = new CorpusStatistics(
 							tagNumberer, trainStateSetTrees);
-					int[] counts = corpusStatistics.getSymbolCounts();
+					int[] counts = corpusStatistics.getSymbolCounts(opts.nProcess);
 
 					maxGrammar = maxGrammar.splitAllStates(randomness, counts,
 							allowMoreSubstatesThanCounts, 0);
@@ -1058,6 +1082,7 @@ public class ConditionalTrainer {
 			int unkThreshold) {
 		boolean secondHalf = false;
 		ArrayParser parser = new ArrayParser(previousGrammar, previousLexicon);
+		parser.setReuseScoreArrays(GrammarTrainer.REUSE_SCORE_ARRAYS);
 		double trainingLikelihood = 0;
 		int n = 0;
 		int nTrees = trainStateSetTrees.size();
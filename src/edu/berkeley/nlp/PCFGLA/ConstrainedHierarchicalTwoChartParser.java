@@ -7,6 +7,7 @@ import java.util.Arrays;
 import java.util.List;
 
 import edu.berkeley.nlp.discPCFG.Linearizer;
+import edu.berkeley.nlp.discPCFG.SparseCounts;
 import edu.berkeley.nlp.math.DoubleArrays;
 import edu.berkeley.nlp.math.SloppyMath;
 import edu.berkeley.nlp.syntax.StateSet;
@@ -1247,8 +1248,8 @@ public class ConstrainedHierarchicalTwoChartParser extends
 	}
 
 	@Override
-	public void incrementExpectedCounts(Linearizer linearizer, double[] probs,
-			List<StateSet> sentence) {
+	public void incrementExpectedCounts(Linearizer linearizer,
+			SparseCounts probs, List<StateSet> sentence) {
 		double tree_score = h_iScorePostU[0][length][0][finalLevel][0];// *
 																		// h_oScorePreU[0][length][finalLevel][0][0];
 		int tree_scale = iScale[0][length][0];
@@ -1861,7 +1862,7 @@ public class ConstrainedHierarchicalTwoChartParser extends
 
 	@Override
 	public void incrementExpectedGoldCounts(Linearizer linearizer,
-			double[] probs, Tree<StateSet> tree) {
+			SparseCounts probs, Tree<StateSet> tree) {
 		if (ConditionalTrainer.Options.lockGrammar)
 			return;
 
@@ -1871,7 +1872,7 @@ public class ConstrainedHierarchicalTwoChartParser extends
 
 	@Override
 	public void incrementExpectedGoldCounts(Linearizer linearizer,
-			double[] probs, Tree<StateSet> tree, double tree_score,
+			SparseCounts probs, Tree<StateSet> tree, double tree_score,
 			int tree_scale) {
 
 		if (tree.isLeaf())
@@ -8,6 +8,7 @@ import java.util.Arrays;
 import java.util.List;
 
 import edu.berkeley.nlp.discPCFG.Linearizer;
+import edu.berkeley.nlp.discPCFG.SparseCounts;
 import edu.berkeley.nlp.math.DoubleArrays;
 import edu.berkeley.nlp.math.SloppyMath;
 import edu.berkeley.nlp.syntax.StateSet;
@@ -1382,8 +1383,8 @@ public class ConstrainedTwoChartsParser extends ConstrainedArrayParser {
 
 	}
 
-	public void incrementExpectedCounts(Linearizer linearizer, double[] probs,
-			List<StateSet> sentence) {
+	public void incrementExpectedCounts(Linearizer linearizer,
+			SparseCounts probs, List<StateSet> sentence) {
 		// numSubStatesArray = grammar.numSubStates;
 		double tree_score = iScorePostU[0][length][0][0];
 		int tree_scale = iScale[0][length][0];
@@ -4,18 +4,19 @@
 package edu.berkeley.nlp.PCFGLA;
 
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.StringReader;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 
+import edu.berkeley.nlp.io.FastPennTreeReader;
 import edu.berkeley.nlp.io.PennTreebankReader;
 import edu.berkeley.nlp.syntax.StateSet;
 import edu.berkeley.nlp.syntax.Tree;
 import edu.berkeley.nlp.syntax.Trees;
-import edu.berkeley.nlp.syntax.Trees.PennTreeReader;
 import edu.berkeley.nlp.util.Counter;
 
 /**
@@ -33,6 +34,9 @@ public class Corpus {
 
 	public static TreeBankType myTreebank = TreeBankType.WSJ;
 	public static boolean keepFunctionLabels;
+	// threads parsing treebank files in parallel
+	public static int nReaderThreads = Math.min(4, Runtime.getRuntime()
+			.availableProcessors());
 
 	ArrayList<Tree<String>> trainTrees = new ArrayList<Tree<String>>();
 	ArrayList<Tree<String>> validationTrees = new ArrayList<Tree<String>>();
@@ -343,23 +347,16 @@ public class Corpus {
 		System.out.print("Loading trees from single file...");
 		InputStreamReader inputData = new InputStreamReader(
 				new FileInputStream(path), "UTF-8");
-		PennTreeReader treeReader = new PennTreeReader(inputData);
+		FastPennTreeReader treeReader = new FastPennTreeReader(inputData,
+				true, keepFunctionLabels);
 
 		while (treeReader.hasNext()) {
 			trainTrees.add(treeReader.next());
 		}
-
-		Trees.TreeTransformer<String> treeTransformer = (keepFunctionLabels) ? new Trees.FunctionLabelRetainingTreeNormalizer()
-				: new Trees.StandardTreeNormalizer();
-		ArrayList<Tree<String>> normalizedTreeList = new ArrayList<Tree<String>>();
-		for (Tree<String> tree : trainTrees) {
-			Tree<String> normalizedTree = treeTransformer.transformTree(tree);
-			normalizedTreeList.add(normalizedTree);
-		}
-		if (normalizedTreeList.size() == 0) {
+		inputData.close();
+		if (trainTrees.size() == 0) {
 			throw new Exception("failed to load any trees at " + path);
 		}
-		trainTrees = normalizedTreeList;
 
 		devTestTrees = trainTrees;
 		System.out.println("done");
@@ -483,18 +480,24 @@ public class Corpus {
 						+ " trees.");
 	}
 
+	/**
+	 * The normalized trees of the files numbered low to high under basePath,
+	 * read by nReaderThreads threads and handed out one at a time, without
+	 * holding the whole range in memory.
+	 */
+	public static Iterator<Tree<String>> iterateTrees(String basePath,
+			int low, int high, Charset charset) {
+		return PennTreebankReader.iterateTrees(basePath, low, high, charset,
+				keepFunctionLabels, nReaderThreads);
+	}
+
 	public static List<Tree<String>> readTrees(String basePath, int low,
 			int high, Charset charset) throws Exception {
-		Collection<Tree<String>> trees = PennTreebankReader.readTrees(basePath,
-				low, high, charset);
-		// System.out.println("in readTrees");
-		// normalize trees
-		Trees.TreeTransformer<String> treeTransformer = (keepFunctionLabels) ? new Trees.FunctionLabelRetainingTreeNormalizer()
-				: new Trees.StandardTreeNormalizer();
+		Iterator<Tree<String>> trees = iterateTrees(basePath, low, high,
+				charset);
 		List<Tree<String>> normalizedTreeList = new ArrayList<Tree<String>>();
-		for (Tree<String> tree : trees) {
-			Tree<String> normalizedTree = treeTransformer.transformTree(tree);
-			normalizedTreeList.add(normalizedTree);
+		while (trees.hasNext()) {
+			normalizedTreeList.add(trees.next());
 		}
 		if (normalizedTreeList.size() == 0) {
 			throw new Exception("failed to load any trees at " + basePath
@@ -503,6 +506,51 @@ public class Corpus {
 		return normalizedTreeList;
 	}
 
+	/**
+	 * The dev or final test trees of the treebank at path, read while they
+	 * are used instead of all at once, or null if this kind of treebank can
+	 * only be loaded as a whole Corpus. The WSJ test sections are streamed,
+	 * and so is a single file, whose dev set is the whole file.
+	 */
+	public static Iterator<Tree<String>> iterateTestTrees(String path,
+			TreeBankType treebank, boolean finalTest, boolean keepFunctionLabel)
+			throws IOException {
+		myTreebank = treebank;
+		keepFunctionLabels = keepFunctionLabel;
+		if (path == null)
+			return null;
+		if (treebank == TreeBankType.WSJ) {
+			if (finalTest)
+				return iterateTrees(path, 2300, 2399, Charset.defaultCharset());
+			return iterateTrees(path, 2200, 2299, Charset.defaultCharset());
+		}
+		if (treebank != TreeBankType.SINGLEFILE || finalTest)
+			return null;
+		final InputStreamReader inputData = new InputStreamReader(
+				new FileInputStream(path), "UTF-8");
+		final FastPennTreeReader treeReader = new FastPennTreeReader(inputData,
+				true, keepFunctionLabels);
+		return new Iterator<Tree<String>>() {
+			public boolean hasNext() {
+				if (treeReader.hasNext())
+					return true;
+				try {
+					inputData.close();
+				} catch (IOException e) {
+				}
+				return false;
+			}
+
+			public Tree<String> next() {
+				return treeReader.next();
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
 	/**
 	 * Split a set of trees into 7/10 training, 1/10 validation, 1/10 dev test,
 	 * 1/10 final test sets. Every set of 10 sentences is split exactly into
@@ -3,17 +3,21 @@
  */
 package edu.berkeley.nlp.PCFGLA;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import edu.berkeley.nlp.syntax.StateSet;
 import edu.berkeley.nlp.syntax.Tree;
-import edu.berkeley.nlp.util.Counter;
-import edu.berkeley.nlp.util.CounterMap;
+import edu.berkeley.nlp.util.ConcurrentCounter;
+import edu.berkeley.nlp.util.ConcurrentIntCounter;
 import edu.berkeley.nlp.util.Numberer;
 import edu.berkeley.nlp.util.PriorityQueue;
 
 /**
- * CorpusStatistics calculates symbol counts for a corpus.
+ * CorpusStatistics calculates symbol counts for a corpus. The counters can be
+ * shared between threads, so the counting methods can also split the trees
+ * over several threads.
  * 
  * @author leon
  * 
@@ -24,11 +28,13 @@ public class CorpusStatistics {
 
 	int[] counts;
 	Collection<Tree<StateSet>> trees;
-	Counter<UnaryRule> unaryRuleCounter;
-	Counter<BinaryRule> binaryRuleCounter;
+	ConcurrentIntCounter symbolCounter;
+	ConcurrentCounter<UnaryRule> unaryRuleCounter;
+	ConcurrentCounter<BinaryRule> binaryRuleCounter;
 
 	int[] contexts;
-	CounterMap<Integer, String> posCounter;
+	// the words of every preterminal tag, made by countRuleParents
+	ConcurrentCounter<String>[] posCounter;
 
 	/**
 	 * Count statistics for a collection of StateSet trees.
@@ -37,20 +43,76 @@ public class CorpusStatistics {
 			Collection<Tree<StateSet>> trees) {
 		counts = new int[tagNumberer.objects().size()];
 		this.trees = trees;
-		unaryRuleCounter = new Counter<UnaryRule>();
-		binaryRuleCounter = new Counter<BinaryRule>();
+		symbolCounter = new ConcurrentIntCounter();
+		unaryRuleCounter = new ConcurrentCounter<UnaryRule>();
+		binaryRuleCounter = new ConcurrentCounter<BinaryRule>();
 		contexts = new int[tagNumberer.objects().size()];
-		posCounter = new CounterMap<Integer, String>();
 	}
 
 	public void countSymbols() {
+		countSymbols(1);
+	}
+
+	public void countSymbols(int nThreads) {
+		countTrees(nThreads, false);
+		updateCounts();
+	}
+
+	/**
+	 * Runs addCount, or addParent if parents is true, over all the trees.
+	 * Thread t of nThreads takes every nThreads-th tree starting from the t-th.
+	 */
+	private void countTrees(int nThreads, final boolean parents) {
+		if (nThreads <= 1) {
+			for (Tree<StateSet> tree : trees) {
+				if (parents)
+					addParent(tree);
+				else
+					addCount(tree);
+			}
+			return;
+		}
+		List<List<Tree<StateSet>>> shards = new ArrayList<List<Tree<StateSet>>>();
+		for (int t = 0; t < nThreads; t++) {
+			shards.add(new ArrayList<Tree<StateSet>>());
+		}
+		int i = 0;
 		for (Tree<StateSet> tree : trees) {
-			addCount(tree);
+			shards.get(i++ % nThreads).add(tree);
+		}
+		Thread[] threads = new Thread[nThreads];
+		for (int t = 0; t < nThreads; t++) {
+			final List<Tree<StateSet>> shard = shards.get(t);
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (Tree<StateSet> tree : shard) {
+						if (parents)
+							addParent(tree);
+						else
+							addCount(tree);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+			}
+		}
+	}
+
+	private void updateCounts() {
+		double[] symbolCounts = symbolCounter.toArray(counts.length);
+		for (int state = 0; state < counts.length; state++) {
+			counts[state] = (int) symbolCounts[state];
 		}
 	}
 
 	private void addCount(Tree<StateSet> tree) {
-		counts[tree.getLabel().getState()] += 1.0;
+		symbolCounter.incrementCount(tree.getLabel().getState(), 1.0);
 		if (!tree.isPreTerminal()) {
 			for (Tree<StateSet> child : tree.getChildren()) {
 				addCount(child);
@@ -65,9 +127,20 @@ public class CorpusStatistics {
 	 */
 
 	public void countRuleParents() {
-		for (Tree<StateSet> tree : trees) {
-			addParent(tree);
+		countRuleParents(1);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void countRuleParents(int nThreads) {
+		if (posCounter == null) {
+			// one stripe per thread, there are many of them
+			posCounter = new ConcurrentCounter[contexts.length];
+			for (int tag = 0; tag < contexts.length; tag++) {
+				posCounter[tag] = new ConcurrentCounter<String>(nThreads);
+			}
 		}
+		countTrees(nThreads, true);
+		updateCounts();
 		for (BinaryRule br : binaryRuleCounter.keySet()) {
 			contexts[br.parentState]++;
 			contexts[br.leftChildState]++;
@@ -78,9 +151,7 @@ public class CorpusStatistics {
 			contexts[ur.childState]++;
 		}
 		for (int i = 0; i < contexts.length; i++) {
-			Counter<String> tempC = posCounter.getCounter(i);
-			contexts[i] += tempC.size();
-
+			contexts[i] += posCounter[i].size();
 		}
 	}
 
@@ -90,7 +161,7 @@ public class CorpusStatistics {
 
 	private void addParent(Tree<StateSet> tree) {
 		short parentState = tree.getLabel().getState();
-		counts[parentState] += 1.0;
+		symbolCounter.incrementCount(parentState, 1.0);
 		if (!tree.isPreTerminal()) {
 			if (tree.getChildren().size() == 1) {
 				UnaryRule r = new UnaryRule(parentState, tree.getChildren()
@@ -106,8 +177,8 @@ public class CorpusStatistics {
 				addParent(child);
 			}
 		} else {
-			posCounter.incrementCount((int) parentState, tree.getChildren()
-					.get(0).getLabel().getWord(), 1.0);
+			posCounter[parentState].incrementCount(tree.getChildren().get(0)
+					.getLabel().getWord(), 1.0);
 		}
 	}
 
@@ -117,7 +188,11 @@ public class CorpusStatistics {
 	 * @return
 	 */
 	public int[] getSymbolCounts() {
-		countSymbols();
+		return getSymbolCounts(1);
+	}
+
+	public int[] getSymbolCounts(int nThreads) {
+		countSymbols(nThreads);
 		return counts;
 	}
 
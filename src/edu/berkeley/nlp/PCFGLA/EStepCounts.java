@@ -0,0 +1,128 @@
+package edu.berkeley.nlp.PCFGLA;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The sufficient statistics of one E-step over some of the training trees:
+ * the expected rule counts in a fresh Grammar, the expected word counts in a
+ * fresh SophisticatedLexicon and the log likelihood of the trees. The counts
+ * of disjoint sets of trees can be collected in separate processes, saved,
+ * and added up before the M-step (see ShardedEM).
+ */
+public class EStepCounts implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	Grammar grammar;
+	SophisticatedLexicon lexicon;
+	double logLikelihood;
+	int nTrees;
+
+	public EStepCounts(Grammar grammar, SophisticatedLexicon lexicon) {
+		this.grammar = grammar;
+		this.lexicon = lexicon;
+	}
+
+	/**
+	 * Runs the E-step of previousGrammar and previousLexicon over the trees,
+	 * which must have been built with the substates of previousGrammar.
+	 */
+	public static EStepCounts tally(Grammar previousGrammar,
+			SophisticatedLexicon previousLexicon, StateSetTreeList trees,
+			int unkThreshold) {
+		Grammar grammar = new Grammar(previousGrammar.numSubStates,
+				previousGrammar.findClosedPaths, previousGrammar.smoother,
+				previousGrammar, previousGrammar.threshold);
+		SophisticatedLexicon lexicon = new SophisticatedLexicon(
+				grammar.numSubStates,
+				SophisticatedLexicon.DEFAULT_SMOOTHING_CUTOFF, previousLexicon
+						.getSmoothingParams(), previousLexicon.getSmoother(),
+				previousLexicon.getPruningThreshold());
+		EStepCounts counts = new EStepCounts(grammar, lexicon);
+		counts.logLikelihood = GrammarTrainer.tallyTrees(previousGrammar,
+				previousLexicon, grammar, lexicon, trees, false, unkThreshold);
+		counts.nTrees = trees.size();
+		return counts;
+	}
+
+	/**
+	 * Adds the counts of other, which was collected with the same grammar
+	 * over other trees. other should not be used afterwards.
+	 */
+	public void add(EStepCounts other) {
+		grammar.addCounts(other.grammar);
+		lexicon.addCounts(other.lexicon);
+		logLikelihood += other.logLikelihood;
+		nTrees += other.nTrees;
+	}
+
+	/**
+	 * The M-step: turns the counts of all the training trees into the
+	 * probabilities of the grammar and lexicon.
+	 */
+	public void maximize(int unkThreshold) {
+		lexicon.tieRareWordStats(unkThreshold);
+		lexicon.optimize();
+		grammar.optimize(0);
+	}
+
+	public Grammar getGrammar() {
+		return grammar;
+	}
+
+	public SophisticatedLexicon getLexicon() {
+		return lexicon;
+	}
+
+	public double getLogLikelihood() {
+		return logLikelihood;
+	}
+
+	public int getNumTrees() {
+		return nTrees;
+	}
+
+	public boolean save(String fileName) {
+		try {
+			FileOutputStream fos = new FileOutputStream(fileName);
+			GZIPOutputStream gzos = new GZIPOutputStream(fos);
+			ObjectOutputStream out = new ObjectOutputStream(gzos);
+			out.writeObject(this);
+			out.flush();
+			out.close();
+			gzos.close();
+			fos.close();
+		} catch (IOException e) {
+			System.out.println("IOException: " + e);
+			return false;
+		}
+		return true;
+	}
+
+	public static EStepCounts load(String fileName) {
+		EStepCounts counts = null;
+		try {
+			FileInputStream fis = new FileInputStream(fileName);
+			GZIPInputStream gzis = new GZIPInputStream(fis);
+			ObjectInputStream in = new ObjectInputStream(gzis);
+			counts = (EStepCounts) in.readObject();
+			in.close();
+			gzis.close();
+			fis.close();
+		} catch (IOException e) {
+			System.out.println("IOException\n" + e);
+			return null;
+		} catch (ClassNotFoundException e) {
+			System.out.println("Class not found!");
+			return null;
+		}
+		return counts;
+	}
+
+}
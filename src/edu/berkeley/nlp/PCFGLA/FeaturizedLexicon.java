@@ -278,6 +278,11 @@ public class FeaturizedLexicon implements Lexicon, Serializable {
 		return score(stateSet, tag, noSmoothing, isSignature);
 	}
 
+	public double[] score(StateSet stateSet, short tag, boolean noSmoothing,
+			boolean isSignature, double[] scores) {
+		return score(stateSet, tag, noSmoothing, isSignature);
+	}
+
 	public double[] score(StateSet stateSet, short tag, boolean noSmoothing,
 			boolean isSignature) {
 		double[] res = new double[numSubStates[tag]];
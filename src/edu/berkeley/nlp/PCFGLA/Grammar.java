@@ -76,6 +76,8 @@ public class Grammar implements java.io.Serializable {
 
 	BinaryCounterTable binaryRuleCounter = null;
 
+	private transient TallyCache tallyCache;
+
 	CounterMap<Integer, Integer> symbolCounter = new CounterMap<Integer, Integer>();
 
 	private static final long serialVersionUID = 1L;
@@ -757,6 +759,23 @@ public class Grammar implements java.io.Serializable {
 
 	}
 
+	/**
+	 * Adds the rule counts that tallyStateSetTree collected in other, a
+	 * grammar with the same states and substates, to the counts of this
+	 * grammar. Count arrays of rules this grammar has not seen are taken over
+	 * rather than copied, so other should not be used afterwards.
+	 */
+	public void addCounts(Grammar other) {
+		for (UnaryRule unaryRule : other.unaryRuleCounter.keySet()) {
+			unaryRuleCounter.incrementCount(unaryRule, other.unaryRuleCounter
+					.getCount(unaryRule));
+		}
+		for (BinaryRule binaryRule : other.binaryRuleCounter.keySet()) {
+			binaryRuleCounter.incrementCount(binaryRule,
+					other.binaryRuleCounter.getCount(binaryRule));
+		}
+	}
+
 	/**
 	 * Normalize the unary & binary probabilities so that they sum to 1 for each
 	 * parent. The binaryRuleCounter and unaryRuleCounter are assumed to contain
@@ -1060,10 +1079,15 @@ public class Grammar implements java.io.Serializable {
 			return;
 		if (tree.isPreTerminal())
 			return;
+		if (tree_score == 0)
+			tree_score = 1;
+		if (tallyCache == null || !tallyCache.isFor(old_grammar, this))
+			tallyCache = new TallyCache(old_grammar, this);
 		List<Tree<StateSet>> children = tree.getChildren();
 		StateSet parent = tree.getLabel();
 		short parentState = parent.getState();
 		int nParentSubStates = numSubStates[parentState];
+		double[] pOScores = parent.getOScores();
 		switch (children.size()) {
 		case 0:
 			// This is a leaf (a preterminal node, if we count the words
@@ -1074,41 +1098,36 @@ public class Grammar implements java.io.Serializable {
 			StateSet child = children.get(0).getLabel();
 			short childState = child.getState();
 			int nChildSubStates = numSubStates[childState];
-			UnaryRule urule = new UnaryRule(parentState, childState);
-			double[][] oldUScores = old_grammar.getUnaryScore(urule); // rule
-																		// score
-			double[][] ucounts = unaryRuleCounter.getCount(urule);
-			if (ucounts == null)
-				ucounts = new double[nChildSubStates][];
+			int uSlot = tallyCache.unarySlot(parentState, childState);
+			double[][] oldUScores = (double[][]) tallyCache.oldScores[uSlot]; // rule
+																				// score
+			double[][] ucounts = (double[][]) tallyCache.counts[uSlot];
 			double scalingFactor = ScalingTools.calcScaleFactor(parent
 					.getOScale() + child.getIScale() - tree_scale);
 			// if (scalingFactor==0){
 			// System.out.println("p: "+parent.getOScale()+" c: "+child.getIScale()+" t:"+tree_scale);
 			// }
+			double[] cIScores = child.getIScores();
 			for (short i = 0; i < nChildSubStates; i++) {
-				if (oldUScores[i] == null)
+				double[] rules = oldUScores[i];
+				if (rules == null)
 					continue;
-				double cIS = child.getIScore(i);
+				double cIS = cIScores[i];
 				if (cIS == 0)
 					continue;
 				if (ucounts[i] == null)
 					ucounts[i] = new double[nParentSubStates];
+				double[] counts = ucounts[i];
 				for (short j = 0; j < nParentSubStates; j++) {
-					double pOS = parent.getOScore(j); // Parent outside score
+					double pOS = pOScores[j]; // Parent outside score
 					if (pOS == 0)
 						continue;
-					double rS = oldUScores[i][j];
+					double rS = rules[j];
 					if (rS == 0)
 						continue;
-					if (tree_score == 0)
-						tree_score = 1;
-					double logRuleCount = (rS * cIS / tree_score)
-							* scalingFactor * pOS;
-					ucounts[i][j] += logRuleCount;
+					counts[j] += (rS * cIS / tree_score) * scalingFactor * pOS;
 				}
 			}
-			// urule.setScores2(ucounts);
-			unaryRuleCounter.setCount(urule, ucounts);
 			break;
 		case 2:
 			StateSet leftChild = children.get(0).getLabel();
@@ -1117,65 +1136,47 @@ public class Grammar implements java.io.Serializable {
 			short rChildState = rightChild.getState();
 			int nLeftChildSubStates = numSubStates[lChildState];
 			int nRightChildSubStates = numSubStates[rChildState];
-			// new double[nLeftChildSubStates][nRightChildSubStates][];
-			BinaryRule brule = new BinaryRule(parentState, lChildState,
+			int bSlot = tallyCache.binarySlot(parentState, lChildState,
 					rChildState);
-			double[][][] oldBScores = old_grammar.getBinaryScore(brule); // rule
-																			// score
-			if (oldBScores == null) {
-				// rule was not in the grammar
-				// parent.setIScores(iScores2);
-				// break;
-				oldBScores = new double[nLeftChildSubStates][nRightChildSubStates][nParentSubStates];
-				ArrayUtil.fill(oldBScores, 1.0);
-			}
-			double[][][] bcounts = binaryRuleCounter.getCount(brule);
-			if (bcounts == null)
-				bcounts = new double[nLeftChildSubStates][nRightChildSubStates][];
+			double[][][] oldBScores = (double[][][]) tallyCache.oldScores[bSlot];
+			double[][][] bcounts = (double[][][]) tallyCache.counts[bSlot];
 			scalingFactor = ScalingTools.calcScaleFactor(parent.getOScale()
 					+ leftChild.getIScale() + rightChild.getIScale()
 					- tree_scale);
 			// if (scalingFactor==0){
 			// System.out.println("p: "+parent.getOScale()+" l: "+leftChild.getIScale()+" r:"+rightChild.getIScale()+" t:"+tree_scale);
 			// }
+			double[] lcIScores = leftChild.getIScores();
+			double[] rcIScores = rightChild.getIScores();
 			for (short i = 0; i < nLeftChildSubStates; i++) {
-				double lcIS = leftChild.getIScore(i);
+				double lcIS = lcIScores[i];
 				if (lcIS == 0)
 					continue;
+				double[][] oldBScoresI = oldBScores[i];
+				double[][] bcountsI = bcounts[i];
 				for (short j = 0; j < nRightChildSubStates; j++) {
-					if (oldBScores[i][j] == null)
+					double[] rules = oldBScoresI[j];
+					if (rules == null)
 						continue;
-					double rcIS = rightChild.getIScore(j);
+					double rcIS = rcIScores[j];
 					if (rcIS == 0)
 						continue;
 					// allocate parent array
-					if (bcounts[i][j] == null)
-						bcounts[i][j] = new double[nParentSubStates];
+					if (bcountsI[j] == null)
+						bcountsI[j] = new double[nParentSubStates];
+					double[] counts = bcountsI[j];
 					for (short k = 0; k < nParentSubStates; k++) {
-						double pOS = parent.getOScore(k); // Parent outside
-															// score
+						double pOS = pOScores[k]; // Parent outside score
 						if (pOS == 0)
 							continue;
-						double rS = oldBScores[i][j][k];
+						double rS = rules[k];
 						if (rS == 0)
 							continue;
-						if (tree_score == 0)
-							tree_score = 1;
-						double logRuleCount = (rS * lcIS / tree_score) * rcIS
+						counts[k] += (rS * lcIS / tree_score) * rcIS
 								* scalingFactor * pOS;
-						/*
-						 * if (logRuleCount == 0) {
-						 * System.out.println("rS "+rS+", lcIS "
-						 * +lcIS+", rcIS "+rcIS+", tree_score "+tree_score+
-						 * ", scalingFactor "+scalingFactor+", pOS "+pOS);
-						 * System.out.println("Possibly underflow?"); //
-						 * logRuleCount = Double.MIN_VALUE; }
-						 */
-						bcounts[i][j][k] += logRuleCount;
 					}
 				}
 			}
-			binaryRuleCounter.setCount(brule, bcounts);
 			break;
 		default:
 			throw new Error("Malformed tree: more than two children");
@@ -1186,6 +1187,123 @@ public class Grammar implements java.io.Serializable {
 		}
 	}
 
+	/**
+	 * The rules tallyStateSetTree has seen, with their scores in the old
+	 * grammar and their count arrays in this one, so that the rule maps are
+	 * searched once per rule and E-step instead of once per tree node. The
+	 * entries are found through an open-addressed table on the packed states
+	 * of the rule.
+	 */
+	private static class TallyCache {
+		static final long EMPTY = -1;
+
+		final Grammar oldGrammar;
+		final UnaryCounterTable unaryCounter;
+		final BinaryCounterTable binaryCounter;
+		final Grammar grammar;
+		long[] keys = new long[1024];
+		int[] slots = new int[1024];
+		Object[] oldScores = new Object[256];
+		Object[] counts = new Object[256];
+		int size;
+
+		TallyCache(Grammar oldGrammar, Grammar grammar) {
+			this.oldGrammar = oldGrammar;
+			this.grammar = grammar;
+			this.unaryCounter = grammar.unaryRuleCounter;
+			this.binaryCounter = grammar.binaryRuleCounter;
+			Arrays.fill(keys, EMPTY);
+		}
+
+		boolean isFor(Grammar oldGrammar, Grammar grammar) {
+			return this.oldGrammar == oldGrammar
+					&& unaryCounter == grammar.unaryRuleCounter
+					&& binaryCounter == grammar.binaryRuleCounter;
+		}
+
+		int unarySlot(short pState, short cState) {
+			long key = (1L << 48) | ((long) pState << 16) | cState;
+			int slot = find(key);
+			if (slot >= 0)
+				return slot;
+			UnaryRule urule = new UnaryRule(pState, cState);
+			double[][] ucounts = unaryCounter.getCount(urule);
+			if (ucounts == null) {
+				ucounts = new double[grammar.numSubStates[cState]][];
+				unaryCounter.setCount(urule, ucounts);
+			}
+			return add(key, oldGrammar.getUnaryScore(urule), ucounts);
+		}
+
+		int binarySlot(short pState, short lState, short rState) {
+			long key = ((long) pState << 32) | ((long) lState << 16) | rState;
+			int slot = find(key);
+			if (slot >= 0)
+				return slot;
+			BinaryRule brule = new BinaryRule(pState, lState, rState);
+			double[][][] oldBScores = oldGrammar.getBinaryScore(brule);
+			if (oldBScores == null) {
+				// rule was not in the grammar
+				short[] numSubStates = grammar.numSubStates;
+				oldBScores = new double[numSubStates[lState]][numSubStates[rState]][numSubStates[pState]];
+				ArrayUtil.fill(oldBScores, 1.0);
+			}
+			double[][][] bcounts = binaryCounter.getCount(brule);
+			if (bcounts == null) {
+				bcounts = new double[grammar.numSubStates[lState]][grammar.numSubStates[rState]][];
+				binaryCounter.setCount(brule, bcounts);
+			}
+			return add(key, oldBScores, bcounts);
+		}
+
+		private int find(long key) {
+			int mask = keys.length - 1;
+			int h = (int) (key ^ (key >>> 29)) * 0x9E3779B9;
+			for (int i = (h ^ (h >>> 16)) & mask;; i = (i + 1) & mask) {
+				if (keys[i] == key)
+					return slots[i];
+				if (keys[i] == EMPTY)
+					return -1;
+			}
+		}
+
+		private int add(long key, Object scores, Object ruleCounts) {
+			if (size == oldScores.length) {
+				Object[] newScores = new Object[2 * size];
+				System.arraycopy(oldScores, 0, newScores, 0, size);
+				oldScores = newScores;
+				Object[] newCounts = new Object[2 * size];
+				System.arraycopy(counts, 0, newCounts, 0, size);
+				counts = newCounts;
+			}
+			oldScores[size] = scores;
+			counts[size] = ruleCounts;
+			if (2 * (size + 1) > keys.length) {
+				long[] oldKeys = keys;
+				int[] oldSlots = slots;
+				keys = new long[2 * oldKeys.length];
+				slots = new int[2 * oldKeys.length];
+				Arrays.fill(keys, EMPTY);
+				for (int i = 0; i < oldKeys.length; i++) {
+					if (oldKeys[i] != EMPTY)
+						insert(oldKeys[i], oldSlots[i]);
+				}
+			}
+			insert(key, size);
+			return size++;
+		}
+
+		private void insert(long key, int slot) {
+			int mask = keys.length - 1;
+			int h = (int) (key ^ (key >>> 29)) * 0x9E3779B9;
+			int i = (h ^ (h >>> 16)) & mask;
+			while (keys[i] != EMPTY)
+				i = (i + 1) & mask;
+			keys[i] = key;
+			slots[i] = slot;
+		}
+	}
+
 	/**
 	 * Creates unary or binary rules for the tree
 	 * @param tree
@@ -1527,10 +1645,29 @@ public class Grammar implements java.io.Serializable {
 	public void computePairsOfUnaries() {
 		// closedSumRulesWithParent = closedViterbiRulesWithParent =
 		// unaryRulesWithParent;
+		// Only the child states reachable from the parent through one or two
+		// unaries get a rule. The rules added for a parent take part in the
+		// chains of its later children and of later parents, so the states
+		// are still visited in order, and a new rule parent->child makes the
+		// children of child reachable.
+		boolean[] reachable = new boolean[numStates];
+		UnaryRule[] ruleFromState = new UnaryRule[numStates];
 		for (short parentState = 0; parentState < numStates; parentState++) {
+			Arrays.fill(reachable, false);
+			for (UnaryRule pr : unaryRulesWithParent[parentState]) {
+				reachable[pr.childState] = true;
+				for (UnaryRule cr : unaryRulesWithParent[pr.childState]) {
+					reachable[cr.childState] = true;
+				}
+			}
 			for (short childState = 0; childState < numStates; childState++) {
-				if (parentState == childState)
+				if (parentState == childState || !reachable[childState])
 					continue;
+				// the rules state->childState by state
+				for (UnaryRule cr : unaryRulesWithC[childState]) {
+					ruleFromState[cr.parentState] = cr;
+				}
+				int nParentRules = unaryRulesWithParent[parentState].size();
 				int nParentSubStates = numSubStates[parentState];
 				int nChildSubStates = numSubStates[childState];
 				UnaryRule resultRsum = new UnaryRule(parentState, childState);
@@ -1566,11 +1703,8 @@ public class Grammar implements java.io.Serializable {
 							maxSumScore = total;
 						}
 					} else {
-						for (int j = 0; j < unaryRulesWithC[childState].size(); j++) {
-							UnaryRule cr = unaryRulesWithC[childState]
-									.get(j);
-							if (state != cr.getParentState())
-								continue;
+						UnaryRule cr = ruleFromState[state];
+						if (cr != null) {
 							int nMySubStates = numSubStates[state];
 							double total = 0;
 							for (int np = 0; np < nParentSubStates; np++) {
@@ -1599,9 +1733,17 @@ public class Grammar implements java.io.Serializable {
 						}
 					}
 				}
+				for (UnaryRule cr : unaryRulesWithC[childState]) {
+					ruleFromState[cr.parentState] = null;
+				}
 				if (maxSumScore > -1) {
 					resultRsum.setScores2(scoresSum);
 					addUnary(resultRsum);
+					if (unaryRulesWithParent[parentState].size() > nParentRules) {
+						for (UnaryRule cr : unaryRulesWithParent[childState]) {
+							reachable[cr.childState] = true;
+						}
+					}
 					closedSumRulesWithParent[parentState].add(resultRsum);
 					closedSumRulesWithChild[childState].add(resultRsum);
 					closedSumPaths[parentState][childState] = bestSumIntermed;
@@ -3121,6 +3263,14 @@ public class Grammar implements java.io.Serializable {
 		return W;
 	}
 
+	private static void addMatrix(double[][] sum, double[][] matrix) {
+		for (int i = 0; i < sum.length; i++) {
+			for (int j = 0; j < sum[i].length; j++) {
+				sum[i][j] += matrix[i][j];
+			}
+		}
+	}
+
 	public void computeProperClosures() {
 		int[][] map = new int[numStates][];
 		int index = 0;
@@ -3131,7 +3281,9 @@ public class Grammar implements java.io.Serializable {
 			}
 		}
 
-		double[][][] sumClosureMatrix = new double[10][index][index];
+		// the scores of the paths of the previous and the current length
+		double[][] previousMatrix = new double[index][index];
+		double[][] sumClosureMatrix = new double[index][index];
 		// initialize
 		for (int parentState = 0; parentState < numStates; parentState++) {
 			for (int i = 0; i < unaryRulesWithParent[parentState].size(); i++) {
@@ -3142,13 +3294,19 @@ public class Grammar implements java.io.Serializable {
 					if (scores[childSubState] == null)
 						continue;
 					for (int parentSubState = 0; parentSubState < numSubStates[parentState]; parentSubState++) {
-						sumClosureMatrix[0][map[parentState][parentSubState]][map[childState][childSubState]] = scores[childSubState][parentSubState];
+						sumClosureMatrix[map[parentState][parentSubState]][map[childState][childSubState]] = scores[childSubState][parentSubState];
 					}
 				}
 			}
 		}
+		double[][] sumClosureScores = new double[index][index];
+		addMatrix(sumClosureScores, sumClosureMatrix);
 		// now loop until convergence = length 10 for now
 		for (int length = 1; length < 10; length++) {
+			double[][] tmp = previousMatrix;
+			previousMatrix = sumClosureMatrix;
+			sumClosureMatrix = tmp;
+			ArrayUtil.fill(sumClosureMatrix, 0);
 			for (short interState = 0; interState < numStates; interState++) {
 				for (int i = 0; i < unaryRulesWithParent[interState].size(); i++) {
 					UnaryRule rule = unaryRulesWithParent[interState].get(i);
@@ -3165,25 +3323,17 @@ public class Grammar implements java.io.Serializable {
 								if (scores[endSubState] == null)
 									continue;
 								for (int interSubState = 0; interSubState < numSubStates[interState]; interSubState++) {
-									ruleScore += sumClosureMatrix[length - 1][map[startState][startSubState]][map[interState][interSubState]]
+									ruleScore += previousMatrix[map[startState][startSubState]][map[interState][interSubState]]
 											* scores[endSubState][interSubState];
 								}
-								sumClosureMatrix[length][map[startState][startSubState]][map[endState][endSubState]] += ruleScore;
+								sumClosureMatrix[map[startState][startSubState]][map[endState][endSubState]] += ruleScore;
 							}
 						}
 					}
 				}
 			}
-		}
-
-		// now sum up the paths of different lengths
-		double[][] sumClosureScores = new double[index][index];
-		for (int length = 0; length < 10; length++) {
-			for (int startState = 0; startState < index; startState++) {
-				for (int endState = 0; endState < index; endState++) {
-					sumClosureScores[startState][endState] += sumClosureMatrix[length][startState][endState];
-				}
-			}
+			// sum up the paths of different lengths
+			addMatrix(sumClosureScores, sumClosureMatrix);
 		}
 
 		// reset the lists of unaries
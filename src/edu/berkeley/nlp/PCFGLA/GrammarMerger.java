@@ -467,6 +467,7 @@ public class GrammarMerger {
 	public static double[][][] computeDeltas(Grammar grammar, Lexicon lexicon,
 			double[][] mergeWeights, StateSetTreeList trainStateSetTrees) {
 		ArrayParser parser = new ArrayParser(grammar, lexicon);
+		parser.setReuseScoreArrays(GrammarTrainer.REUSE_SCORE_ARRAYS);
 		double[][][] deltas = new double[grammar.numSubStates.length][mergeWeights[0].length][mergeWeights[0].length];
 		boolean noSmoothing = false, debugOutput = false;
 		for (Tree<StateSet> stateSetTree : trainStateSetTrees) {
@@ -492,6 +493,7 @@ public class GrammarMerger {
 				.max(grammar.numSubStates)];
 		double trainingLikelihood = 0;
 		ArrayParser parser = new ArrayParser(grammar, lexicon);
+		parser.setReuseScoreArrays(GrammarTrainer.REUSE_SCORE_ARRAYS);
 		boolean noSmoothing = false, debugOutput = false;
 		int n = 0;
 		for (Tree<StateSet> stateSetTree : trainStateSetTrees) {
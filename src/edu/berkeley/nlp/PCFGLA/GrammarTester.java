@@ -5,18 +5,21 @@ import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.zip.GZIPInputStream;
 
 import edu.berkeley.nlp.PCFGLA.Corpus.TreeBankType;
@@ -140,6 +143,9 @@ public class GrammarTester implements Callable {
 		@Option(name = "-allSubstatesAllowed", usage = "When using constraints whether to prune on the substate level")
 		public boolean allSubstatesAllowed = false;
 
+		@Option(name = "-memoryBudget", usage = "MB of grammars loaded at the same time with -testAll (Default: 3/4 of the heap)")
+		public int memoryBudget = 0;
+
 		@Option(name = "-printAllF1", usage = "Print all F1 scores (when using testAll)")
 		public boolean printAllF1 = false;
 
@@ -150,7 +156,13 @@ public class GrammarTester implements Callable {
 	List<Tree<String>> testTrees;
 	boolean[][][][][] cons;
 	String fileName;
-	int maxSentenceLength;
+	// -testAll: the sentences of testTrees, the memory budget in MB shared by
+	// all testers and how this grammar did
+	List<List<String>> evalSentences;
+	Semaphore memory;
+	int estimatedMB;
+	long parseTime;
+	double f1;
 
 	public static void main(String[] args) {
 		OptionParser optParser = new OptionParser(Options.class);
@@ -206,14 +218,30 @@ public class GrammarTester implements Callable {
 		if (opts.cons != null)
 			cons = ParserConstrainer.loadData(opts.cons);
 
-		Corpus corpus = new Corpus(path, opts.treebank, 1.0, !trainTestSet);
+		// the test trees are read while they are parsed, unless the treebank
+		// can only be loaded as a whole or all of them are needed at once
+		Iterator<Tree<String>> testTreeStream = null;
+		if (!trainTestSet && !opts.testAll && opts.nThreads <= 1
+				&& !opts.filterTrees && !"plain".equals(opts.parser)) {
+			try {
+				testTreeStream = Corpus.iterateTestTrees(path, opts.treebank,
+						finalTestSet, false);
+				if (testTreeStream != null)
+					System.out.println("Reading the test trees while parsing.");
+			} catch (IOException e) {
+				throw new Error(e.getMessage(), e);
+			}
+		}
 		List<Tree<String>> testTrees = null;
-		if (devTestSet)
-			testTrees = corpus.getDevTestingTrees();
-		if (finalTestSet)
-			testTrees = corpus.getFinalTestingTrees();
-		if (trainTestSet)
-			testTrees = corpus.getTrainTrees();
+		if (testTreeStream == null) {
+			Corpus corpus = new Corpus(path, opts.treebank, 1.0, !trainTestSet);
+			if (devTestSet)
+				testTrees = corpus.getDevTestingTrees();
+			if (finalTestSet)
+				testTrees = corpus.getFinalTestingTrees();
+			if (trainTestSet)
+				testTrees = corpus.getTrainTrees();
+		}
 
 		// for (Tree<String> tree : testTrees){
 		// System.out.println(tree);
@@ -221,7 +249,8 @@ public class GrammarTester implements Callable {
 
 		if (opts.lowercase) {
 			System.out.println("Lowercasing the treebank.");
-			Corpus.lowercaseWords(testTrees);
+			if (testTrees != null)
+				Corpus.lowercaseWords(testTrees);
 		}
 
 		String inFileName = (opts.testAll) ? opts.filePath + "/"
@@ -247,12 +276,12 @@ public class GrammarTester implements Callable {
 		boolean useGoldPOS = opts.useGoldPOS;
 		ConstrainedArrayParser parser = null;
 
-		EnglishPennTreebankParseEvaluator.LabeledConstituentEval<String> eval = new EnglishPennTreebankParseEvaluator.LabeledConstituentEval<String>(
+		EnglishPennTreebankParseEvaluator.PackedLabeledConstituentEval<String> eval = new EnglishPennTreebankParseEvaluator.PackedLabeledConstituentEval<String>(
 				new HashSet<String>(Arrays.asList(new String[] { "ROOT",
 						"PSEUDO" })),
 				new HashSet<String>(Arrays.asList(new String[] { "''", "``",
 						".", ":", "," })));
-		EnglishPennTreebankParseEvaluator.LabeledConstituentEval<String> tmpEval = null;
+		EnglishPennTreebankParseEvaluator.PackedLabeledConstituentEval<String> tmpEval = null;
 		System.out
 				.println("The computed F1,LP,LR scores are just a rough guide. They are typically 0.1-0.2 lower than the official EVALB scores.");
 
@@ -337,7 +366,7 @@ public class GrammarTester implements Callable {
 							opts.k, opts.unaryPenalty, finalLevel,
 							viterbiParse, false, false, opts.accurate,
 							doVariational, useGoldPOS, true);
-					tmpEval = new EnglishPennTreebankParseEvaluator.LabeledConstituentEval<String>(
+					tmpEval = new EnglishPennTreebankParseEvaluator.PackedLabeledConstituentEval<String>(
 							Collections.singleton("ROOT"), new HashSet<String>(
 									Arrays.asList(new String[] { "''", "``",
 											".", ":", "," })));
@@ -465,7 +494,12 @@ public class GrammarTester implements Callable {
 			int i = 0;
 			int totalGoldPruned = 0;
 			int totalPruned = 0;
-			for (Tree<String> testTree : testTrees) {
+			Iterator<Tree<String>> trees = (testTrees != null) ? testTrees
+					.iterator() : testTreeStream;
+			while (trees.hasNext()) {
+				Tree<String> testTree = trees.next();
+				if (opts.lowercase && testTrees == null)
+					Corpus.lowercaseWords(Collections.singletonList(testTree));
 				List<String> testSentence = testTree.getYield();
 				int sentenceLength = testSentence.size();
 				if (sentenceLength > maxSentenceLength) {
@@ -625,42 +659,49 @@ public class GrammarTester implements Callable {
 			double bestF1 = -1;
 			String bestGrammar = null;
 
+			// the sentences are extracted once and shared by all grammars
+			List<Tree<String>> evalTrees = new ArrayList<Tree<String>>();
+			List<List<String>> evalSentences = new ArrayList<List<String>>();
+			for (Tree<String> testTree : testTrees) {
+				List<String> testSentence = testTree.getYield();
+				if (testSentence.size() > maxSentenceLength)
+					continue;
+				evalTrees.add(testTree);
+				evalSentences.add(testSentence);
+			}
+
+			// all grammars are queued at once, a grammar is only loaded when
+			// its estimated size fits into what is left of the budget
+			int budget = (opts.memoryBudget > 0) ? opts.memoryBudget
+					: (int) (Runtime.getRuntime().maxMemory() * 3 / 4 >> 20);
+			Semaphore memory = new Semaphore(budget, true);
+			System.out.println("Testing " + fileList.length
+					+ " grammars with " + nProcess + " threads and a budget of "
+					+ budget + " MB.");
 			ExecutorService pool = Executors.newFixedThreadPool(nProcess);
-			Future[] submits = new Future[nProcess];
-
-			for (int f = 0; f < fileList.length; f += nProcess) {
-
-				GrammarTester thisThreadConstrainer = null;
-				for (int i = 0; i < nProcess; i++) {
-					String fName = (f + i < fileList.length) ? fileList[f + i]
-							.getName() : fileList[f].getName();
-					String thisGrammar = opts.filePath + "/" + fName;
-					GrammarTester tester = new GrammarTester(thisGrammar,
-							testTrees, maxSentenceLength, cons);
-					submits[i] = pool.submit(tester);
-				}
+			GrammarTester[] testers = new GrammarTester[fileList.length];
+			Future[] submits = new Future[fileList.length];
+			for (int f = 0; f < fileList.length; f++) {
+				String thisGrammar = opts.filePath + "/"
+						+ fileList[f].getName();
+				testers[f] = new GrammarTester(thisGrammar, evalTrees,
+						evalSentences, cons, memory, budget);
+				submits[f] = pool.submit(testers[f]);
+			}
 
-				while (true) {
-					boolean done = true;
-					for (Future task : submits) {
-						done &= task.isDone();
-					}
-					if (done)
-						break;
-				}
+			for (int f = 0; f < fileList.length; f++) {
 				try {
-					for (int i = 0; i < nProcess; i++) {
-						Pair<EnglishPennTreebankParseEvaluator.LabeledConstituentEval<String>, String> res = (Pair<EnglishPennTreebankParseEvaluator.LabeledConstituentEval<String>, String>) submits[i]
-								.get();
-						System.out.print(res.getSecond() + "\t");
-						double thisF1 = res.getFirst().display(true);
-						if (opts.printAllF1)
-							System.out.println(res.getSecond() + " had F1 "
-									+ thisF1);
-						if (thisF1 > bestF1) {
-							bestF1 = thisF1;
-							bestGrammar = res.getSecond();
-						}
+					Pair<EnglishPennTreebankParseEvaluator.PackedLabeledConstituentEval<String>, String> res = (Pair<EnglishPennTreebankParseEvaluator.PackedLabeledConstituentEval<String>, String>) submits[f]
+							.get();
+					System.out.print(res.getSecond() + "\t");
+					double thisF1 = res.getFirst().display(true);
+					testers[f].f1 = thisF1;
+					if (opts.printAllF1)
+						System.out.println(res.getSecond() + " had F1 "
+								+ thisF1);
+					if (thisF1 > bestF1) {
+						bestF1 = thisF1;
+						bestGrammar = res.getSecond();
 					}
 				} catch (ExecutionException e) {
 					e.printStackTrace();
@@ -668,6 +709,17 @@ public class GrammarTester implements Callable {
 					e.printStackTrace();
 				}
 			}
+
+			System.out.println();
+			System.out.printf("%-40s %8s %10s %8s\n", "grammar", "F1",
+					"sent/sec", "MB");
+			for (GrammarTester tester : testers) {
+				System.out.printf("%-40s %8.2f %10.2f %8d\n", new File(
+						tester.fileName).getName(), 100 * tester.f1,
+						tester.evalSentences.size() / (tester.parseTime / 1e9),
+						tester.estimatedMB);
+			}
+			System.out.println();
 			System.out.println("The best F1 was: " + bestF1);
 			System.out.println("The best grammar was: " + bestGrammar);
 			File finalGrammar = new File(bestGrammar);
@@ -679,12 +731,34 @@ public class GrammarTester implements Callable {
 			System.exit(0);
 	}
 
-	GrammarTester(String fName, List<Tree<String>> tT, int maxL,
-			boolean[][][][][] c) {
+	GrammarTester(String fName, List<Tree<String>> tT,
+			List<List<String>> sentences, boolean[][][][][] c,
+			Semaphore memory, int budget) {
 		testTrees = tT;
+		evalSentences = sentences;
 		cons = c;
 		fileName = fName;
-		maxSentenceLength = maxL;
+		this.memory = memory;
+		// the parsed grammar takes roughly twice its uncompressed size
+		estimatedMB = (int) Math.min(
+				2 * (uncompressedSize(fName) >> 20) + 1, budget);
+	}
+
+	/**
+	 * The size of the uncompressed contents of a gzip file, from its trailer.
+	 */
+	static long uncompressedSize(String fileName) {
+		try {
+			RandomAccessFile file = new RandomAccessFile(fileName, "r");
+			file.seek(file.length() - 4);
+			long size = (file.read() & 0xff) | (file.read() & 0xff) << 8
+					| (file.read() & 0xff) << 16
+					| (long) (file.read() & 0xff) << 24;
+			file.close();
+			return size;
+		} catch (IOException e) {
+			return new File(fileName).length();
+		}
 	}
 
 	/**
@@ -811,9 +885,21 @@ public class GrammarTester implements Callable {
 		return hasTrue;
 	}
 
-	public Pair<EnglishPennTreebankParseEvaluator.LabeledConstituentEval<String>, String> call()
+	public Pair<EnglishPennTreebankParseEvaluator.PackedLabeledConstituentEval<String>, String> call()
 			throws Exception {
-		EnglishPennTreebankParseEvaluator.LabeledConstituentEval<String> eval = new EnglishPennTreebankParseEvaluator.LabeledConstituentEval<String>(
+		memory.acquire(estimatedMB);
+		try {
+			return evaluateGrammar();
+		} finally {
+			memory.release(estimatedMB);
+		}
+	}
+
+	/**
+	 * Parses the shared test sentences with the grammar in fileName.
+	 */
+	Pair<EnglishPennTreebankParseEvaluator.PackedLabeledConstituentEval<String>, String> evaluateGrammar() {
+		EnglishPennTreebankParseEvaluator.PackedLabeledConstituentEval<String> eval = new EnglishPennTreebankParseEvaluator.PackedLabeledConstituentEval<String>(
 				Collections.singleton("ROOT"),
 				new HashSet<String>(Arrays.asList(new String[] { "''", "``",
 						".", ":", "," })));
@@ -848,23 +934,18 @@ public class GrammarTester implements Callable {
 			parser = new ConstrainedTwoChartsParser(grammar, lexicon,
 					spanPredictor);
 
-		int i = 0;
-		for (Tree<String> testTree : testTrees) {
-			List<String> testSentence = testTree.getYield();
-			int sentenceLength = testSentence.size();
-			if (sentenceLength > maxSentenceLength)
-				continue;
-
+		long start = System.nanoTime();
+		for (int i = 0; i < testTrees.size(); i++) {
 			Tree<String> parsedTree = null;
 			boolean[][][][] con = (cons == null) ? null : cons[i];
-			parsedTree = parser
-					.getBestConstrainedParse(testSentence, null, con);
+			parsedTree = parser.getBestConstrainedParse(evalSentences.get(i),
+					null, con);
 			parsedTree = TreeAnnotations.unAnnotateTree(parsedTree, false);
 
-			eval.evaluate(parsedTree, testTree, false);
-			i++;
+			eval.evaluate(parsedTree, testTrees.get(i), false);
 		}
-		return new Pair<EnglishPennTreebankParseEvaluator.LabeledConstituentEval<String>, String>(
+		parseTime = System.nanoTime() - start;
+		return new Pair<EnglishPennTreebankParseEvaluator.PackedLabeledConstituentEval<String>, String>(
 				eval, fileName);
 
 	}
@@ -21,6 +21,9 @@ import edu.berkeley.nlp.util.Numberer;
 public class GrammarTrainer {
 
 	public static boolean VERBOSE = false;
+	// whether the E-step parsers take their score arrays from a pool, see
+	// ArrayParser.setReuseScoreArrays
+	public static boolean REUSE_SCORE_ARRAYS = false;
 	public static int HORIZONTAL_MARKOVIZATION = 1;
 	public static int VERTICAL_MARKOVIZATION = 2;
 	public static Random RANDOM = new Random(0);
@@ -140,6 +143,9 @@ public class GrammarTrainer {
 
 		@Option(name = "-keepFunctionLabels", usage = "Retain predicted function labels. Model must have been trained with function labels. (Default: false)")
 		public boolean keepFunctionLabels = false;
+
+		@Option(name = "-reuseScoreArrays", usage = "Reuse the score arrays of the trees in the E-step instead of allocating new ones (Default: false)")
+		public boolean reuseScoreArrays = false;
 	}
 	
 	protected static Options parseOptions(String[] args) {
@@ -166,6 +172,7 @@ public class GrammarTrainer {
 		System.out.println("Using a randomness value of " + opts.randomization);
 
 		VERBOSE = opts.verbose;
+		REUSE_SCORE_ARRAYS = opts.reuseScoreArrays;
 		RANDOM = new Random(opts.randSeed);
 		System.out.println("Random number generator seeded at " + opts.randSeed
 				+ ".");
@@ -666,8 +673,26 @@ public class GrammarTrainer {
 			Lexicon previousLexicon, Grammar grammar, Lexicon lexicon,
 			StateSetTreeList trainStateSetTrees, boolean updateOnlyLexicon,
 			int unkThreshold) {
+		double trainingLikelihood = tallyTrees(previousGrammar,
+				previousLexicon, grammar, lexicon, trainStateSetTrees,
+				updateOnlyLexicon, unkThreshold);
+		lexicon.tieRareWordStats(unkThreshold);
+		return trainingLikelihood;
+	}
+
+	/**
+	 * The E-step without the final tieRareWordStats, which needs the counts
+	 * of all the training trees: adds the expected counts of the trees under
+	 * previousGrammar and previousLexicon to grammar and lexicon and returns
+	 * the log likelihood of the trees.
+	 */
+	public static double tallyTrees(Grammar previousGrammar,
+			Lexicon previousLexicon, Grammar grammar, Lexicon lexicon,
+			StateSetTreeList trainStateSetTrees, boolean updateOnlyLexicon,
+			int unkThreshold) {
 		boolean secondHalf = false;
 		ArrayParser parser = new ArrayParser(previousGrammar, previousLexicon);
+		parser.setReuseScoreArrays(REUSE_SCORE_ARRAYS);
 		double trainingLikelihood = 0;
 		int n = 0;
 		int nTrees = trainStateSetTrees.size();
@@ -696,7 +721,6 @@ public class GrammarTrainer {
 											// sentences that are unparsable
 			}
 		}
-		lexicon.tieRareWordStats(unkThreshold);
 		return trainingLikelihood;
 	}
 
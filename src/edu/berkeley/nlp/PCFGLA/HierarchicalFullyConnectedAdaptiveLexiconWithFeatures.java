@@ -308,6 +308,12 @@ public class HierarchicalFullyConnectedAdaptiveLexiconWithFeatures extends
 
 	// StateSetWithFeatures lastStateSet;
 
+	@Override
+	public double[] score(StateSet stateSet, short tag, boolean noSmoothing,
+			boolean isSignature, double[] scores) {
+		return score(stateSet, tag, noSmoothing, isSignature);
+	}
+
 	@Override
 	public double[] score(StateSet stateSet, short tag, boolean noSmoothing,
 			boolean isSignature) {
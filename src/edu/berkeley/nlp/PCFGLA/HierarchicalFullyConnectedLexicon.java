@@ -149,6 +149,12 @@ public class HierarchicalFullyConnectedLexicon extends HierarchicalLexicon {
 		return res;
 	}
 
+	@Override
+	public double[] score(StateSet stateSet, short tag, boolean noSmoothing,
+			boolean isSignature, double[] scores) {
+		return score(stateSet, tag, noSmoothing, isSignature);
+	}
+
 	@Override
 	public double[] score(StateSet stateSet, short tag, boolean noSmoothing,
 			boolean isSignature) {
@@ -0,0 +1,186 @@
+package edu.berkeley.nlp.PCFGLA;
+
+/**
+ * The hyperedges of a k-best chart, stored column by column in parallel
+ * arrays and referred to by their index, so that adding an edge allocates
+ * nothing once the arrays are large enough. The columns are those of
+ * HyperEdge, except that a unary edge keeps its child in lChildState and
+ * lChildBest. The table is meant to be cleared and reused for every sentence.
+ */
+public class HyperEdgeTable {
+	int[] parentState, lChildState, rChildState;
+	int[] start, split, end;
+	int[] parentBest, lChildBest, rChildBest;
+	double[] score, ruleScore;
+	boolean[] isUnary, alreadyExpanded;
+	int size;
+
+	public HyperEdgeTable() {
+		this(1024);
+	}
+
+	public HyperEdgeTable(int capacity) {
+		allocate(Math.max(capacity, 16));
+	}
+
+	private void allocate(int capacity) {
+		parentState = grow(parentState, capacity);
+		lChildState = grow(lChildState, capacity);
+		rChildState = grow(rChildState, capacity);
+		start = grow(start, capacity);
+		split = grow(split, capacity);
+		end = grow(end, capacity);
+		parentBest = grow(parentBest, capacity);
+		lChildBest = grow(lChildBest, capacity);
+		rChildBest = grow(rChildBest, capacity);
+		score = grow(score, capacity);
+		ruleScore = grow(ruleScore, capacity);
+		isUnary = grow(isUnary, capacity);
+		alreadyExpanded = grow(alreadyExpanded, capacity);
+	}
+
+	private int[] grow(int[] array, int capacity) {
+		int[] newArray = new int[capacity];
+		if (array != null)
+			System.arraycopy(array, 0, newArray, 0, size);
+		return newArray;
+	}
+
+	private double[] grow(double[] array, int capacity) {
+		double[] newArray = new double[capacity];
+		if (array != null)
+			System.arraycopy(array, 0, newArray, 0, size);
+		return newArray;
+	}
+
+	private boolean[] grow(boolean[] array, int capacity) {
+		boolean[] newArray = new boolean[capacity];
+		if (array != null)
+			System.arraycopy(array, 0, newArray, 0, size);
+		return newArray;
+	}
+
+	private int newEdge() {
+		if (size == score.length)
+			allocate(2 * size);
+		alreadyExpanded[size] = false;
+		return size++;
+	}
+
+	/** Adds a binary edge (or a lexical one, with both children -1). */
+	public int addBinary(int pState, int lState, int rState, int pBest,
+			int lBest, int rBest, int begin, int mid, int finale, double cost,
+			double ruleCost) {
+		int e = newEdge();
+		parentState[e] = pState;
+		lChildState[e] = lState;
+		rChildState[e] = rState;
+		parentBest[e] = pBest;
+		lChildBest[e] = lBest;
+		rChildBest[e] = rBest;
+		start[e] = begin;
+		split[e] = mid;
+		end[e] = finale;
+		score[e] = cost;
+		ruleScore[e] = ruleCost;
+		isUnary[e] = false;
+		return e;
+	}
+
+	public int addUnary(int pState, int cState, int pBest, int cBest,
+			int begin, int finale, double cost, double ruleCost) {
+		int e = newEdge();
+		parentState[e] = pState;
+		lChildState[e] = cState;
+		rChildState[e] = -1;
+		parentBest[e] = pBest;
+		lChildBest[e] = cBest;
+		rChildBest[e] = 0;
+		start[e] = begin;
+		split[e] = 0;
+		end[e] = finale;
+		score[e] = cost;
+		ruleScore[e] = ruleCost;
+		isUnary[e] = true;
+		return e;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Drops the edges from first on, except for edge keep (if it is not -1),
+	 * which becomes edge first.
+	 */
+	public void keepOnly(int first, int keep) {
+		if (keep < 0) {
+			size = first;
+			return;
+		}
+		if (keep != first) {
+			parentState[first] = parentState[keep];
+			lChildState[first] = lChildState[keep];
+			rChildState[first] = rChildState[keep];
+			parentBest[first] = parentBest[keep];
+			lChildBest[first] = lChildBest[keep];
+			rChildBest[first] = rChildBest[keep];
+			start[first] = start[keep];
+			split[first] = split[keep];
+			end[first] = end[keep];
+			score[first] = score[keep];
+			ruleScore[first] = ruleScore[keep];
+			isUnary[first] = isUnary[keep];
+			alreadyExpanded[first] = alreadyExpanded[keep];
+		}
+		size = first + 1;
+	}
+
+	/**
+	 * The score that a priority queue of the edges first..first+n-1, added in
+	 * this order, returns first: the first of the highest scores.
+	 */
+	public double bestScore(int first, int n) {
+		if (n == 0)
+			return Double.NEGATIVE_INFINITY;
+		double best = score[first];
+		for (int e = first + 1; e < first + n; e++) {
+			if (score[e] > best)
+				best = score[e];
+		}
+		return best;
+	}
+
+	/** HyperEdge.differsInPOSatMost for edges a and b of the same item. */
+	public boolean differsInPOSatMost(int a, int b, boolean[] grammarTags) {
+		if (split[a] != split[b])
+			return false;
+		if (isUnary[a]) {
+			if (lChildBest[a] == lChildBest[b]
+					&& lChildState[b] == lChildState[a])
+				return true;
+		} else {
+			if (end[a] - split[a] == 1 && lChildState[a] == lChildState[b]
+					&& lChildBest[a] == lChildBest[b]
+					&& !grammarTags[rChildState[a]]
+					&& !grammarTags[rChildState[b]])
+				return true;
+			if (split[a] - start[a] == 1 && rChildState[a] == rChildState[b]
+					&& rChildBest[a] == rChildBest[b])
+				return true;
+			if (lChildState[a] == lChildState[b]
+					&& rChildState[a] == rChildState[b]
+					&& rChildBest[a] == rChildBest[b]
+					&& lChildBest[a] == lChildBest[b]
+					&& !grammarTags[lChildState[a]]
+					&& !grammarTags[lChildState[b]])
+				return true;
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,177 @@
+package edu.berkeley.nlp.PCFGLA;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.berkeley.nlp.syntax.Tree;
+import edu.berkeley.nlp.util.Numberer;
+
+/**
+ * Parses the sentences of the input file (one tokenized sentence per line)
+ * into k-best lists with CoarseToFineNBestParser for k = 1, 10, 50 and 100,
+ * or the given values of k, and prints the mean time per sentence.
+ * <p/>
+ * With -lists prefix, the k-best lists for k are also checked against the
+ * ones in the file prefix.k, and the number of sentences whose lists differ
+ * is printed. If the file does not exist yet, the lists are written to it.
+ * The files have the format of BerkeleyParser -kbest k -modelScore -binarize,
+ * so for k > 1 the reference lists can also come from an older build of the
+ * parser.
+ *
+ * Usage: KBestBenchmark grammarFile inputFile [-lists prefix] [k ...]
+ */
+public class KBestBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println("Usage: KBestBenchmark grammarFile inputFile "
+					+ "[-lists prefix] [k ...]");
+			System.exit(2);
+		}
+		int firstK = 2;
+		String listPrefix = null;
+		if (args.length > 3 && args[2].equals("-lists")) {
+			listPrefix = args[3];
+			firstK = 4;
+		}
+		int[] ks = { 1, 10, 50, 100 };
+		if (args.length > firstK) {
+			ks = new int[args.length - firstK];
+			for (int i = firstK; i < args.length; i++) {
+				ks[i - firstK] = Integer.parseInt(args[i]);
+			}
+		}
+
+		ParserData pData = ParserData.Load(args[0]);
+		if (pData == null) {
+			System.out.println("Failed to load grammar from file " + args[0]
+					+ ".");
+			System.exit(1);
+		}
+		Numberer.setNumberers(pData.getNumbs());
+
+		List<List<String>> sentences = new ArrayList<List<String>>();
+		BufferedReader input = new BufferedReader(new InputStreamReader(
+				new FileInputStream(args[1]), "UTF-8"));
+		String line;
+		while ((line = input.readLine()) != null) {
+			line = line.trim();
+			if (line.length() > 0)
+				sentences.add(Arrays.asList(line.split("\\s+")));
+		}
+		input.close();
+
+		for (int k : ks) {
+			CoarseToFineNBestParser parser = new CoarseToFineNBestParser(pData
+					.getGrammar(), pData.getLexicon(), k, 1.0, -1, false,
+					false, false, false, false, false, true);
+			parser.binarization = pData.getBinarization();
+
+			// warm up
+			for (int i = 0; i < Math.min(2, sentences.size()); i++) {
+				parser.getKBestConstrainedParses(sentences.get(i), null, k);
+			}
+			long time = 0;
+			List<List<String>> lists = new ArrayList<List<String>>();
+			for (List<String> sentence : sentences) {
+				long start = System.nanoTime();
+				List<Tree<String>> trees = parser.getKBestConstrainedParses(
+						sentence, null, k);
+				time += System.nanoTime() - start;
+				lists.add(kBestList(parser, trees));
+			}
+			double mean = time / 1e6 / sentences.size();
+			String result = "";
+			if (listPrefix != null) {
+				File listFile = new File(listPrefix + "." + k);
+				if (listFile.exists()) {
+					List<List<String>> reference = readLists(listFile);
+					int nMismatches = Math.abs(reference.size()
+							- lists.size());
+					for (int i = 0; i < Math.min(reference.size(), lists
+							.size()); i++) {
+						if (!reference.get(i).equals(lists.get(i)))
+							nMismatches++;
+					}
+					result = "   " + nMismatches + " different lists";
+				} else {
+					writeLists(listFile, lists);
+					result = "   wrote " + listFile;
+				}
+			}
+			System.out.printf("k=%-4d %8.2f ms per sentence%s\n", k, mean,
+					result);
+		}
+	}
+
+	/**
+	 * The lines BerkeleyParser -kbest k -modelScore -binarize writes for the
+	 * k-best trees of a sentence: each tree preceded by its max-rule score.
+	 */
+	static List<String> kBestList(CoarseToFineNBestParser parser,
+			List<Tree<String>> trees) {
+		if (trees.size() == 0)
+			trees.add(new Tree<String>("ROOT"));
+		List<String> list = new ArrayList<String>();
+		for (Tree<String> tree : trees) {
+			if (tree.getChildren().isEmpty()) {
+				list.add(String.format("%.8f", Double.NEGATIVE_INFINITY)
+						+ "\t(())");
+				continue;
+			}
+			double score = parser.getModelScore(tree);
+			String treeString = tree.getChildren().get(0).toString();
+			if (tree.getChildren().size() != 1) {
+				tree.setLabel("");
+				treeString = tree.toString();
+			}
+			list.add(String.format("%.8f", score) + "\t( " + treeString
+					+ " )");
+		}
+		return list;
+	}
+
+	/** The lists of the file, which are separated by empty lines. */
+	static List<List<String>> readLists(File file) throws IOException {
+		List<List<String>> lists = new ArrayList<List<String>>();
+		BufferedReader input = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), "UTF-8"));
+		List<String> list = new ArrayList<String>();
+		String line;
+		while ((line = input.readLine()) != null) {
+			if (line.length() > 0) {
+				list.add(line);
+			} else {
+				lists.add(list);
+				list = new ArrayList<String>();
+			}
+		}
+		if (!list.isEmpty())
+			lists.add(list);
+		input.close();
+		return lists;
+	}
+
+	static void writeLists(File file, List<List<String>> lists)
+			throws IOException {
+		PrintWriter output = new PrintWriter(new OutputStreamWriter(
+				new FileOutputStream(file), "UTF-8"));
+		for (List<String> list : lists) {
+			for (String line : list) {
+				output.write(line + "\n");
+			}
+			output.write("\n");
+		}
+		output.close();
+	}
+
+}
@@ -0,0 +1,133 @@
+package edu.berkeley.nlp.PCFGLA;
+
+/**
+ * LazyList over the edges of a HyperEdgeTable: the k-best derivations of one
+ * chart item found so far, and a binary max-heap of the candidate edges, kept
+ * in an array of edge indices and an array of their scores. The heap is the
+ * one of edu.berkeley.nlp.util.PriorityQueue, down to the order in which it
+ * returns edges with the same score, so the k-best lists come out the same.
+ */
+public class KBestList {
+	final HyperEdgeTable edges;
+	final boolean[] grammarTags;
+	int[] sorted;
+	int nSorted;
+	int[] fringe;
+	double[] priorities;
+	int nFringe;
+
+	public KBestList(HyperEdgeTable edges, boolean[] grammarTags,
+			int capacity) {
+		this.edges = edges;
+		this.grammarTags = grammarTags;
+		sorted = new int[4];
+		capacity = Math.max(capacity, 4);
+		fringe = new int[capacity];
+		priorities = new double[capacity];
+	}
+
+	public int sortedListSize() {
+		return nSorted;
+	}
+
+	public void addToFringe(int edge) {
+		if (nFringe == fringe.length) {
+			int[] newFringe = new int[2 * nFringe];
+			double[] newPriorities = new double[2 * nFringe];
+			System.arraycopy(fringe, 0, newFringe, 0, nFringe);
+			System.arraycopy(priorities, 0, newPriorities, 0, nFringe);
+			fringe = newFringe;
+			priorities = newPriorities;
+		}
+		fringe[nFringe] = edge;
+		priorities[nFringe] = edges.score[edge];
+		heapifyUp(nFringe);
+		nFringe++;
+	}
+
+	/** The k-th best edge (from 0), or -1 if there are no more. */
+	public int getKbest(int k) {
+		if (k > nSorted) {
+			System.out.println("Don't have this element yet");
+			return -1;
+		} else if (k == nSorted) { // extract the next best
+			expandNextBest();
+		}
+		if (k == nSorted)
+			return -1;
+		return sorted[k];
+	}
+
+	public void expandNextBest() {
+		while (nFringe > 0) {
+			int edge = fringe[0];
+			removeFirst();
+			boolean isNew = true;
+			for (int i = 0; i < nSorted; i++) {
+				if (edges.differsInPOSatMost(sorted[i], edge, grammarTags)) {
+					isNew = false;
+					break;
+				}
+			}
+			if (isNew) {
+				if (nSorted == sorted.length) {
+					int[] newSorted = new int[2 * nSorted];
+					System.arraycopy(sorted, 0, newSorted, 0, nSorted);
+					sorted = newSorted;
+				}
+				sorted[nSorted++] = edge;
+				break;
+			}
+		}
+	}
+
+	private void heapifyUp(int loc) {
+		while (loc > 0) {
+			int parent = (loc - 1) / 2;
+			if (!(priorities[loc] > priorities[parent]))
+				return;
+			swap(loc, parent);
+			loc = parent;
+		}
+	}
+
+	private void heapifyDown(int loc) {
+		while (true) {
+			int max = loc;
+			int leftChild = 2 * loc + 1;
+			if (leftChild < nFringe) {
+				double priority = priorities[loc];
+				double leftChildPriority = priorities[leftChild];
+				if (leftChildPriority > priority)
+					max = leftChild;
+				int rightChild = leftChild + 1;
+				if (rightChild < nFringe) {
+					double rightChildPriority = priorities[rightChild];
+					if (rightChildPriority > priority
+							&& rightChildPriority > leftChildPriority)
+						max = rightChild;
+				}
+			}
+			if (max == loc)
+				return;
+			swap(loc, max);
+			loc = max;
+		}
+	}
+
+	private void swap(int loc1, int loc2) {
+		int tempEdge = fringe[loc1];
+		double tempPriority = priorities[loc1];
+		fringe[loc1] = fringe[loc2];
+		priorities[loc1] = priorities[loc2];
+		fringe[loc2] = tempEdge;
+		priorities[loc2] = tempPriority;
+	}
+
+	private void removeFirst() {
+		swap(0, nFringe - 1);
+		nFringe--;
+		heapifyDown(0);
+	}
+
+}
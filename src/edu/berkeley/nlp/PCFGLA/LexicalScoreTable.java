@@ -0,0 +1,143 @@
+package edu.berkeley.nlp.PCFGLA;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * The lexicon scores of the word types of a batch of sentences, for every
+ * lexicon of a parser cascade and every tag that is not a grammar tag,
+ * computed once for the whole batch. The lexicons only look at the position
+ * of a word to tell the first word of a sentence from the others, so a type
+ * is a word and whether it comes first. Parsers that are given the table
+ * (see CoarseToFineMaxRuleParser.setLexicalScores) take the scores from it
+ * instead of calling Lexicon.score, which gives the same arrays; the table is
+ * not changed once it is built and can be shared by any number of parsers.
+ * <p/>
+ * Lexicon.score is not thread-safe (SophisticatedLexicon caches the last
+ * signature it computed), so every lexicon is scored by a single task; the
+ * tasks only run in parallel over different lexicons.
+ * <p/>
+ * Only the smoothed scores are kept, which is what parsing uses.
+ */
+public class LexicalScoreTable {
+	// lexicon --> word --> tag --> substate scores, for the first word of a
+	// sentence and the others
+	private final Map<Lexicon, Map<String, double[][]>> initialScores = new IdentityHashMap<Lexicon, Map<String, double[][]>>();
+	private final Map<Lexicon, Map<String, double[][]>> scores = new IdentityHashMap<Lexicon, Map<String, double[][]>>();
+
+	/**
+	 * Scores the word types of the sentences with the lexicons of the cascade
+	 * of the parser. If pool is not null, the lexicons are split over nTasks
+	 * tasks on it.
+	 */
+	public LexicalScoreTable(CoarseToFineMaxRuleParser cascade,
+			Collection<List<String>> sentences, ExecutorService pool,
+			int nTasks) {
+		Set<String> initialWords = new LinkedHashSet<String>();
+		Set<String> words = new LinkedHashSet<String>();
+		for (List<String> sentence : sentences) {
+			for (int i = 0; i < sentence.size(); i++) {
+				if (i == 0)
+					initialWords.add(sentence.get(i));
+				else
+					words.add(sentence.get(i));
+			}
+		}
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		Set<Lexicon> lexicons = new LinkedHashSet<Lexicon>();
+		for (Lexicon lexicon : cascade.lexiconCascade) {
+			if (lexicon == null || initialScores.containsKey(lexicon))
+				continue;
+			lexicons.add(lexicon);
+			Map<String, double[][]> initial = new HashMap<String, double[][]>();
+			Map<String, double[][]> other = new HashMap<String, double[][]>();
+			initialScores.put(lexicon, initial);
+			scores.put(lexicon, other);
+			for (String word : initialWords) {
+				initial.put(word, null);
+			}
+			for (String word : words) {
+				other.put(word, null);
+			}
+		}
+		nTasks = (pool == null) ? 1 : Math.max(1, Math.min(nTasks, lexicons
+				.size()));
+		List<Lexicon> lexiconList = new ArrayList<Lexicon>(lexicons);
+		for (int t = 0; t < nTasks; t++) {
+			final CoarseToFineMaxRuleParser parser = cascade;
+			final List<Lexicon> taskLexicons = new ArrayList<Lexicon>();
+			for (int i = t; i < lexiconList.size(); i += nTasks) {
+				taskLexicons.add(lexiconList.get(i));
+			}
+			tasks.add(new Callable<Object>() {
+				public Object call() {
+					for (Lexicon lexicon : taskLexicons) {
+						fill(parser, lexicon, initialScores.get(lexicon), 0);
+						fill(parser, lexicon, scores.get(lexicon), 1);
+					}
+					return null;
+				}
+			});
+		}
+		if (pool == null) {
+			try {
+				tasks.get(0).call();
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+			return;
+		}
+		try {
+			for (Future<Object> future : pool.invokeAll(tasks)) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Scores the words of the map at position loc. The keys of the map are all
+	 * there already, so the tasks only replace values.
+	 */
+	private static void fill(CoarseToFineMaxRuleParser parser,
+			Lexicon lexicon, Map<String, double[][]> wordScores, int loc) {
+		for (Map.Entry<String, double[][]> entry : wordScores.entrySet()) {
+			double[][] tagScores = new double[parser.numStates][];
+			for (int tag = 0; tag < parser.numStates; tag++) {
+				if (parser.grammarTags[tag])
+					continue;
+				tagScores[tag] = lexicon.score(entry.getKey(), (short) tag,
+						loc, false, false);
+			}
+			entry.setValue(tagScores);
+		}
+	}
+
+	/**
+	 * The scores of the word at position loc for every tag (null for the
+	 * grammar tags), or null if the table does not have them.
+	 */
+	public double[][] getScores(Lexicon lexicon, String word, int loc,
+			boolean noSmoothing) {
+		if (noSmoothing)
+			return null;
+		Map<String, double[][]> wordScores = (loc == 0) ? initialScores
+				.get(lexicon) : scores.get(lexicon);
+		if (wordScores == null)
+			return null;
+		return wordScores.get(word);
+	}
+}
@@ -21,6 +21,14 @@ public interface Lexicon {
 	public double[] score(StateSet stateSet, short tag, boolean noSmoothing,
 			boolean isSignature);
 
+	/**
+	 * The same scores, but they may be put in the given array, which has
+	 * numSubStates[tag] entries that are all zero, instead of a new one.
+	 * Returns the array that holds the scores.
+	 */
+	public double[] score(StateSet stateSet, short tag, boolean noSmoothing,
+			boolean isSignature, double[] scores);
+
 	public double[] scoreWord(StateSet stateSet, int tag);
 
 	public double[] scoreSignature(StateSet stateSet, int tag);
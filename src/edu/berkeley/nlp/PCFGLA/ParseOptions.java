@@ -0,0 +1,37 @@
+package edu.berkeley.nlp.PCFGLA;
+
+/**
+ * The options of one ParserService.parse call. The fields do what the
+ * BerkeleyParser options with the same names do; the scores are only
+ * computed when they are asked for.
+ */
+public class ParseOptions {
+	/** Return the k best max-rule (or viterbi) trees. */
+	public int kbest = 1;
+
+	public boolean viterbi;
+
+	/** Keep the trees binarized and annotated. */
+	public boolean binarize;
+
+	public boolean keepFunctionLabels;
+
+	/** P(T|w) of every tree. */
+	public boolean confidence;
+
+	/** The max-rule score of every tree. */
+	public boolean modelScore;
+
+	/** log P(T,w) of every tree. */
+	public boolean treeLikelihood;
+
+	/** log P(w). */
+	public boolean sentenceLikelihood;
+
+	public ParseOptions() {
+	}
+
+	public ParseOptions(int kbest) {
+		this.kbest = kbest;
+	}
+}
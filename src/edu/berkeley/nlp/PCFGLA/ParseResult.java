@@ -0,0 +1,73 @@
+package edu.berkeley.nlp.PCFGLA;
+
+import java.util.List;
+
+import edu.berkeley.nlp.syntax.Tree;
+
+/**
+ * The trees that ParserService.parse found for a sentence, best first, with
+ * the scores that were asked for (NaN otherwise) and the time the call spent
+ * waiting for a parser and parsing. A sentence that could not be parsed, or
+ * was too long, gets a single ROOT tree without children, with scores of
+ * negative infinity.
+ */
+public class ParseResult {
+	final List<Tree<String>> trees;
+	final double[] confidences, modelScores, treeLogLikelihoods;
+	final double sentenceLogLikelihood;
+	final long waitNanos, parseNanos;
+
+	ParseResult(List<Tree<String>> trees, double[] confidences,
+			double[] modelScores, double[] treeLogLikelihoods,
+			double sentenceLogLikelihood, long waitNanos, long parseNanos) {
+		this.trees = trees;
+		this.confidences = confidences;
+		this.modelScores = modelScores;
+		this.treeLogLikelihoods = treeLogLikelihoods;
+		this.sentenceLogLikelihood = sentenceLogLikelihood;
+		this.waitNanos = waitNanos;
+		this.parseNanos = parseNanos;
+	}
+
+	public int size() {
+		return trees.size();
+	}
+
+	public List<Tree<String>> getTrees() {
+		return trees;
+	}
+
+	public Tree<String> getTree(int i) {
+		return trees.get(i);
+	}
+
+	public boolean isParsed(int i) {
+		return !trees.get(i).getChildren().isEmpty();
+	}
+
+	public double getConfidence(int i) {
+		return confidences[i];
+	}
+
+	public double getModelScore(int i) {
+		return modelScores[i];
+	}
+
+	public double getTreeLogLikelihood(int i) {
+		return treeLogLikelihoods[i];
+	}
+
+	public double getSentenceLogLikelihood() {
+		return sentenceLogLikelihood;
+	}
+
+	/** The time spent waiting for a free parser, in nanoseconds. */
+	public long getWaitNanos() {
+		return waitNanos;
+	}
+
+	/** The time spent parsing and scoring, in nanoseconds. */
+	public long getParseNanos() {
+		return parseNanos;
+	}
+}
@@ -0,0 +1,298 @@
+package edu.berkeley.nlp.PCFGLA;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Where the coarse-to-fine parsers spend their time, collected over all the
+ * sentences parsed by the parsers that share it (see
+ * CoarseToFineMaxRuleParser.setMetrics). For every level of the cascade it
+ * keeps histograms of the time, the binary rule applications of the inside
+ * pass and the cells and substates before and after pruning; for whole
+ * sentences, the time, the length, the bytes allocated by the parsing thread
+ * and how often the inside pass of the final level had to be continued with
+ * scaling, or even started over, and how often the X-bar level had to be
+ * rerun without the span filter.
+ * <p/>
+ * A parser collects the numbers of a sentence in a Sentence of its own and
+ * adds them here once the sentence is parsed, so the parsers of several
+ * threads only synchronize once per sentence. Parsers without metrics, the
+ * default, collect nothing.
+ */
+public class ParserMetrics {
+	/** Levels -1 to MAX_LEVEL, and the final level. */
+	static final int MAX_LEVEL = 13;
+	static final int FINAL_SLOT = MAX_LEVEL + 2;
+	static final int N_SLOTS = FINAL_SLOT + 1;
+
+	private static final ThreadMXBean threadBean = ManagementFactory
+			.getThreadMXBean();
+
+	/**
+	 * A histogram of non-negative values with power of two buckets: bucket b
+	 * holds the values below 2^b that are not in bucket b-1.
+	 */
+	public static class Histogram {
+		final long[] buckets = new long[64];
+		long count, sum, min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+
+		public void add(long value) {
+			if (value < 0)
+				value = 0;
+			buckets[64 - Long.numberOfLeadingZeros(value)]++;
+			count++;
+			sum += value;
+			if (value < min)
+				min = value;
+			if (value > max)
+				max = value;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public double getMean() {
+			return (count == 0) ? 0 : sum / (double) count;
+		}
+
+		/**
+		 * An upper bound of the given percentile: the top of the bucket it
+		 * falls in, or the maximum if that is lower.
+		 */
+		public long getPercentile(double percentile) {
+			if (count == 0)
+				return 0;
+			long rank = (long) Math.ceil(percentile / 100 * count);
+			long seen = 0;
+			for (int b = 0; b < buckets.length; b++) {
+				seen += buckets[b];
+				if (seen >= rank && seen > 0) {
+					long top = (b == 0) ? 0 : (b == 63) ? Long.MAX_VALUE
+							: (1L << b) - 1;
+					return Math.min(top, max);
+				}
+			}
+			return max;
+		}
+
+		void toJSON(StringBuilder json) {
+			json.append("{\"count\":").append(count);
+			if (count > 0) {
+				json.append(",\"mean\":").append(getMean());
+				json.append(",\"min\":").append(min);
+				json.append(",\"p50\":").append(getPercentile(50));
+				json.append(",\"p90\":").append(getPercentile(90));
+				json.append(",\"p99\":").append(getPercentile(99));
+				json.append(",\"max\":").append(max);
+				json.append(",\"buckets\":[");
+				boolean first = true;
+				for (int b = 0; b < buckets.length; b++) {
+					if (buckets[b] == 0)
+						continue;
+					if (!first)
+						json.append(',');
+					first = false;
+					long top = (b == 0) ? 0 : (b == 63) ? Long.MAX_VALUE
+							: (1L << b) - 1;
+					json.append('[').append(top).append(',').append(
+							buckets[b]).append(']');
+				}
+				json.append(']');
+			}
+			json.append('}');
+		}
+	}
+
+	/**
+	 * The numbers of the sentence a parser is working on. The level timings
+	 * add up, so a final level that is continued with scaling counts both
+	 * inside passes.
+	 */
+	public static class Sentence {
+		final long[] levelNanos = new long[N_SLOTS];
+		final long[] levelRules = new long[N_SLOTS];
+		final int[] cells = new int[N_SLOTS];
+		final int[] subStatesBefore = new int[N_SLOTS];
+		final int[] subStatesAfter = new int[N_SLOTS];
+		final boolean[] levelRun = new boolean[N_SLOTS];
+		final boolean[] levelPruned = new boolean[N_SLOTS];
+		int length;
+		long startNanos, startBytes;
+		int slot = -1;
+		long slotStartNanos, slotStartRules;
+		// the first span length of the scaled inside pass, 0 if none was run
+		int scaledFromSpan;
+		boolean spanFilterFallback;
+
+		public void start(int length) {
+			for (int i = 0; i < N_SLOTS; i++) {
+				levelNanos[i] = levelRules[i] = 0;
+				levelRun[i] = levelPruned[i] = false;
+			}
+			this.length = length;
+			scaledFromSpan = 0;
+			spanFilterFallback = false;
+			slot = -1;
+			startBytes = allocatedBytes();
+			startNanos = System.nanoTime();
+		}
+
+		/**
+		 * Starts timing a level; rules is the parser's count of rule
+		 * applications so far.
+		 */
+		public void startLevel(int level, long rules) {
+			startSlot(Math.min(level, MAX_LEVEL) + 1, rules);
+		}
+
+		public void startFinalLevel(long rules) {
+			startSlot(FINAL_SLOT, rules);
+		}
+
+		private void startSlot(int slot, long rules) {
+			this.slot = slot;
+			levelRun[slot] = true;
+			slotStartRules = rules;
+			slotStartNanos = System.nanoTime();
+		}
+
+		public void endLevel(long rules) {
+			if (slot < 0)
+				return;
+			levelNanos[slot] += System.nanoTime() - slotStartNanos;
+			levelRules[slot] += rules - slotStartRules;
+			slot = -1;
+		}
+
+		/** What pruning left of the chart of the current level. */
+		public void pruned(int nCells, int nSubStatesBefore,
+				int nSubStatesAfter) {
+			if (slot < 0)
+				return;
+			levelPruned[slot] = true;
+			cells[slot] = nCells;
+			subStatesBefore[slot] = nSubStatesBefore;
+			subStatesAfter[slot] = nSubStatesAfter;
+		}
+
+		public void setScaling(int fromSpan) {
+			scaledFromSpan = fromSpan;
+		}
+
+		public void setSpanFilterFallback() {
+			spanFilterFallback = true;
+		}
+
+		/** Adds the sentence to the metrics. */
+		public void finish(ParserMetrics metrics) {
+			long nanos = System.nanoTime() - startNanos;
+			long bytes = (startBytes < 0) ? -1 : allocatedBytes() - startBytes;
+			metrics.add(this, nanos, bytes);
+		}
+	}
+
+	/** The bytes allocated by this thread so far, or -1 if unknown. */
+	static long allocatedBytes() {
+		if (!(threadBean instanceof com.sun.management.ThreadMXBean))
+			return -1;
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadBean;
+		if (!bean.isThreadAllocatedMemorySupported()
+				|| !bean.isThreadAllocatedMemoryEnabled())
+			return -1;
+		return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	long nSentences, nRescaled, nRescaledFromScratch, nSpanFilterFallbacks;
+	final Histogram sentenceNanos = new Histogram();
+	final Histogram sentenceLengths = new Histogram();
+	final Histogram sentenceBytes = new Histogram();
+	final Histogram[] levelNanos = newHistograms();
+	final Histogram[] levelRules = newHistograms();
+	final Histogram[] cells = newHistograms();
+	final Histogram[] subStatesBefore = newHistograms();
+	final Histogram[] subStatesAfter = newHistograms();
+
+	private static Histogram[] newHistograms() {
+		Histogram[] histograms = new Histogram[N_SLOTS];
+		for (int i = 0; i < N_SLOTS; i++) {
+			histograms[i] = new Histogram();
+		}
+		return histograms;
+	}
+
+	synchronized void add(Sentence sentence, long nanos, long bytes) {
+		nSentences++;
+		if (sentence.scaledFromSpan > 0)
+			nRescaled++;
+		if (sentence.scaledFromSpan == 1)
+			nRescaledFromScratch++;
+		if (sentence.spanFilterFallback)
+			nSpanFilterFallbacks++;
+		sentenceNanos.add(nanos);
+		sentenceLengths.add(sentence.length);
+		if (bytes >= 0)
+			sentenceBytes.add(bytes);
+		for (int i = 0; i < N_SLOTS; i++) {
+			if (!sentence.levelRun[i])
+				continue;
+			levelNanos[i].add(sentence.levelNanos[i]);
+			levelRules[i].add(sentence.levelRules[i]);
+			if (!sentence.levelPruned[i])
+				continue;
+			cells[i].add(sentence.cells[i]);
+			subStatesBefore[i].add(sentence.subStatesBefore[i]);
+			subStatesAfter[i].add(sentence.subStatesAfter[i]);
+		}
+	}
+
+	public synchronized long getSentenceCount() {
+		return nSentences;
+	}
+
+	public synchronized String toJSON() {
+		StringBuilder json = new StringBuilder();
+		json.append("{\"sentences\":").append(nSentences);
+		json.append(",\"rescaled\":").append(nRescaled);
+		json.append(",\"rescaledFromScratch\":").append(
+				nRescaledFromScratch);
+		json.append(",\"spanFilterFallbacks\":").append(nSpanFilterFallbacks);
+		json.append(",\"nanos\":");
+		sentenceNanos.toJSON(json);
+		json.append(",\"length\":");
+		sentenceLengths.toJSON(json);
+		json.append(",\"allocatedBytes\":");
+		sentenceBytes.toJSON(json);
+		json.append(",\"levels\":[");
+		boolean first = true;
+		for (int i = 0; i < N_SLOTS; i++) {
+			if (levelNanos[i].getCount() == 0)
+				continue;
+			if (!first)
+				json.append(',');
+			first = false;
+			String name = (i == FINAL_SLOT) ? "final" : Integer.toString(i - 1);
+			json.append("{\"level\":\"").append(name).append('"');
+			json.append(",\"nanos\":");
+			levelNanos[i].toJSON(json);
+			json.append(",\"ruleApplications\":");
+			levelRules[i].toJSON(json);
+			if (cells[i].getCount() > 0) {
+				json.append(",\"cellsAfterPruning\":");
+				cells[i].toJSON(json);
+				json.append(",\"subStatesBeforePruning\":");
+				subStatesBefore[i].toJSON(json);
+				json.append(",\"subStatesAfterPruning\":");
+				subStatesAfter[i].toJSON(json);
+			}
+			json.append('}');
+		}
+		json.append("]}");
+		return json.toString();
+	}
+
+	@Override
+	public String toString() {
+		return toJSON();
+	}
+}
@@ -0,0 +1,320 @@
+package edu.berkeley.nlp.PCFGLA;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import edu.berkeley.nlp.io.PTBLineLexer;
+import edu.berkeley.nlp.syntax.Tree;
+import edu.berkeley.nlp.util.LatencyRecorder;
+
+/**
+ * Loads one or more grammars once and then parses the sentences that clients
+ * send over a TCP socket, by default on the local host only. Every
+ * connection is read by a thread of its own, and every grammar is parsed by
+ * a ParserService with nThreads sets of parsers.
+ * <p/>
+ * The protocol is line based. A request is one line, and so is the first
+ * line of the answer: either "OK n", followed by n lines, or "ERROR message".
+ * The requests are:
+ * <ul>
+ * <li>"parse [option ...]", a tab and the (tokenized) sentence. The output
+ * lines are those of BerkeleyParser. The options are kbest=k, grammar=name
+ * and the flags viterbi, confidence, modelScore, tree_likelihood,
+ * sentence_likelihood, binarize, keepFunctionLabels and tokenize, which do
+ * what the BerkeleyParser options with the same names do.</li>
+ * <li>"stats": the number of requests and errors and the 50th, 90th and 99th
+ * percentile and the maximum of the latencies of the last 10000 requests.
+ * With -metrics, it is followed by a line "metrics name json" for every
+ * grammar, with the ParserMetrics of its parsers.</li>
+ * <li>"grammars": the names of the grammars, the default one first.</li>
+ * <li>"quit": closes the connection.</li>
+ * </ul>
+ */
+public class ParserServer {
+
+	public static class Options {
+
+		@Option(name = "-gr", required = true, usage = "Grammar file, or a comma separated list of name=file pairs, the first being the default (Required)")
+		public String grFileNames;
+
+		@Option(name = "-port", usage = "Port to listen on (Default: 8765)")
+		public int port = 8765;
+
+		@Option(name = "-host", usage = "Address to listen on (Default: localhost)")
+		public String host = "localhost";
+
+		@Option(name = "-nThreads", usage = "Parse up to n sentences in parallel (Default: 1)")
+		public int nThreads = 1;
+
+		@Option(name = "-accurate", usage = "Set thresholds for accuracy. (Default: set thresholds for efficiency)")
+		public boolean accurate;
+
+		@Option(name = "-maxLength", usage = "Maximum sentence length (Default = 200).")
+		public int maxLength = 200;
+
+		@Option(name = "-maxKBest", usage = "Maximum k of a k-best request (Default = 100).")
+		public int maxKBest = 100;
+
+		@Option(name = "-chinese", usage = "Enable some Chinese specific features in the lexicon.")
+		public boolean chinese;
+
+		@Option(name = "-metrics", usage = "Collect per-level parsing metrics and add them to the stats (Default: false)")
+		public boolean metrics;
+	}
+
+	final Options opts;
+	final Map<String, ParserService> grammars = new LinkedHashMap<String, ParserService>();
+	final LatencyRecorder latencies = new LatencyRecorder();
+
+	public ParserServer(Options opts) {
+		this.opts = opts;
+		if (opts.chinese)
+			Corpus.myTreebank = Corpus.TreeBankType.CHINESE;
+		for (String entry : opts.grFileNames.split(",")) {
+			String name = entry, fileName = entry;
+			int equals = entry.indexOf('=');
+			if (equals >= 0) {
+				name = entry.substring(0, equals);
+				fileName = entry.substring(equals + 1);
+			}
+			ParserService service = ParserService.load(fileName,
+					opts.nThreads, opts.accurate, opts.maxLength);
+			if (service == null)
+				throw new IllegalArgumentException(
+						"Failed to load grammar from file " + fileName + ".");
+			if (opts.metrics)
+				service.enableMetrics();
+			grammars.put(name, service);
+			System.err.println("Loaded grammar " + name + " from " + fileName
+					+ ".");
+		}
+	}
+
+	static ThreadFactory daemonThreads(final String name) {
+		return new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, name);
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	/** Accepts connections until the process is killed. */
+	public void serve() throws IOException {
+		ServerSocket serverSocket = new ServerSocket(opts.port, 50,
+				InetAddress.getByName(opts.host));
+		System.err.println("Listening on " + serverSocket.getInetAddress()
+				+ ":" + serverSocket.getLocalPort() + ".");
+		ExecutorService connectionPool = Executors
+				.newCachedThreadPool(daemonThreads("parser-connection"));
+		while (true) {
+			final Socket socket = serverSocket.accept();
+			connectionPool.execute(new Runnable() {
+				public void run() {
+					serveConnection(socket);
+				}
+			});
+		}
+	}
+
+	void serveConnection(Socket socket) {
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(
+					socket.getInputStream(), "UTF-8"));
+			PrintWriter out = new PrintWriter(new OutputStreamWriter(socket
+					.getOutputStream(), "UTF-8"));
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.trim().equals("quit"))
+					break;
+				out.print(answer(line));
+				out.flush();
+				// PrintWriter keeps write errors to itself
+				if (out.checkError())
+					throw new IOException("could not write the answer");
+			}
+		} catch (IOException e) {
+			System.err.println("Connection failed: " + e.getMessage());
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	/** The answer to one request line, including its line breaks. */
+	public String answer(String request) {
+		String command = request, sentence = null;
+		int tab = request.indexOf('\t');
+		if (tab >= 0) {
+			command = request.substring(0, tab);
+			sentence = request.substring(tab + 1).trim();
+		}
+		String[] words = command.trim().split("\\s+");
+		List<String> lines = new ArrayList<String>();
+		try {
+			if (words[0].equals("parse")) {
+				if (sentence == null)
+					throw new IllegalArgumentException(
+							"parse needs a tab and a sentence");
+				long start = System.nanoTime();
+				try {
+					lines = parse(Arrays.asList(words).subList(1, words.length),
+							sentence);
+				} catch (RuntimeException e) {
+					latencies.recordError();
+					throw e;
+				}
+				latencies.record(System.nanoTime() - start);
+			} else if (words[0].equals("stats")) {
+				lines.add(latencies.toString());
+				for (Map.Entry<String, ParserService> entry : grammars
+						.entrySet()) {
+					ParserMetrics metrics = entry.getValue().getMetrics();
+					if (metrics != null)
+						lines.add("metrics " + entry.getKey() + " "
+								+ metrics.toJSON());
+				}
+			} else if (words[0].equals("grammars")) {
+				lines.addAll(grammars.keySet());
+			} else {
+				throw new IllegalArgumentException("unknown request "
+						+ words[0]);
+			}
+		} catch (RuntimeException e) {
+			String message = e.getMessage();
+			return "ERROR " + (message != null ? message : e.toString()) + "\n";
+		}
+		StringBuilder answer = new StringBuilder();
+		answer.append("OK ").append(lines.size()).append('\n');
+		for (String line : lines) {
+			answer.append(line).append('\n');
+		}
+		return answer.toString();
+	}
+
+	/**
+	 * Parses the sentence with the given options and returns the output
+	 * lines.
+	 */
+	List<String> parse(List<String> options, String line) {
+		ParseOptions parseOpts = new ParseOptions();
+		String grammarName = grammars.keySet().iterator().next();
+		boolean tokenize = false;
+		for (String option : options) {
+			if (option.startsWith("kbest="))
+				parseOpts.kbest = Integer.parseInt(option.substring(6));
+			else if (option.startsWith("grammar="))
+				grammarName = option.substring(8);
+			else if (option.equals("viterbi"))
+				parseOpts.viterbi = true;
+			else if (option.equals("confidence"))
+				parseOpts.confidence = true;
+			else if (option.equals("modelScore"))
+				parseOpts.modelScore = true;
+			else if (option.equals("tree_likelihood"))
+				parseOpts.treeLikelihood = true;
+			else if (option.equals("sentence_likelihood"))
+				parseOpts.sentenceLikelihood = true;
+			else if (option.equals("binarize"))
+				parseOpts.binarize = true;
+			else if (option.equals("keepFunctionLabels"))
+				parseOpts.keepFunctionLabels = true;
+			else if (option.equals("tokenize"))
+				tokenize = true;
+			else
+				throw new IllegalArgumentException("unknown option " + option);
+		}
+		if (parseOpts.kbest < 1 || parseOpts.kbest > opts.maxKBest)
+			throw new IllegalArgumentException("kbest must be between 1 and "
+					+ opts.maxKBest);
+		ParserService service = grammars.get(grammarName);
+		if (service == null)
+			throw new IllegalArgumentException("unknown grammar "
+					+ grammarName);
+		List<String> sentence;
+		if (tokenize) {
+			try {
+				sentence = new PTBLineLexer().tokenizeLine(line);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		} else {
+			sentence = Arrays.asList(line.split("\\s+"));
+		}
+		List<String> lines = new ArrayList<String>();
+		if (sentence.size() > service.getMaxLength()) {
+			lines.add("(())");
+			return lines;
+		}
+		ParseResult result = service.parse(sentence, parseOpts);
+		formatResult(result, parseOpts, lines);
+		return lines;
+	}
+
+	/** The lines that BerkeleyParser.outputTrees prints for the trees. */
+	static void formatResult(ParseResult result, ParseOptions opts,
+			List<String> lines) {
+		String delimiter = "\t";
+		for (int t = 0; t < result.size(); t++) {
+			StringBuilder line = new StringBuilder();
+			boolean parsed = result.isParsed(t);
+			if (opts.treeLikelihood) {
+				double treeLL = result.getTreeLogLikelihood(t);
+				if (treeLL == Double.NEGATIVE_INFINITY)
+					continue;
+				line.append(treeLL).append(delimiter);
+			}
+			if (opts.sentenceLikelihood) {
+				double allLL = parsed ? result.getSentenceLogLikelihood()
+						: Double.NEGATIVE_INFINITY;
+				line.append(allLL).append(delimiter);
+			}
+			if (opts.confidence)
+				line.append(result.getConfidence(t)).append(delimiter);
+			else if (opts.modelScore)
+				line.append(String.format("%.8f", result.getModelScore(t)))
+						.append(delimiter);
+			Tree<String> tree = result.getTree(t);
+			if (parsed) {
+				String treeString = tree.getChildren().get(0).toString();
+				if (tree.getChildren().size() != 1) {
+					System.err.println("ROOT has more than one child!");
+					tree.setLabel("");
+					treeString = tree.toString();
+				}
+				line.append("( ").append(treeString).append(" )");
+			} else {
+				line.append("(())");
+			}
+			lines.add(line.toString());
+		}
+	}
+
+	public static void main(String[] args) {
+		OptionParser optParser = new OptionParser(Options.class);
+		Options opts = (Options) optParser.parse(args, true);
+		try {
+			new ParserServer(opts).serve();
+		} catch (Exception ex) {
+			ex.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
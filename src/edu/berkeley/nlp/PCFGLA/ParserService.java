@@ -0,0 +1,293 @@
+package edu.berkeley.nlp.PCFGLA;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.berkeley.nlp.syntax.Tree;
+import edu.berkeley.nlp.util.Numberer;
+
+/**
+ * A parser for use from other code: owns the coarse-to-fine cascades of one
+ * grammar and a pool of nParsers sets of parsers sharing them, and parses
+ * with the options of each call (see ParseOptions). parse can be called from
+ * any number of threads; up to nParsers calls run at the same time and the
+ * others wait for a free set of parsers.
+ * <p/>
+ * The parsers take the global Numberers when they are made, so the service
+ * sets them to those of its grammar in the constructor, and several services
+ * with different grammars can be made one after the other.
+ * <p/>
+ * parseBatch parses many sentences at once: the lexicon scores of their word
+ * types are computed once for the batch (see LexicalScoreTable) and the
+ * sentences are then parsed in parallel by the sets of parsers.
+ */
+public class ParserService {
+
+	/**
+	 * One set of parsers: a max-rule and a k-best parser, each for max-rule
+	 * and viterbi parsing. The viterbi parsers need a cascade of their own,
+	 * whose last grammar is in logarithm mode.
+	 */
+	static class Parsers {
+		final CoarseToFineMaxRuleParser[] parsers = new CoarseToFineMaxRuleParser[4];
+
+		Parsers(CoarseToFineMaxRuleParser cascade,
+				CoarseToFineMaxRuleParser viterbiCascade) {
+			for (int i = 0; i < 4; i++) {
+				boolean kbest = (i >= 2), viterbi = (i % 2 == 1);
+				CoarseToFineMaxRuleParser c = viterbi ? viterbiCascade
+						: cascade;
+				CoarseToFineMaxRuleParser parser;
+				if (kbest)
+					parser = new CoarseToFineNBestParser(c.grammar, c.lexicon,
+							1, 1.0, -1, viterbi, false, false, c.accurate,
+							false, false, false);
+				else
+					parser = new CoarseToFineMaxRuleParser(c.grammar,
+							c.lexicon, 1.0, -1, viterbi, false, false,
+							c.accurate, false, true, false);
+				parser.initCascade(c);
+				parsers[i] = parser;
+			}
+		}
+
+		CoarseToFineMaxRuleParser get(boolean kbest, boolean viterbi) {
+			return parsers[(kbest ? 2 : 0) + (viterbi ? 1 : 0)];
+		}
+
+		void setMetrics(ParserMetrics metrics) {
+			for (CoarseToFineMaxRuleParser parser : parsers) {
+				parser.setMetrics(metrics);
+			}
+		}
+	}
+
+	final BlockingQueue<Parsers> pool;
+	final int maxLength;
+	final int nParsers;
+	final CoarseToFineMaxRuleParser cascade, viterbiCascade;
+	private ExecutorService batchPool;
+	private volatile ParserMetrics metrics;
+
+	public ParserService(ParserData pData, int nParsers, boolean accurate,
+			int maxLength) {
+		this.maxLength = maxLength;
+		Numberer.setNumberers(pData.getNumbs());
+		cascade = new CoarseToFineMaxRuleParser(
+				pData.getGrammar(), pData.getLexicon(), 1.0, -1, false, false,
+				false, accurate, false, true, true);
+		cascade.binarization = pData.getBinarization();
+		// logarithmMode() changes the final grammar of the cascade itself
+		viterbiCascade = new CoarseToFineMaxRuleParser(
+				pData.getGrammar().copyGrammar(false), pData.getLexicon()
+						.copyLexicon(), 1.0, -1, true, false, false, accurate,
+				false, true, true);
+		viterbiCascade.binarization = pData.getBinarization();
+		nParsers = Math.max(1, nParsers);
+		this.nParsers = nParsers;
+		pool = new ArrayBlockingQueue<Parsers>(nParsers);
+		for (int i = 0; i < nParsers; i++) {
+			pool.add(new Parsers(cascade, viterbiCascade));
+		}
+	}
+
+	public ParserService(ParserData pData, int nParsers) {
+		this(pData, nParsers, false, 200);
+	}
+
+	/** Returns null if the grammar cannot be loaded. */
+	public static ParserService load(String fileName, int nParsers,
+			boolean accurate, int maxLength) {
+		ParserData pData = ParserData.Load(fileName);
+		if (pData == null)
+			return null;
+		return new ParserService(pData, nParsers, accurate, maxLength);
+	}
+
+	public int getMaxLength() {
+		return maxLength;
+	}
+
+	/**
+	 * Makes all parsers collect their metrics in one ParserMetrics, which is
+	 * returned. Waits for the calls that are parsing to finish.
+	 */
+	public synchronized ParserMetrics enableMetrics() {
+		if (metrics != null)
+			return metrics;
+		ParserMetrics newMetrics = new ParserMetrics();
+		List<Parsers> all = new ArrayList<Parsers>();
+		try {
+			for (int i = 0; i < nParsers; i++) {
+				all.add(pool.take());
+			}
+		} catch (InterruptedException e) {
+			pool.addAll(all);
+			throw new RuntimeException(e);
+		}
+		for (Parsers parsers : all) {
+			parsers.setMetrics(newMetrics);
+		}
+		pool.addAll(all);
+		metrics = newMetrics;
+		return metrics;
+	}
+
+	/** null unless enableMetrics was called. */
+	public ParserMetrics getMetrics() {
+		return metrics;
+	}
+
+	public ParseResult parse(List<String> sentence) {
+		return parse(sentence, null, new ParseOptions());
+	}
+
+	public ParseResult parse(List<String> sentence, ParseOptions options) {
+		return parse(sentence, null, options);
+	}
+
+	/**
+	 * Parses the sentence, with the given part of speech tags if posTags is
+	 * not null.
+	 */
+	public ParseResult parse(List<String> sentence, List<String> posTags,
+			ParseOptions options) {
+		if (options.kbest < 1)
+			throw new IllegalArgumentException("kbest must be at least 1");
+		long start = System.nanoTime();
+		Parsers parsers;
+		try {
+			parsers = pool.take();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+		long parseStart = System.nanoTime();
+		try {
+			return parse(parsers.get(options.kbest > 1, options.viterbi),
+					sentence, posTags, options, parseStart - start,
+					parseStart);
+		} finally {
+			pool.add(parsers);
+		}
+	}
+
+	/**
+	 * Parses the sentences with the same options, up to nParsers at a time,
+	 * and returns their results in the same order. The sentences share the
+	 * lexicon scores of their words, which are computed before parsing
+	 * starts. The wait time of a result is the time from the start of the
+	 * batch, including the scoring of the words.
+	 */
+	public List<ParseResult> parseBatch(List<List<String>> sentences,
+			final ParseOptions options) {
+		if (options.kbest < 1)
+			throw new IllegalArgumentException("kbest must be at least 1");
+		final long start = System.nanoTime();
+		ExecutorService executor = getBatchPool();
+		List<List<String>> toScore = new ArrayList<List<String>>();
+		for (List<String> sentence : sentences) {
+			if (sentence.size() <= maxLength)
+				toScore.add(sentence);
+		}
+		final LexicalScoreTable table = new LexicalScoreTable(
+				options.viterbi ? viterbiCascade : cascade, toScore, executor,
+				nParsers);
+		List<Callable<ParseResult>> tasks = new ArrayList<Callable<ParseResult>>();
+		for (final List<String> sentence : sentences) {
+			tasks.add(new Callable<ParseResult>() {
+				public ParseResult call() throws InterruptedException {
+					Parsers parsers = pool.take();
+					long parseStart = System.nanoTime();
+					CoarseToFineMaxRuleParser parser = parsers.get(
+							options.kbest > 1, options.viterbi);
+					parser.setLexicalScores(table);
+					try {
+						return parse(parser, sentence, null, options, parseStart
+								- start, parseStart);
+					} finally {
+						parser.setLexicalScores(null);
+						pool.add(parsers);
+					}
+				}
+			});
+		}
+		List<ParseResult> results = new ArrayList<ParseResult>();
+		try {
+			for (Future<ParseResult> future : executor.invokeAll(tasks)) {
+				results.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		return results;
+	}
+
+	private synchronized ExecutorService getBatchPool() {
+		if (batchPool == null)
+			batchPool = Executors.newFixedThreadPool(nParsers,
+					ParserServer.daemonThreads("parser-batch"));
+		return batchPool;
+	}
+
+	private ParseResult parse(CoarseToFineMaxRuleParser parser,
+			List<String> sentence, List<String> posTags, ParseOptions options,
+			long waitNanos, long parseStart) {
+		List<Tree<String>> trees;
+		if (sentence.size() > maxLength) {
+			trees = new ArrayList<Tree<String>>();
+		} else if (options.kbest > 1) {
+			trees = parser.getKBestConstrainedParses(sentence, posTags,
+					options.kbest);
+		} else {
+			trees = new ArrayList<Tree<String>>();
+			Tree<String> tree = parser.getBestConstrainedParse(sentence,
+					posTags, null);
+			if (posTags != null && tree.getChildren().isEmpty())
+				tree = parser.getBestConstrainedParse(sentence, null, null);
+			trees.add(tree);
+		}
+		if (trees.isEmpty())
+			trees.add(new Tree<String>("ROOT"));
+
+		int n = trees.size();
+		double[] confidences = new double[n], modelScores = new double[n], treeLLs = new double[n];
+		Arrays.fill(confidences, Double.NaN);
+		Arrays.fill(modelScores, Double.NaN);
+		Arrays.fill(treeLLs, Double.NaN);
+		double sentenceLL = Double.NaN;
+		// in the order of BerkeleyParser.outputTrees
+		for (int t = 0; t < n; t++) {
+			Tree<String> tree = trees.get(t);
+			boolean parsed = !tree.getChildren().isEmpty();
+			if (options.treeLikelihood)
+				treeLLs[t] = parsed ? parser.getLogLikelihood(tree)
+						: Double.NEGATIVE_INFINITY;
+			if (options.sentenceLikelihood && t == 0)
+				sentenceLL = parsed ? parser.getLogLikelihood()
+						: Double.NEGATIVE_INFINITY;
+			if (!options.binarize) {
+				tree = TreeAnnotations.unAnnotateTree(tree,
+						options.keepFunctionLabels);
+				trees.set(t, tree);
+			}
+			if (options.confidence)
+				confidences[t] = parsed ? parser.getConfidence(tree)
+						: Double.NEGATIVE_INFINITY;
+			if (options.modelScore)
+				modelScores[t] = parsed ? parser.getModelScore(tree)
+						: Double.NEGATIVE_INFINITY;
+		}
+		return new ParseResult(trees, confidences, modelScores, treeLLs,
+				sentenceLL, waitNanos, System.nanoTime() - parseStart);
+	}
+}
@@ -0,0 +1,325 @@
+package edu.berkeley.nlp.PCFGLA;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import edu.berkeley.nlp.PCFGLA.Corpus.TreeBankType;
+import edu.berkeley.nlp.syntax.Tree;
+import edu.berkeley.nlp.util.Numberer;
+
+/**
+ * EM iterations of GrammarTrainer (for a grammar that is already split)
+ * with the E-step spread over processes that share nothing but the file
+ * system. A map task reads every nShards-th training tree, starting from
+ * its shard number, runs the E-step of the given grammar over them and saves
+ * the counts (see EStepCounts). A reduce task adds up the counts of all the
+ * shards, runs the M-step and saves the new grammar. Local mode runs the map
+ * tasks of each iteration as child JVMs on this machine, followed by the
+ * reduce, which is also how a cluster scheduler would run them:
+ *
+ * <pre>
+ * ShardedEM -mode map -gr g.gr -path treebank -shard 0 -nShards 2 -out c0
+ * ShardedEM -mode map -gr g.gr -path treebank -shard 1 -nShards 2 -out c1
+ * ShardedEM -mode reduce -gr g.gr -counts c0,c1 -out g2.gr
+ * </pre>
+ *
+ * All the tasks of an iteration must read the same treebank with the same
+ * options. The new grammar is the one GrammarTrainer would compute, up to
+ * the order in which the counts are summed, except for the -KNOWNLC
+ * signature of sentence-initial words, which depends on the words seen
+ * before in the same shard. Only the SophisticatedLexicon is supported.
+ */
+public class ShardedEM {
+
+	public static class Options {
+
+		@Option(name = "-mode", required = true, usage = "map, reduce or local")
+		public String mode;
+
+		@Option(name = "-gr", required = true, usage = "The grammar of the previous iteration (Required)")
+		public String grammarFile;
+
+		@Option(name = "-out", required = true, usage = "Output file: the counts for map, the grammar for reduce and local (Required)")
+		public String outFileName;
+
+		@Option(name = "-counts", usage = "Comma separated counts files to reduce")
+		public String counts;
+
+		@Option(name = "-shard", usage = "The shard of the training trees to map (Default: 0)")
+		public int shard = 0;
+
+		@Option(name = "-nShards", usage = "The number of shards (Default: 1)")
+		public int nShards = 1;
+
+		@Option(name = "-iterations", usage = "Number of EM iterations in local mode (Default: 1)")
+		public int iterations = 1;
+
+		@Option(name = "-jvmArgs", usage = "Space separated JVM arguments of the map tasks in local mode, e.g. \"-Xmx2g\"")
+		public String jvmArgs = "";
+
+		@Option(name = "-path", usage = "Path to Corpus (Default: null)")
+		public String path = null;
+
+		@Option(name = "-treebank", usage = "Language:  WSJ, CHNINESE, GERMAN, CONLL, SINGLEFILE (Default: ENGLISH)")
+		public TreeBankType treebank = TreeBankType.WSJ;
+
+		@Option(name = "-trfr", usage = "The fraction of the training corpus to keep (Default: 1.0)\n")
+		public double trainingFractionToKeep = 1.0;
+
+		@Option(name = "-maxL", usage = "Maximum sentence length (Default <=10000)")
+		public int maxSentenceLength = 10000;
+
+		@Option(name = "-trainOnDevSet", usage = "Include the development set into the training set (Default: false)")
+		public boolean trainOnDevSet = false;
+
+		@Option(name = "-lowercase", usage = "Lowercase all words in the treebank")
+		public boolean lowercase = false;
+
+		@Option(name = "-rare", usage = "Rare word threshold (Default 20)")
+		public int rare = 20;
+
+		@Option(name = "-skipSection", usage = "Skips a particular section of the WSJ training corpus (Needed for training Mark Johnsons reranker")
+		public int skipSection = -1;
+
+		@Option(name = "-skipBilingual", usage = "Skips the bilingual portion of the Chinese treebank (Needed for training the bilingual reranker")
+		public boolean skipBilingual = false;
+
+		@Option(name = "-keepFunctionLabels", usage = "Retain predicted function labels. Model must have been trained with function labels. (Default: false)")
+		public boolean keepFunctionLabels = false;
+	}
+
+	/** The options that local mode sets itself for its map tasks. */
+	private static final Set<String> TASK_OPTIONS = new HashSet<String>(
+			Arrays.asList("-mode", "-gr", "-out", "-counts", "-shard",
+					"-iterations", "-jvmArgs"));
+
+	public static void main(String[] args) {
+		OptionParser optParser = new OptionParser(Options.class);
+		Options opts = (Options) optParser.parse(args, true);
+		System.out.println("Calling with " + optParser.getPassedInOptions());
+
+		if (opts.mode.equals("map")) {
+			map(opts);
+		} else if (opts.mode.equals("reduce")) {
+			if (opts.counts == null) {
+				System.out.println("Reduce needs the -counts files.");
+				System.exit(1);
+			}
+			reduce(opts.grammarFile, opts.counts.split(","), opts.rare,
+					opts.outFileName);
+		} else if (opts.mode.equals("local")) {
+			runLocally(opts, args);
+		} else {
+			System.out.println("Unknown mode " + opts.mode
+					+ ", use map, reduce or local.");
+			System.exit(1);
+		}
+		System.exit(0);
+	}
+
+	static ParserData loadGrammar(String fileName) {
+		ParserData pData = ParserData.Load(fileName);
+		if (pData == null) {
+			System.out.println("Failed to load grammar from file " + fileName
+					+ ".");
+			System.exit(1);
+		}
+		if (!(pData.getLexicon() instanceof SophisticatedLexicon)) {
+			System.out.println("Only grammars with a SophisticatedLexicon "
+					+ "can be trained in shards.");
+			System.exit(1);
+		}
+		Numberer.setNumberers(pData.getNumbs());
+		return pData;
+	}
+
+	static void map(Options opts) {
+		if (opts.shard < 0 || opts.shard >= opts.nShards) {
+			System.out.println("The shard must be in [0, " + opts.nShards
+					+ ").");
+			System.exit(1);
+		}
+		ParserData pData = loadGrammar(opts.grammarFile);
+		Grammar grammar = pData.getGrammar();
+		SophisticatedLexicon lexicon = (SophisticatedLexicon) pData
+				.getLexicon();
+
+		Corpus corpus = new Corpus(opts.path, opts.treebank,
+				opts.trainingFractionToKeep, false, opts.skipSection,
+				opts.skipBilingual, opts.keepFunctionLabels);
+		List<Tree<String>> trees = new ArrayList<Tree<String>>(corpus
+				.getTrainTrees());
+		if (opts.trainOnDevSet)
+			trees.addAll(corpus.getValidationTrees());
+		corpus = null;
+		List<Tree<String>> shardTrees = new ArrayList<Tree<String>>();
+		for (int i = opts.shard; i < trees.size(); i += opts.nShards) {
+			shardTrees.add(trees.get(i));
+		}
+		trees = null;
+		shardTrees = Corpus.binarizeAndFilterTrees(shardTrees,
+				pData.v_markov, pData.h_markov, opts.maxSentenceLength,
+				pData.bin, false, GrammarTrainer.VERBOSE);
+		if (opts.lowercase)
+			Corpus.lowercaseWords(shardTrees);
+		StateSetTreeList stateSetTrees = new StateSetTreeList(shardTrees,
+				grammar.numSubStates, false, Numberer
+						.getGlobalNumberer("tags"));
+		shardTrees = null;
+
+		System.out.print("Shard " + opts.shard + " of " + opts.nShards
+				+ ": E-step over " + stateSetTrees.size() + " trees...");
+		EStepCounts counts = EStepCounts.tally(grammar, lexicon,
+				stateSetTrees, opts.rare);
+		System.out.println("done: " + counts.getLogLikelihood());
+		if (!counts.save(opts.outFileName)) {
+			System.out.println("Saving the counts failed!");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Adds up the counts files, runs the M-step and saves the new grammar
+	 * and lexicon to outFileName. Returns the training likelihood of the
+	 * previous grammar.
+	 */
+	static double reduce(String grammarFile, String[] countsFiles,
+			int unkThreshold, String outFileName) {
+		ParserData pData = loadGrammar(grammarFile);
+		EStepCounts total = null;
+		for (String countsFile : countsFiles) {
+			EStepCounts counts = EStepCounts.load(countsFile);
+			if (counts == null) {
+				System.out.println("Failed to load the counts from "
+						+ countsFile + ".");
+				System.exit(1);
+			}
+			if (total == null)
+				total = counts;
+			else
+				total.add(counts);
+		}
+		System.out.println("The previous grammar gives a training likelihood"
+				+ " of " + total.getLogLikelihood() + " over "
+				+ total.getNumTrees() + " trees.");
+		total.maximize(unkThreshold);
+		ParserData newPData = new ParserData(total.getLexicon(), total
+				.getGrammar(), null, Numberer.getNumberers(),
+				total.getGrammar().numSubStates, pData.v_markov,
+				pData.h_markov, pData.bin);
+		System.out.println("Saving grammar to " + outFileName + ".");
+		if (newPData.Save(outFileName))
+			System.out.println("Saving successful.");
+		else {
+			System.out.println("Saving failed!");
+			System.exit(1);
+		}
+		return total.getLogLikelihood();
+	}
+
+	/**
+	 * Runs each iteration as nShards map processes followed by a reduce in
+	 * this process. The grammar of iteration i is saved to outFileName-it-i
+	 * and the last one to outFileName.
+	 */
+	static void runLocally(Options opts, String[] args) {
+		List<String> taskArgs = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (TASK_OPTIONS.contains(args[i]))
+				i++;
+			else
+				taskArgs.add(args[i]);
+		}
+		String java = System.getProperty("java.home") + File.separator
+				+ "bin" + File.separator + "java";
+		String grammarFile = opts.grammarFile;
+		for (int iter = 1; iter <= opts.iterations; iter++) {
+			String[] countsFiles = new String[opts.nShards];
+			Process[] processes = new Process[opts.nShards];
+			for (int shard = 0; shard < opts.nShards; shard++) {
+				countsFiles[shard] = opts.outFileName + "-it-" + iter
+						+ "-counts-" + shard;
+				List<String> command = new ArrayList<String>();
+				command.add(java);
+				for (String jvmArg : opts.jvmArgs.trim().split("\\s+")) {
+					if (jvmArg.length() > 0)
+						command.add(jvmArg);
+				}
+				command.add("-cp");
+				command.add(System.getProperty("java.class.path"));
+				command.add(ShardedEM.class.getName());
+				command.addAll(Arrays.asList("-mode", "map", "-gr",
+						grammarFile, "-shard", Integer.toString(shard),
+						"-out", countsFiles[shard]));
+				command.addAll(taskArgs);
+				try {
+					processes[shard] = new ProcessBuilder(command)
+							.redirectErrorStream(true).start();
+				} catch (IOException e) {
+					System.out.println("Could not start the map task: " + e);
+					System.exit(1);
+				}
+				new StreamCopier(processes[shard].getInputStream(),
+						countsFiles[shard] + ".log").start();
+			}
+			for (int shard = 0; shard < opts.nShards; shard++) {
+				int exitValue = -1;
+				try {
+					exitValue = processes[shard].waitFor();
+				} catch (InterruptedException e) {
+				}
+				if (exitValue != 0) {
+					System.out.println("Map task " + shard
+							+ " failed, see " + countsFiles[shard] + ".log");
+					System.exit(1);
+				}
+			}
+			String newGrammarFile = (iter == opts.iterations) ? opts.outFileName
+					: opts.outFileName + "-it-" + iter;
+			System.out.println("Iteration " + iter + ":");
+			reduce(grammarFile, countsFiles, opts.rare, newGrammarFile);
+			for (String countsFile : countsFiles) {
+				new File(countsFile).delete();
+				new File(countsFile + ".log").delete();
+			}
+			grammarFile = newGrammarFile;
+		}
+	}
+
+	/** Copies the output of a map task to its log file. */
+	static class StreamCopier extends Thread {
+		InputStream in;
+		String fileName;
+
+		StreamCopier(InputStream in, String fileName) {
+			this.in = in;
+			this.fileName = fileName;
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			try {
+				OutputStream out = new FileOutputStream(fileName);
+				byte[] buffer = new byte[8192];
+				int n;
+				while ((n = in.read(buffer)) >= 0) {
+					out.write(buffer, 0, n);
+				}
+				out.close();
+			} catch (IOException e) {
+				System.out.println("Could not copy the output to " + fileName
+						+ ": " + e);
+			}
+		}
+	}
+
+}
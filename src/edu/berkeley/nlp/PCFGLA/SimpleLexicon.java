@@ -130,7 +130,12 @@ public class SimpleLexicon implements java.io.Serializable, Lexicon {
 
 	public double[] score(StateSet stateSet, short tag, boolean noSmoothing,
 			boolean isSignature) {
-		double[] res = new double[numSubStates[tag]];
+		return score(stateSet, tag, noSmoothing, isSignature,
+				new double[numSubStates[tag]]);
+	}
+
+	public double[] score(StateSet stateSet, short tag, boolean noSmoothing,
+			boolean isSignature, double[] res) {
 		int globalWordIndex = stateSet.wordIndex;
 		if (globalWordIndex == -2)
 			globalWordIndex = stateSet.wordIndex = wordIndexer.indexOf(stateSet
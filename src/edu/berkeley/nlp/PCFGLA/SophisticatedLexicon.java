@@ -85,6 +85,11 @@ public class SophisticatedLexicon implements java.io.Serializable, Lexicon {
 	protected transient String lastSignature = "";
 	protected transient int lastSentencePosition = -1;
 	protected transient String lastWordToSignaturize = "";
+	/**
+	 * The signatures of the words trainTree saw in non-initial positions,
+	 * where the signature does not depend on the counts collected so far.
+	 */
+	private transient Map<String, String> trainingSignatures;
 	private int unknownLevel = 5; // different modes for unknown words, 5 is
 									// english specific
 	/**
@@ -878,6 +883,12 @@ public class SophisticatedLexicon implements java.io.Serializable, Lexicon {
 				isSignature);
 	}
 
+	public double[] score(StateSet stateSet, short tag, boolean noSmoothing,
+			boolean isSignature, double[] scores) {
+		return score(stateSet.getWord(), tag, stateSet.from, noSmoothing,
+				isSignature, scores);
+	}
+
 	/**
 	 * Get the score of this word with this tag (as an IntTaggedWord) at this
 	 * loc. (Presumably an estimate of P(word | tag).)
@@ -904,6 +915,16 @@ public class SophisticatedLexicon implements java.io.Serializable, Lexicon {
 	 */
 	public double[] score(String word, short tag, int loc, boolean noSmoothing,
 			boolean isSignature) {
+		return score(word, tag, loc, noSmoothing, isSignature,
+				new double[numSubStates[tag]]);
+	}
+
+	/**
+	 * Puts the scores in resultArray, which must be all zeros, unless the
+	 * lexicon is conditional.
+	 */
+	private double[] score(String word, short tag, int loc,
+			boolean noSmoothing, boolean isSignature, double[] resultArray) {
 		if (isConditional)
 			return scoreConditional(word, tag, loc, noSmoothing, isSignature);
 		double c_W = wordCounter.getCount(word);
@@ -912,7 +933,8 @@ public class SophisticatedLexicon implements java.io.Serializable, Lexicon {
 		// simulate no smoothing
 		// smooth[0] = 0.0; smooth[1] = 0.0;
 
-		double[] resultArray = new double[numSubStates[tag]];
+		double[] c_TWs = (wordToTagCounters[tag] != null) ? wordToTagCounters[tag]
+				.get(word) : null;
 
 		for (int substate = 0; substate < numSubStates[tag]; substate++) {
 			boolean seen = (c_W > 0.0);
@@ -924,9 +946,8 @@ public class SophisticatedLexicon implements java.io.Serializable, Lexicon {
 					continue;
 
 				double c_TW = 0;
-				if (wordToTagCounters[tag] != null
-						&& wordToTagCounters[tag].get(word) != null) {
-					c_TW = wordToTagCounters[tag].get(word)[substate];
+				if (c_TWs != null) {
+					c_TW = c_TWs[substate];
 				}
 				// if (c_TW==0) continue;
 
@@ -1108,6 +1129,52 @@ public class SophisticatedLexicon implements java.io.Serializable, Lexicon {
 		return wordCounter;
 	}
 
+	/**
+	 * Adds the counts that trainTree collected in other, a lexicon with the
+	 * same states and substates, to the counts of this one, so that the trees
+	 * can be split among several lexicons. Call it before tieRareWordStats.
+	 * Count arrays of words this lexicon has not seen are taken over rather
+	 * than copied, so other should not be used afterwards.
+	 */
+	public void addCounts(SophisticatedLexicon other) {
+		totalWords += other.totalWords;
+		totalTokens += other.totalTokens;
+		totalUnseenTokens += other.totalUnseenTokens;
+		wordCounter.incrementAll(other.wordCounter);
+		for (int tag = 0; tag < numSubStates.length; tag++) {
+			for (int substate = 0; substate < numSubStates[tag]; substate++) {
+				tagCounter[tag][substate] += other.tagCounter[tag][substate];
+				unseenTagCounter[tag][substate] += other.unseenTagCounter[tag][substate];
+			}
+			wordToTagCounters[tag] = addCounts(wordToTagCounters[tag],
+					other.wordToTagCounters[tag]);
+			unseenWordToTagCounters[tag] = addCounts(
+					unseenWordToTagCounters[tag],
+					other.unseenWordToTagCounters[tag]);
+		}
+	}
+
+	private static HashMap<String, double[]> addCounts(
+			HashMap<String, double[]> counters,
+			HashMap<String, double[]> otherCounters) {
+		if (otherCounters == null)
+			return counters;
+		if (counters == null)
+			return otherCounters;
+		for (Map.Entry<String, double[]> entry : otherCounters.entrySet()) {
+			double[] counts = counters.get(entry.getKey());
+			if (counts == null) {
+				counters.put(entry.getKey(), entry.getValue());
+				continue;
+			}
+			double[] otherCounts = entry.getValue();
+			for (int substate = 0; substate < counts.length; substate++) {
+				counts[substate] += otherCounts[substate];
+			}
+		}
+		return counters;
+	}
+
 	public void tieRareWordStats(int threshold) {
 		for (int ni = 0; ni < numSubStates.length; ni++) {
 			double unseenTagTokens = 0;
@@ -1173,7 +1240,7 @@ public class SophisticatedLexicon implements java.io.Serializable, Lexicon {
 			int nSubStates = tags.get(position).numSubStates();
 			short tag = tags.get(position).getState();
 
-			String sig = getCachedSignature(word, position);
+			String sig = getTrainingSignature(word, position);
 			wordCounter.incrementCount(sig, 0);
 
 			if (unseenWordToTagCounters[tag] == null) {
@@ -1209,6 +1276,17 @@ public class SophisticatedLexicon implements java.io.Serializable, Lexicon {
 					/ sentenceScore;
 			// double weightSum = 0;
 
+			// the word and signature counts are summed up here and stored once
+			// per word, in the same order as incrementing them in the loop
+			boolean rareWord = oldLexicon != null
+					&& oldWordCounter.getCount(word) < threshold + 0.5;
+			boolean sigIsWord = sig.equals(word);
+			double wordCount = wordCounter.getCount(word);
+			double sigCount = wordCounter.getCount(sig);
+			boolean counted = false;
+			double[] tagCounts = tagCounter[tag];
+			double[] unseenTagCounts = unseenTagCounter[tag];
+
 			for (short substate = 0; substate < nSubStates; substate++) {
 				double weight = 1;
 				if (randomness == -1) {
@@ -1239,8 +1317,9 @@ public class SophisticatedLexicon implements java.io.Serializable, Lexicon {
 				// tally in the tag with the given weight
 				substateCounter[substate] += weight;
 				// update the counters
-				tagCounter[tag][substate] += weight;
-				wordCounter.incrementCount(word, weight);
+				tagCounts[substate] += weight;
+				wordCount += weight;
+				counted = true;
 				totalTokens += weight;
 
 				if (Double.isNaN(totalTokens)) {
@@ -1248,11 +1327,13 @@ public class SophisticatedLexicon implements java.io.Serializable, Lexicon {
 							"totalTokens is NaN: this would fail if we let it continue!");
 				}
 
-				if (oldLexicon != null
-						&& oldWordCounter.getCount(word) < threshold + 0.5) {
-					wordCounter.incrementCount(sig, weight);
+				if (rareWord) {
+					if (sigIsWord)
+						wordCount += weight;
+					else
+						sigCount += weight;
 					substateCounter2[substate] += weight;
-					unseenTagCounter[tag][substate] += weight;
+					unseenTagCounts[substate] += weight;
 					totalUnseenTokens += weight;
 				}
 				// if (secondHalf) {
@@ -1280,7 +1361,30 @@ public class SophisticatedLexicon implements java.io.Serializable, Lexicon {
 				// }
 				// }
 			}
+			if (counted) {
+				wordCounter.setCount(word, wordCount);
+				if (!sigIsWord)
+					wordCounter.setCount(sig, sigCount);
+			}
+		}
+	}
+
+	private String getTrainingSignature(String word, int position) {
+		if (position == 0)
+			return getCachedSignature(word, position);
+		if (trainingSignatures == null)
+			trainingSignatures = new HashMap<String, String>();
+		String sig = trainingSignatures.get(word);
+		if (sig == null) {
+			sig = getSignature(word, position);
+			trainingSignatures.put(word, sig);
 		}
+		// leave the cache as getCachedSignature would, the signature of an
+		// initial word is only taken from it if it was the last one asked for
+		lastSignature = sig;
+		lastSentencePosition = position;
+		lastWordToSignaturize = word;
+		return sig;
 	}
 
 	/**
@@ -0,0 +1,19 @@
+package edu.berkeley.nlp.PCFGLA;
+
+import java.util.List;
+
+/**
+ * Decides which spans of a sentence can possibly be constituents before any
+ * grammar is run. CoarseToFineMaxRuleParser closes the other spans before
+ * its coarsest pass (see CoarseToFineMaxRuleParser.setSpanFilter).
+ */
+public interface SpanFilter {
+
+	/**
+	 * Returns allowed[start][end] for 0 <= start < end <= sentence.size().
+	 * Spans over a single word and the span over the whole sentence are
+	 * always kept, whatever is returned for them.
+	 */
+	public boolean[][] getAllowedSpans(List<String> sentence);
+
+}
@@ -11,10 +11,10 @@ import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.util.List;
 
+import edu.berkeley.nlp.io.FastPennTreeReader;
 import edu.berkeley.nlp.syntax.StateSet;
 import edu.berkeley.nlp.syntax.Tree;
 import edu.berkeley.nlp.syntax.Trees;
-import edu.berkeley.nlp.syntax.Trees.PennTreeReader;
 import edu.berkeley.nlp.syntax.Trees.PennTreeRenderer;
 import edu.berkeley.nlp.util.Numberer;
 
@@ -53,6 +53,9 @@ public class TreeLabeler {
 		@Option(name = "-outputFile", usage = "Store output in this file instead of printing it to STDOUT.")
 		public String outputFile;
 
+		@Option(name = "-treebankInput", usage = "Read the input as a treebank file, whose trees can span several lines (Default: one tree per line)")
+		public boolean treebankInput;
+
 		@Option(name = "-prettyPrint", usage = "Print in human readable form rather than one tree per line")
 		public boolean prettyPrint;
 
@@ -179,20 +182,31 @@ public class TreeLabeler {
 							new FileOutputStream(opts.outputFile), "UTF-8"),
 					true);
 
+			// a treebank input is read one tree at a time
+			FastPennTreeReader trees = (opts.treebankInput) ? new FastPennTreeReader(
+					inputData) : null;
 			Tree<String> tree = null;
 			String line = "";
-			while ((line = inputData.readLine()) != null) {
-				if (line.equals("")) {
-					outputData.write("\n");
-					continue;
-				}
-				if (line.equals("(())")) {
-					outputData.write("(())\n");
-					continue;
+			while (true) {
+				if (trees != null) {
+					if (!trees.hasNext())
+						break;
+					tree = trees.next();
+				} else {
+					if ((line = inputData.readLine()) == null)
+						break;
+					if (line.equals("")) {
+						outputData.write("\n");
+						continue;
+					}
+					if (line.equals("(())")) {
+						outputData.write("(())\n");
+						continue;
+					}
+					tree = FastPennTreeReader.parseEasy(line);
+					if (tree == null)
+						continue;
 				}
-				tree = PennTreeReader.parseEasy(line);
-				if (tree == null)
-					continue;
 				if (tree.getYield().get(0).equals("")) { // empty tree -> parse
 															// failure
 					outputData.write("(())\n");
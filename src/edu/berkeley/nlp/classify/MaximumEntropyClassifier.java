@@ -4,6 +4,12 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import edu.berkeley.nlp.math.DifferentiableFunction;
 import edu.berkeley.nlp.math.DoubleArrays;
@@ -32,6 +38,7 @@ public class MaximumEntropyClassifier<I, F, L> implements
 
 		double sigma;
 		int iterations;
+		int nThreads = 1;
 		FeatureExtractor<I, F> featureExtractor;
 
 		public ProbabilisticClassifier<I, L> trainClassifier(
@@ -55,7 +62,7 @@ public class MaximumEntropyClassifier<I, F, L> implements
 			LBFGSMinimizer minimizer = new LBFGSMinimizer(iterations);
 			// build the objective function for this data
 			DifferentiableFunction objective = new ObjectiveFunction<F, L>(
-					encoding, data, indexLinearizer, sigma);
+					encoding, data, indexLinearizer, sigma, nThreads);
 
 			// learn our voting weights
 			if (verbose)
@@ -128,6 +135,15 @@ public class MaximumEntropyClassifier<I, F, L> implements
 			this.iterations = iterations;
 			this.featureExtractor = featureExtractor;
 		}
+
+		/**
+		 * As above, with the objective computed by nThreads threads.
+		 */
+		public Factory(double sigma, int iterations,
+				FeatureExtractor<I, F> featureExtractor, int nThreads) {
+			this(sigma, iterations, featureExtractor);
+			this.nThreads = nThreads;
+		}
 	}
 
 	/**
@@ -135,6 +151,10 @@ public class MaximumEntropyClassifier<I, F, L> implements
 	 * conditional likelihood of the training data, possibly with a penalty for
 	 * large weights. Note that this objective get MINIMIZED so it's the
 	 * negative of the objective we normally think of.
+	 * <p/>
+	 * The data is split into nThreads contiguous shards, each summed by its own
+	 * thread into its own derivative buffer; the buffers and the activation
+	 * arrays are reused from one evaluation to the next.
 	 */
 	public static class ObjectiveFunction<F, L> implements
 			DifferentiableFunction {
@@ -144,6 +164,11 @@ public class MaximumEntropyClassifier<I, F, L> implements
 
 		double sigma;
 
+		int nThreads;
+		double[][] shardDerivatives;
+		double[][] shardActivations;
+		ExecutorService pool;
+
 		double lastValue;
 		double[] lastDerivative;
 		double[] lastX;
@@ -171,7 +196,14 @@ public class MaximumEntropyClassifier<I, F, L> implements
 			}
 		}
 
+		/**
+		 * The minimizer asks for the value and the derivative at the same
+		 * array, so that case is settled by identity. As before, the cache
+		 * holds on to x itself, which callers must not change in place.
+		 */
 		private boolean requiresUpdate(double[] lastX, double[] x) {
+			if (lastX == x)
+				return false;
 			if (lastX == null)
 				return true;
 			for (int i = 0; i < x.length; i++) {
@@ -187,76 +219,131 @@ public class MaximumEntropyClassifier<I, F, L> implements
 		 * log conditional likelihood of the data is, as well as the derivatives
 		 * of that likelihood wrt each weight parameter.
 		 */
-		private Pair<Double, double[]> calculate(double[] x) {
+		private Pair<Double, double[]> calculate(final double[] x) {
 			double objective = 0.0;
-			double[] derivatives = DoubleArrays.constantArray(0.0, dimension());
+			if (nThreads == 1) {
+				objective += calculate(0, x);
+			} else {
+				if (pool == null)
+					pool = Executors.newFixedThreadPool(nThreads,
+							new ThreadFactory() {
+								public Thread newThread(Runnable r) {
+									Thread thread = new Thread(r,
+											"maxent-objective");
+									thread.setDaemon(true);
+									return thread;
+								}
+							});
+				List<Future<Double>> shardObjectives = new ArrayList<Future<Double>>(
+						nThreads);
+				for (int t = 0; t < nThreads; t++) {
+					final int shard = t;
+					shardObjectives.add(pool.submit(new Callable<Double>() {
+						public Double call() {
+							return calculate(shard, x);
+						}
+					}));
+				}
+				try {
+					for (Future<Double> shardObjective : shardObjectives) {
+						objective += shardObjective.get();
+					}
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				} catch (ExecutionException e) {
+					throw new RuntimeException(e.getCause());
+				}
+			}
+			double[] derivatives = DoubleArrays.clone(shardDerivatives[0]);
+			for (int t = 1; t < nThreads; t++) {
+				DoubleArrays.addInPlace(derivatives, shardDerivatives[t]);
+			}
 
-			double[] classActivations = new double[encoding.getNumLabels()];
-			double[] classPosteriors = new double[encoding.getNumLabels()];
+			// Scale by -1 since we are minimizing negative log-liklihood
+			objective *= -1;
+			DoubleArrays.scale(derivatives, -1);
+
+			// L2 Penalty
+			for (int i = 0; i < x.length; ++i) {
+				double weight = x[i];
+				objective += (weight * weight) / (2 * sigma * sigma);
+				derivatives[i] += (weight) / (sigma * sigma);
+			}
+
+			return new Pair<Double, double[]>(objective, derivatives);
+		}
 
-			for (EncodedDatum datum : data) {
-				// For each datum we get the activation for each class
-				// and then the posteriors
+		/**
+		 * The log likelihood of the shard-th part of the data. Its derivative
+		 * is left in shardDerivatives[shard].
+		 */
+		private double calculate(int shard, double[] x) {
+			int numLabels = encoding.getNumLabels();
+			if (shardDerivatives[shard] == null) {
+				shardDerivatives[shard] = new double[dimension()];
+				shardActivations[shard] = new double[numLabels];
+			}
+			double[] derivatives = shardDerivatives[shard];
+			Arrays.fill(derivatives, 0.0);
+			double[] classActivations = shardActivations[shard];
+
+			double objective = 0.0;
+			int end = (int) ((long) data.length * (shard + 1) / nThreads);
+			for (int d = (int) ((long) data.length * shard / nThreads); d < end; d++) {
+				EncodedDatum datum = data[d];
+				// For each datum we get the activation for each class, in one
+				// sweep over the weights of each feature, and then the
+				// posteriors
 				int numActiveFeatures = datum.getNumActiveFeatures();
-				for (int labelIndex = 0; labelIndex < encoding.getNumLabels(); ++labelIndex) {
-					double activation = 0.0;
-					for (int num = 0; num < numActiveFeatures; ++num) {
-						int featureIndex = datum.getFeatureIndex(num);
-						double featureCount = datum.getFeatureCount(num);
-						int linearFeatureIndex = indexLinearizer
-								.getLinearIndex(featureIndex, labelIndex);
-						activation += x[linearFeatureIndex] * featureCount;
+				Arrays.fill(classActivations, 0.0);
+				for (int num = 0; num < numActiveFeatures; ++num) {
+					int base = indexLinearizer.getLinearIndex(datum
+							.getFeatureIndex(num), 0);
+					double featureCount = datum.getFeatureCount(num);
+					for (int labelIndex = 0; labelIndex < numLabels; ++labelIndex) {
+						classActivations[labelIndex] += x[base + labelIndex]
+								* featureCount;
 					}
-					classActivations[labelIndex] = activation;
 				}
 				double logSumActivation = SloppyMath.logAdd(classActivations);
 				int correctLabelIndex = datum.getLabelIndex();
 				// Log Prob
 				objective += (classActivations[correctLabelIndex] - logSumActivation);
-				// Class Posteriors
-				for (int labelIndex = 0; labelIndex < encoding.getNumLabels(); ++labelIndex) {
-					classPosteriors[labelIndex] = SloppyMath
+				// Class Posteriors, in place of the activations
+				for (int labelIndex = 0; labelIndex < numLabels; ++labelIndex) {
+					classActivations[labelIndex] = SloppyMath
 							.exp(classActivations[labelIndex]
 									- logSumActivation);
 				}
 				// Derivative: Feature Expectations
 				for (int num = 0; num < numActiveFeatures; ++num) {
-					int featureIndex = datum.getFeatureIndex(num);
-					int correctLinearFeatureIndex = indexLinearizer
-							.getLinearIndex(featureIndex, correctLabelIndex);
+					int base = indexLinearizer.getLinearIndex(datum
+							.getFeatureIndex(num), 0);
 					double featureCount = datum.getFeatureCount(num);
-					derivatives[correctLinearFeatureIndex] += featureCount;
-					for (int labelIndex = 0; labelIndex < encoding
-							.getNumLabels(); ++labelIndex) {
-						int linearFeatureIndex = indexLinearizer
-								.getLinearIndex(featureIndex, labelIndex);
-						double classProb = classPosteriors[labelIndex];
-						derivatives[linearFeatureIndex] -= classProb
+					derivatives[base + correctLabelIndex] += featureCount;
+					for (int labelIndex = 0; labelIndex < numLabels; ++labelIndex) {
+						derivatives[base + labelIndex] -= classActivations[labelIndex]
 								* featureCount;
 					}
 				}
 			}
-
-			// Scale by -1 since we are minimizing negative log-liklihood
-			objective *= -1;
-			DoubleArrays.scale(derivatives, -1);
-
-			// L2 Penalty
-			for (int i = 0; i < x.length; ++i) {
-				double weight = x[i];
-				objective += (weight * weight) / (2 * sigma * sigma);
-				derivatives[i] += (weight) / (sigma * sigma);
-			}
-
-			return new Pair<Double, double[]>(objective, derivatives);
+			return objective;
 		}
 
 		public ObjectiveFunction(Encoding<F, L> encoding, EncodedDatum[] data,
 				IndexLinearizer indexLinearizer, double sigma) {
+			this(encoding, data, indexLinearizer, sigma, 1);
+		}
+
+		public ObjectiveFunction(Encoding<F, L> encoding, EncodedDatum[] data,
+				IndexLinearizer indexLinearizer, double sigma, int nThreads) {
 			this.indexLinearizer = indexLinearizer;
 			this.encoding = encoding;
 			this.data = data;
 			this.sigma = sigma;
+			this.nThreads = Math.max(1, nThreads);
+			this.shardDerivatives = new double[this.nThreads][];
+			this.shardActivations = new double[this.nThreads][];
 		}
 
 		public double[] unregularizedDerivativeAt(double[] x) {
@@ -357,14 +444,14 @@ public class MaximumEntropyClassifier<I, F, L> implements
 			double[] weights, Encoding<F, L> encoding,
 			IndexLinearizer indexLinearizer) {
 
-		double[] logProbabilities = new double[encoding.getNumLabels()];
-		for (int labelIndex = 0; labelIndex < encoding.getNumLabels(); ++labelIndex) {
-			for (int num = 0; num < datum.getNumActiveFeatures(); ++num) {
-				int featureIndex = datum.getFeatureIndex(num);
-				double featureCount = datum.getFeatureCount(num);
-				int linearFeatureIndex = indexLinearizer.getLinearIndex(
-						featureIndex, labelIndex);
-				logProbabilities[labelIndex] += weights[linearFeatureIndex]
+		int numLabels = encoding.getNumLabels();
+		double[] logProbabilities = new double[numLabels];
+		for (int num = 0; num < datum.getNumActiveFeatures(); ++num) {
+			int base = indexLinearizer.getLinearIndex(datum
+					.getFeatureIndex(num), 0);
+			double featureCount = datum.getFeatureCount(num);
+			for (int labelIndex = 0; labelIndex < numLabels; ++labelIndex) {
+				logProbabilities[labelIndex] += weights[base + labelIndex]
 						* featureCount;
 			}
 		}
@@ -1,21 +1,37 @@
 package edu.berkeley.nlp.crf;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import edu.berkeley.nlp.classify.Encoding;
 import edu.berkeley.nlp.classify.FeatureExtractor;
 import edu.berkeley.nlp.classify.IndexLinearizer;
 import edu.berkeley.nlp.math.DifferentiableFunction;
-import edu.berkeley.nlp.util.Counter;
 import edu.berkeley.nlp.util.Pair;
 
+/**
+ * The negative log likelihood of the training data under a chain CRF, with a
+ * Gaussian prior. The features of the training sequences are extracted once,
+ * in the constructor, and so are the empirical counts. The expected counts
+ * are computed by nThreads threads, each over every nThreads-th sequence and
+ * into a dense buffer of its own.
+ */
 public class CRFObjectiveFunction<V, E, F, L> implements DifferentiableFunction {
-	private final List<? extends LabeledInstanceSequence<V, E, L>> trainingData;
-	private final Encoding<F, L> encoding;
+	private final List<EncodedSequence> trainingData;
 	private final Counts<V, E, F, L> counts;
 	private final IndexLinearizer il;
 	private final double sigma;
+	private final double[] empiricalCounts;
+	private final int nThreads;
+	private final double[][] expectedCounts;
+	private ExecutorService pool;
 
 	double lastValue;
 	double[] lastDerivative;
@@ -25,13 +41,28 @@ public class CRFObjectiveFunction<V, E, F, L> implements DifferentiableFunction
 			List<? extends LabeledInstanceSequence<V, E, L>> trainingData,
 			Encoding<F, L> encoding, FeatureExtractor<V, F> vertexExtractor,
 			FeatureExtractor<E, F> edgeExtractor, double sigma) {
-		this.trainingData = trainingData;
-		this.encoding = encoding;
+		this(trainingData, encoding, vertexExtractor, edgeExtractor, sigma, 1);
+	}
+
+	public CRFObjectiveFunction(
+			List<? extends LabeledInstanceSequence<V, E, L>> trainingData,
+			Encoding<F, L> encoding, FeatureExtractor<V, F> vertexExtractor,
+			FeatureExtractor<E, F> edgeExtractor, double sigma, int nThreads) {
 		this.counts = new Counts<V, E, F, L>(encoding, vertexExtractor,
 				edgeExtractor);
 		this.il = new IndexLinearizer(encoding.getNumFeatures(),
 				encoding.getNumLabels());
 		this.sigma = sigma;
+		this.nThreads = Math.max(1, nThreads);
+		this.trainingData = new ArrayList<EncodedSequence>(trainingData
+				.size());
+		this.empiricalCounts = new double[dimension()];
+		for (LabeledInstanceSequence<V, E, L> s : trainingData) {
+			EncodedSequence encoded = counts.getInference().encodeLabeled(s);
+			counts.addEmpiricalCounts(encoded, empiricalCounts);
+			this.trainingData.add(encoded);
+		}
+		this.expectedCounts = new double[this.nThreads][];
 	}
 
 	public int dimension() {
@@ -67,35 +98,71 @@ public class CRFObjectiveFunction<V, E, F, L> implements DifferentiableFunction
 		return false;
 	}
 
-	private Pair<Double, double[]> calculate(double[] x) {
+	private Pair<Double, double[]> calculate(final double[] x) {
 		double objective = 0.0;
-		double[] derivatives = new double[dimension()];
-		List<Counter<F>> empiricalCounts = counts
-				.getEmpiricalCounts(trainingData);
-		for (int l = 0; l < empiricalCounts.size(); l++) {
-			for (Map.Entry<F, Double> entry : empiricalCounts.get(l).entrySet()) {
-				int index = il.getLinearIndex(
-						encoding.getFeatureIndex(entry.getKey()), l);
-				objective -= entry.getValue() * x[index];
-				derivatives[index] -= entry.getValue();
+		if (nThreads == 1) {
+			objective += addExpectedCounts(0, x);
+		} else {
+			if (pool == null)
+				pool = Executors.newFixedThreadPool(nThreads,
+						new ThreadFactory() {
+							public Thread newThread(Runnable r) {
+								Thread thread = new Thread(r, "crf-objective");
+								thread.setDaemon(true);
+								return thread;
+							}
+						});
+			List<Future<Double>> logZs = new ArrayList<Future<Double>>(
+					nThreads);
+			for (int t = 0; t < nThreads; t++) {
+				final int shard = t;
+				logZs.add(pool.submit(new Callable<Double>() {
+					public Double call() {
+						return addExpectedCounts(shard, x);
+					}
+				}));
+			}
+			try {
+				for (Future<Double> logZ : logZs) {
+					objective += logZ.get();
+				}
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
 			}
 		}
-		Pair<Double, List<Counter<F>>> results = counts
-				.getLogNormalizationAndExpectedCounts(trainingData, x);
-		objective += results.getFirst();
-		List<Counter<F>> expectedCounts = results.getSecond();
-		for (int l = 0; l < expectedCounts.size(); l++) {
-			for (Map.Entry<F, Double> entry : expectedCounts.get(l).entrySet()) {
-				int index = il.getLinearIndex(
-						encoding.getFeatureIndex(entry.getKey()), l);
-				derivatives[index] += entry.getValue();
+		double[] derivatives = new double[dimension()];
+		for (double[] shardCounts : expectedCounts) {
+			for (int i = 0; i < derivatives.length; i++) {
+				derivatives[i] += shardCounts[i];
 			}
 		}
 		for (int i = 0; i < x.length; ++i) {
 			double weight = x[i];
+			objective -= empiricalCounts[i] * weight;
+			derivatives[i] -= empiricalCounts[i];
 			objective += (weight * weight) / (2 * sigma * sigma);
 			derivatives[i] += (weight) / (sigma * sigma);
 		}
 		return Pair.makePair(objective, derivatives);
 	}
+
+	/**
+	 * Computes the expected counts of every nThreads-th training sequence,
+	 * starting from the shard-th, into the buffer of the shard and returns
+	 * their total log normalization constant.
+	 */
+	private double addExpectedCounts(int shard, double[] x) {
+		if (expectedCounts[shard] == null)
+			expectedCounts[shard] = new double[dimension()];
+		double[] shardCounts = expectedCounts[shard];
+		Arrays.fill(shardCounts, 0.0);
+		double logZ = 0.0;
+		for (int i = shard; i < trainingData.size(); i += nThreads) {
+			logZ += counts.addExpectedCounts(trainingData.get(i), x,
+					shardCounts);
+		}
+		return logZ;
+	}
 }
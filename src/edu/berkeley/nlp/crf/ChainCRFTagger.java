@@ -89,14 +89,26 @@ public class ChainCRFTagger<V, E, L> implements Serializable {
 		private final FeatureExtractor<E, F> edgeExtractor;
 		private final double sigma;
 		private final int iterations;
+		private final int nThreads;
 
 		public Factory(FeatureExtractor<V, F> vertexExtractor,
 				FeatureExtractor<E, F> edgeExtractor, double sigma,
 				int iterations) {
+			this(vertexExtractor, edgeExtractor, sigma, iterations, 1);
+		}
+
+		/**
+		 * nThreads threads compute the objective function and its gradient
+		 * during training.
+		 */
+		public Factory(FeatureExtractor<V, F> vertexExtractor,
+				FeatureExtractor<E, F> edgeExtractor, double sigma,
+				int iterations, int nThreads) {
 			this.vertexExtractor = vertexExtractor;
 			this.edgeExtractor = edgeExtractor;
 			this.sigma = sigma;
 			this.iterations = iterations;
+			this.nThreads = nThreads;
 		}
 
 		public ChainCRFTagger<V, E, L> trainTagger(
@@ -104,7 +116,7 @@ public class ChainCRFTagger<V, E, L> implements Serializable {
 			Encoding<F, L> encoding = buildEncoding(trainingData);
 			DifferentiableFunction objective = new CRFObjectiveFunction<V, E, F, L>(
 					trainingData, encoding, vertexExtractor, edgeExtractor,
-					sigma);
+					sigma, nThreads);
 			LBFGSMinimizer minimizer = new LBFGSMinimizer(iterations);
 			Logger.startTrack("Training with LBFGS");
 			double[] w = minimizer.minimize(
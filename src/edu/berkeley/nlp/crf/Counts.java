@@ -5,6 +5,7 @@ import java.util.List;
 
 import edu.berkeley.nlp.classify.Encoding;
 import edu.berkeley.nlp.classify.FeatureExtractor;
+import edu.berkeley.nlp.classify.IndexLinearizer;
 import edu.berkeley.nlp.util.Counter;
 import edu.berkeley.nlp.util.Logger;
 import edu.berkeley.nlp.util.Pair;
@@ -14,6 +15,7 @@ public class Counts<V, E, F, L> {
 	private final FeatureExtractor<V, F> vertexExtractor;
 	private final FeatureExtractor<E, F> edgeExtractor;
 	private final Inference<V, E, F, L> inf;
+	private final IndexLinearizer il;
 
 	public Counts(Encoding<F, L> encoding,
 			FeatureExtractor<V, F> vertexExtractor,
@@ -23,6 +25,12 @@ public class Counts<V, E, F, L> {
 		this.edgeExtractor = edgeExtractor;
 		this.inf = new Inference<V, E, F, L>(encoding, vertexExtractor,
 				edgeExtractor);
+		this.il = new IndexLinearizer(encoding.getNumFeatures(),
+				encoding.getNumLabels());
+	}
+
+	public Inference<V, E, F, L> getInference() {
+		return inf;
 	}
 
 	public List<Counter<F>> getEmpiricalCounts(
@@ -59,12 +67,10 @@ public class Counts<V, E, F, L> {
 		Logger.startTrack("Computing expected counts");
 		int index = 0;
 		for (InstanceSequence<V, E, L> s : sequences) {
-			double[][] alpha = inf.getAlphas(s, w);
-			double[][] beta = inf.getBetas(s, w);
-			totalLogZ += Math.log(inf.getNormalizationConstant(alpha, beta));
-			double[][] vertexPosteriors = inf.getVertexPosteriors(alpha, beta);
-			double[][][] edgePosteriors = inf.getEdgePosteriors(s, w, alpha,
-					beta);
+			double[][] vertexPosteriors = new double[s.getSequenceLength()][numLabels];
+			double[][][] edgePosteriors = new double[s.getSequenceLength()][numLabels][numLabels];
+			totalLogZ += inf.getPosteriors(inf.encode(s), w, vertexPosteriors,
+					edgePosteriors);
 			for (int i = 0; i < s.getSequenceLength(); i++) {
 				Counter<F> vertexFeatures = vertexExtractor.extractFeatures(s
 						.getVertexInstance(i));
@@ -92,4 +98,63 @@ public class Counts<V, E, F, L> {
 		return Pair.makePair(totalLogZ, counts);
 	}
 
+	/**
+	 * Adds the feature counts of the gold labels of the sequence to counts,
+	 * which is indexed like the weights.
+	 */
+	public void addEmpiricalCounts(EncodedSequence s, double[] counts) {
+		int[] gold = s.goldLabels;
+		for (int i = 0; i < s.getSequenceLength(); i++) {
+			addCounts(s.vertexFeatures[i], s.vertexValues[i], gold[i], counts);
+			if (i > 0)
+				addCounts(s.edgeFeatures[i][gold[i - 1]],
+						s.edgeValues[i][gold[i - 1]], gold[i], counts);
+		}
+	}
+
+	/**
+	 * Adds the expected feature counts of the sequence under the weights w to
+	 * counts and returns its log normalization constant.
+	 */
+	public double addExpectedCounts(EncodedSequence s, double[] w,
+			double[] counts) {
+		int n = s.getSequenceLength();
+		int numLabels = encoding.getNumLabels();
+		double[][] vertexPosteriors = new double[n][numLabels];
+		double[][][] edgePosteriors = new double[n][numLabels][numLabels];
+		double logZ = inf.getPosteriors(s, w, vertexPosteriors,
+				edgePosteriors);
+		for (int i = 0; i < n; i++) {
+			int[] features = s.vertexFeatures[i];
+			double[] values = s.vertexValues[i];
+			for (int f = 0; f < features.length; f++) {
+				int offset = il.getLinearIndex(features[f], 0);
+				for (int l = 0; l < numLabels; l++) {
+					counts[offset + l] += values[f] * vertexPosteriors[i][l];
+				}
+			}
+			if (i == 0)
+				continue;
+			for (int pl = 0; pl < numLabels; pl++) {
+				features = s.edgeFeatures[i][pl];
+				values = s.edgeValues[i][pl];
+				for (int f = 0; f < features.length; f++) {
+					int offset = il.getLinearIndex(features[f], 0);
+					for (int cl = 0; cl < numLabels; cl++) {
+						counts[offset + cl] += values[f]
+								* edgePosteriors[i][pl][cl];
+					}
+				}
+			}
+		}
+		return logZ;
+	}
+
+	private void addCounts(int[] features, double[] values, int label,
+			double[] counts) {
+		for (int f = 0; f < features.length; f++) {
+			counts[il.getLinearIndex(features[f], label)] += values[f];
+		}
+	}
+
 }
@@ -0,0 +1,34 @@
+package edu.berkeley.nlp.crf;
+
+/**
+ * The features of an InstanceSequence, extracted once and stored as arrays of
+ * feature indices and values: the vertex features of every position and, for
+ * every position after the first, the edge features for each previous label.
+ * Made by ScoreCalculator.encode, which drops the features that the encoding
+ * does not know.
+ */
+public class EncodedSequence {
+	final int[][] vertexFeatures;
+	final double[][] vertexValues;
+	// position, previous label --> features
+	final int[][][] edgeFeatures;
+	final double[][][] edgeValues;
+	// the gold label indices, or null if the sequence is not labeled
+	int[] goldLabels;
+
+	EncodedSequence(int[][] vertexFeatures, double[][] vertexValues,
+			int[][][] edgeFeatures, double[][][] edgeValues) {
+		this.vertexFeatures = vertexFeatures;
+		this.vertexValues = vertexValues;
+		this.edgeFeatures = edgeFeatures;
+		this.edgeValues = edgeValues;
+	}
+
+	public int getSequenceLength() {
+		return vertexFeatures.length;
+	}
+
+	public int[] getGoldLabels() {
+		return goldLabels;
+	}
+}
@@ -6,6 +6,7 @@ import edu.berkeley.nlp.classify.Encoding;
 import edu.berkeley.nlp.classify.FeatureExtractor;
 import edu.berkeley.nlp.math.DoubleArrays;
 import edu.berkeley.nlp.math.DoubleMatrices;
+import edu.berkeley.nlp.math.SloppyMath;
 import edu.berkeley.nlp.util.ArrayUtil;
 import edu.berkeley.nlp.util.Pair;
 import edu.berkeley.nlp.util.PriorityQueue;
@@ -51,6 +52,69 @@ public class Inference<V, E, F, L> implements Serializable {
 		return beta;
 	}
 
+	public EncodedSequence encode(InstanceSequence<V, E, L> sequence) {
+		return scoreCalculator.encode(sequence);
+	}
+
+	public EncodedSequence encodeLabeled(
+			LabeledInstanceSequence<V, E, L> sequence) {
+		return scoreCalculator.encodeLabeled(sequence);
+	}
+
+	/**
+	 * Forward-backward over the encoded sequence in log space, so that long
+	 * sequences cannot overflow or underflow. Fills in the vertex posteriors
+	 * [position][label] and, from position 1 on, the edge posteriors
+	 * [position][previous label][label], and returns log Z.
+	 */
+	public double getPosteriors(EncodedSequence sequence, double[] w,
+			double[][] vertexPosteriors, double[][][] edgePosteriors) {
+		int n = sequence.getSequenceLength();
+		int numLabels = encoding.getNumLabels();
+		double[][][] scores = new double[n][][];
+		double[][] logAlpha = new double[n][];
+		double[] terms = new double[numLabels];
+
+		logAlpha[0] = scoreCalculator.getLinearVertexScores(sequence, 0, w);
+		for (int i = 1; i < n; i++) {
+			scores[i] = scoreCalculator.getLinearScoreMatrix(sequence, i, w);
+			logAlpha[i] = new double[numLabels];
+			for (int lc = 0; lc < numLabels; lc++) {
+				for (int lp = 0; lp < numLabels; lp++) {
+					terms[lp] = logAlpha[i - 1][lp] + scores[i][lp][lc];
+				}
+				logAlpha[i][lc] = SloppyMath.logAdd(terms);
+			}
+		}
+		double logZ = SloppyMath.logAdd(logAlpha[n - 1]);
+
+		double[][] logBeta = new double[n][numLabels];
+		for (int i = n - 2; i >= 0; i--) {
+			for (int lp = 0; lp < numLabels; lp++) {
+				for (int lc = 0; lc < numLabels; lc++) {
+					terms[lc] = scores[i + 1][lp][lc] + logBeta[i + 1][lc];
+				}
+				logBeta[i][lp] = SloppyMath.logAdd(terms);
+			}
+		}
+
+		for (int i = 0; i < n; i++) {
+			for (int l = 0; l < numLabels; l++) {
+				vertexPosteriors[i][l] = Math.exp(logAlpha[i][l]
+						+ logBeta[i][l] - logZ);
+			}
+			if (i == 0)
+				continue;
+			for (int lp = 0; lp < numLabels; lp++) {
+				for (int lc = 0; lc < numLabels; lc++) {
+					edgePosteriors[i][lp][lc] = Math.exp(logAlpha[i - 1][lp]
+							+ scores[i][lp][lc] + logBeta[i][lc] - logZ);
+				}
+			}
+		}
+		return logZ;
+	}
+
 	public Pair<int[][][][], double[][][]> getKBestChartAndBacktrace(
 			InstanceSequence<V, E, L> sequence, double[] w, int k) {
 		int n = sequence.getSequenceLength();
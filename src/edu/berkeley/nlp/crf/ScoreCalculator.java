@@ -1,6 +1,8 @@
 package edu.berkeley.nlp.crf;
 
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Map;
 
 import edu.berkeley.nlp.classify.Encoding;
 import edu.berkeley.nlp.classify.FeatureExtractor;
@@ -76,6 +78,116 @@ public class ScoreCalculator<V, E, F, L> implements Serializable {
 		return s;
 	}
 
+	/** The features of the sequence, extracted and indexed once. */
+	public EncodedSequence encode(InstanceSequence<V, E, L> sequence) {
+		int n = sequence.getSequenceLength();
+		int numLabels = encoding.getNumLabels();
+		int[][] vertexFeatures = new int[n][];
+		double[][] vertexValues = new double[n][];
+		int[][][] edgeFeatures = new int[n][][];
+		double[][][] edgeValues = new double[n][][];
+		for (int i = 0; i < n; i++) {
+			Counter<F> features = vertexExtractor.extractFeatures(sequence
+					.getVertexInstance(i));
+			vertexFeatures[i] = featureIndices(features);
+			vertexValues[i] = featureValues(features);
+			if (i == 0)
+				continue;
+			edgeFeatures[i] = new int[numLabels][];
+			edgeValues[i] = new double[numLabels][];
+			for (int vp = 0; vp < numLabels; vp++) {
+				features = edgeExtractor.extractFeatures(sequence
+						.getEdgeInstance(i, encoding.getLabel(vp)));
+				edgeFeatures[i][vp] = featureIndices(features);
+				edgeValues[i][vp] = featureValues(features);
+			}
+		}
+		return new EncodedSequence(vertexFeatures, vertexValues, edgeFeatures,
+				edgeValues);
+	}
+
+	/** encode(sequence) together with the indices of its gold labels. */
+	public EncodedSequence encodeLabeled(
+			LabeledInstanceSequence<V, E, L> sequence) {
+		EncodedSequence encoded = encode(sequence);
+		encoded.goldLabels = new int[sequence.getSequenceLength()];
+		for (int i = 0; i < encoded.goldLabels.length; i++) {
+			encoded.goldLabels[i] = encoding.getLabelIndex(sequence
+					.getGoldLabel(i));
+		}
+		return encoded;
+	}
+
+	private int[] featureIndices(Counter<F> features) {
+		int n = 0;
+		for (F feature : features.keySet()) {
+			if (encoding.hasFeature(feature))
+				n++;
+		}
+		int[] indices = new int[n];
+		n = 0;
+		for (F feature : features.keySet()) {
+			if (encoding.hasFeature(feature))
+				indices[n++] = encoding.getFeatureIndex(feature);
+		}
+		return indices;
+	}
+
+	private double[] featureValues(Counter<F> features) {
+		int n = 0;
+		for (F feature : features.keySet()) {
+			if (encoding.hasFeature(feature))
+				n++;
+		}
+		double[] values = new double[n];
+		n = 0;
+		for (Map.Entry<F, Double> entry : features.entrySet()) {
+			if (encoding.hasFeature(entry.getKey()))
+				values[n++] = entry.getValue();
+		}
+		return values;
+	}
+
+	public double[] getLinearVertexScores(EncodedSequence sequence,
+			int index, double[] w) {
+		double[] s = new double[encoding.getNumLabels()];
+		addScores(sequence.vertexFeatures[index],
+				sequence.vertexValues[index], w, s);
+		return s;
+	}
+
+	public double[][] getLinearScoreMatrix(EncodedSequence sequence,
+			int index, double[] w) {
+		int numLabels = encoding.getNumLabels();
+		double[][] M = new double[numLabels][numLabels];
+		double[] vertexScores = getLinearVertexScores(sequence, index, w);
+		double[] edgeScores = new double[numLabels];
+		for (int vp = 0; vp < numLabels; vp++) {
+			Arrays.fill(edgeScores, 0.0);
+			addScores(sequence.edgeFeatures[index][vp],
+					sequence.edgeValues[index][vp], w, edgeScores);
+			for (int vc = 0; vc < numLabels; vc++) {
+				M[vp][vc] = vertexScores[vc] + edgeScores[vc];
+			}
+		}
+		return M;
+	}
+
+	/**
+	 * Adds the scores of the features for all labels at once: the weights of a
+	 * feature are adjacent in w, one per label.
+	 */
+	private void addScores(int[] features, double[] values, double[] w,
+			double[] scores) {
+		for (int f = 0; f < features.length; f++) {
+			int offset = il.getLinearIndex(features[f], 0);
+			double value = values[f];
+			for (int l = 0; l < scores.length; l++) {
+				scores[l] += value * w[offset + l];
+			}
+		}
+	}
+
 	private double dotProduct(Counter<F> features, int labelIndex, double[] w) {
 		double val = 0.0;
 		for (F feature : features.keySet()) {
@@ -412,7 +412,7 @@ public class DefaultLinearizer implements Linearizer, Serializable {
 		return nGrammarWeights + nLexiconWeights + nSpanWeights;
 	}
 
-	public void increment(double[] counts, StateSet stateSet, int tag,
+	public void increment(SparseCounts counts, StateSet stateSet, int tag,
 			double[] weights, boolean isGold) {
 		int globalSigIndex = stateSet.sigIndex;
 		if (globalSigIndex != -1) {
@@ -420,9 +420,9 @@ public class DefaultLinearizer implements Linearizer, Serializable {
 			if (startIndexWord >= 0) { // System.out.println("incrementing scores for unseen signature tag");
 				for (int i = 0; i < nSubstates; i++) {
 					if (isGold)
-						counts[startIndexWord++] += weights[i];
+						counts.add(startIndexWord++, weights[i]);
 					else
-						counts[startIndexWord++] -= weights[i];
+						counts.add(startIndexWord++, -weights[i]);
 				}
 			}
 		}
@@ -431,9 +431,9 @@ public class DefaultLinearizer implements Linearizer, Serializable {
 		if (startIndexWord >= 0) {
 			for (int i = 0; i < nSubstates; i++) {
 				if (isGold)
-					counts[startIndexWord++] += weights[i];
+					counts.add(startIndexWord++, weights[i]);
 				else
-					counts[startIndexWord++] -= weights[i];
+					counts.add(startIndexWord++, -weights[i]);
 				weights[i] = 0;
 			}
 		} else {
@@ -443,8 +443,8 @@ public class DefaultLinearizer implements Linearizer, Serializable {
 		}
 	}
 
-	public void increment(double[] counts, UnaryRule rule, double[] weights,
-			boolean isGold) {
+	public void increment(SparseCounts counts, UnaryRule rule,
+			double[] weights, boolean isGold) {
 		int thisStartIndex = rule.identifier;
 		int curInd = 0;
 		int nSubstatesParent = (rule.parentState == 0) ? 1 : nSubstates;
@@ -452,16 +452,16 @@ public class DefaultLinearizer implements Linearizer, Serializable {
 			// if (scores[cp]==null) continue;
 			for (int np = 0; np < nSubstatesParent; np++) {
 				if (isGold)
-					counts[thisStartIndex++] += weights[curInd];
+					counts.add(thisStartIndex++, weights[curInd]);
 				else
-					counts[thisStartIndex++] -= weights[curInd];
+					counts.add(thisStartIndex++, -weights[curInd]);
 				weights[curInd++] = 0;
 			}
 		}
 	}
 
-	public void increment(double[] counts, BinaryRule rule, double[] weights,
-			boolean isGold) {
+	public void increment(SparseCounts counts, BinaryRule rule,
+			double[] weights, boolean isGold) {
 		int thisStartIndex = rule.identifier;
 
 		int curInd = 0;
@@ -470,9 +470,9 @@ public class DefaultLinearizer implements Linearizer, Serializable {
 				// if (scores[cp]==null) continue;
 				for (int np = 0; np < nSubstates; np++) {
 					if (isGold)
-						counts[thisStartIndex++] += weights[curInd];
+						counts.add(thisStartIndex++, weights[curInd]);
 					else
-						counts[thisStartIndex++] -= weights[curInd];
+						counts.add(thisStartIndex++, -weights[curInd]);
 					weights[curInd++] = 0;
 				}
 			}
@@ -643,7 +643,7 @@ public class DefaultLinearizer implements Linearizer, Serializable {
 		return getLinearizedGrammar(false);
 	}
 
-	public void increment(double[] counts, List<StateSet> sentence,
+	public void increment(SparseCounts counts, List<StateSet> sentence,
 			double[][][] weights, boolean isGold) {
 		int length = sentence.size();
 		int firstIndex, lastIndex;
@@ -659,7 +659,7 @@ public class DefaultLinearizer implements Linearizer, Serializable {
 						continue;
 					sig *= nClasses;
 					for (int c = 0; c < nClasses; c++) {
-						counts[startIndexPunctuation + sig + c] -= weights[start][end][c];
+						counts.add(startIndexPunctuation + sig + c, -weights[start][end][c]);
 					}
 				}
 			}
@@ -687,10 +687,10 @@ public class DefaultLinearizer implements Linearizer, Serializable {
 					continue;
 
 				if (spanPredictor.useFirstAndLast) {
-					counts[firstI + c] -= t;
+					counts.add(firstI + c, -t);
 				}
 				if (spanPredictor.usePreviousAndNext && previousIndex != -1) {
-					counts[prevI + c] -= t;
+					counts.add(prevI + c, -t);
 				}
 			}
 			if (spanPredictor.useBeginAndEndPairs && previousIndex != -1) {
@@ -702,7 +702,7 @@ public class DefaultLinearizer implements Linearizer, Serializable {
 						double t = total[c];
 						if (t == 0)
 							continue;
-						counts[beginI + c] -= t;
+						counts.add(beginI + c, -t);
 					}
 				}
 			}
@@ -727,10 +727,10 @@ public class DefaultLinearizer implements Linearizer, Serializable {
 			int nextI = startIndexNext + (nextIndex * nClasses);
 			for (int c = 0; c < total.length; c++) {
 				if (spanPredictor.useFirstAndLast) {
-					counts[lastI + c] -= total[c];
+					counts.add(lastI + c, -total[c]);
 				}
 				if (spanPredictor.usePreviousAndNext && nextIndex != -1) {
-					counts[nextI + c] -= total[c];
+					counts.add(nextI + c, -total[c]);
 				}
 			}
 			if (spanPredictor.useBeginAndEndPairs && nextIndex != -1) {
@@ -739,7 +739,7 @@ public class DefaultLinearizer implements Linearizer, Serializable {
 				if (endI >= 0) {
 					endI += startIndexEndPair;
 					for (int c = 0; c < total.length; c++) {
-						counts[endI + c] -= total[c];
+						counts.add(endI + c, -total[c]);
 					}
 				}
 			}
@@ -113,7 +113,7 @@ public class HiearchicalAdaptiveLinearizer extends HierarchicalLinearizer {
 	}
 
 	@Override
-	public void increment(double[] counts, StateSet stateSet, int tag,
+	public void increment(SparseCounts counts, StateSet stateSet, int tag,
 			double[] weights, boolean isGold) {
 		if (!(stateSet instanceof StateSetWithFeatures)) {
 			int globalSigIndex = stateSet.sigIndex;
@@ -126,9 +126,9 @@ public class HiearchicalAdaptiveLinearizer extends HierarchicalLinearizer {
 					short[] mapping = rule.mapping;
 					for (int i = 0; i < nSubstates; i++) {
 						if (isGold)
-							counts[startIndexWord + mapping[i]] += weights[i];
+							counts.add(startIndexWord + mapping[i], weights[i]);
 						else
-							counts[startIndexWord + mapping[i]] -= weights[i];
+							counts.add(startIndexWord + mapping[i], -weights[i]);
 					}
 				}
 			}
@@ -145,9 +145,9 @@ public class HiearchicalAdaptiveLinearizer extends HierarchicalLinearizer {
 				short[] mapping = rule.mapping;
 				for (int i = 0; i < nSubstates; i++) {
 					if (isGold)
-						counts[startIndexWord + mapping[i]] += weights[i];
+						counts.add(startIndexWord + mapping[i], weights[i]);
 					else
-						counts[startIndexWord + mapping[i]] -= weights[i];
+						counts.add(startIndexWord + mapping[i], -weights[i]);
 					weights[i] = 0;
 				}
 			}
@@ -165,9 +165,9 @@ public class HiearchicalAdaptiveLinearizer extends HierarchicalLinearizer {
 				short[] mapping = rule.mapping;
 				for (int i = 0; i < nSubstates; i++) {
 					if (isGold)
-						counts[startIndexWord + mapping[i]] += weights[i];
+						counts.add(startIndexWord + mapping[i], weights[i]);
 					else
-						counts[startIndexWord + mapping[i]] -= weights[i];
+						counts.add(startIndexWord + mapping[i], -weights[i]);
 				}
 			}
 			for (int i = 0; i < nSubstates; i++) {
@@ -177,8 +177,8 @@ public class HiearchicalAdaptiveLinearizer extends HierarchicalLinearizer {
 	}
 
 	@Override
-	public void increment(double[] counts, BinaryRule rule, double[] weights,
-			boolean isGold) {
+	public void increment(SparseCounts counts, BinaryRule rule,
+			double[] weights, boolean isGold) {
 		HierarchicalAdaptiveBinaryRule hr = (HierarchicalAdaptiveBinaryRule) rule;
 		int thisStartIndex = hr.identifier;
 		if (true) {
@@ -187,9 +187,9 @@ public class HiearchicalAdaptiveLinearizer extends HierarchicalLinearizer {
 				if (val > 0) {
 					weights[curInd] = 0;
 					if (isGold)
-						counts[thisStartIndex + curInd] += val;
+						counts.add(thisStartIndex + curInd, val);
 					else
-						counts[thisStartIndex + curInd] -= val;
+						counts.add(thisStartIndex + curInd, -val);
 				}
 				// System.out.println(counts[thisStartIndex + curInd]);
 			}
@@ -202,7 +202,7 @@ public class HiearchicalAdaptiveLinearizer extends HierarchicalLinearizer {
 						double val = weights[curInd];
 						short mapping[][][] = hr.mapping;
 						if (val > 0) {
-							counts[thisStartIndex + mapping[lp][rp][np]] += val;
+							counts.add(thisStartIndex + mapping[lp][rp][np], val);
 							weights[curInd] = 0;
 						}
 						curInd++;
@@ -213,8 +213,8 @@ public class HiearchicalAdaptiveLinearizer extends HierarchicalLinearizer {
 	}
 
 	@Override
-	public void increment(double[] counts, UnaryRule rule, double[] weights,
-			boolean isGold) {
+	public void increment(SparseCounts counts, UnaryRule rule,
+			double[] weights, boolean isGold) {
 		HierarchicalAdaptiveUnaryRule hr = (HierarchicalAdaptiveUnaryRule) rule;
 		int thisStartIndex = hr.identifier;
 		if (true) {
@@ -225,9 +225,9 @@ public class HiearchicalAdaptiveLinearizer extends HierarchicalLinearizer {
 				if (val > 0) {
 					weights[curInd] = 0;
 					if (isGold)
-						counts[thisStartIndex + curInd] += val;
+						counts.add(thisStartIndex + curInd, val);
 					else
-						counts[thisStartIndex + curInd] -= val;
+						counts.add(thisStartIndex + curInd, -val);
 				}
 				// System.out.println(counts[thisStartIndex + curInd]);
 			}
@@ -239,9 +239,9 @@ public class HiearchicalAdaptiveLinearizer extends HierarchicalLinearizer {
 					short[][] mapping = hr.mapping;
 					if (val > 0) {
 						if (isGold)
-							counts[thisStartIndex + mapping[cp][0]] += val;
+							counts.add(thisStartIndex + mapping[cp][0], val);
 						else
-							counts[thisStartIndex + mapping[cp][0]] -= val;
+							counts.add(thisStartIndex + mapping[cp][0], -val);
 						weights[curInd] = 0;
 					}
 					curInd++;
@@ -256,9 +256,9 @@ public class HiearchicalAdaptiveLinearizer extends HierarchicalLinearizer {
 					short[][] mapping = hr.mapping;
 					if (val > 0) {
 						if (isGold)
-							counts[thisStartIndex + mapping[cp][np]] += val;
+							counts.add(thisStartIndex + mapping[cp][np], val);
 						else
-							counts[thisStartIndex + mapping[cp][np]] -= val;
+							counts.add(thisStartIndex + mapping[cp][np], -val);
 						weights[curInd] = 0;
 					}
 					curInd++;
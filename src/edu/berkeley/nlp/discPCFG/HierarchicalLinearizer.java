@@ -309,7 +309,7 @@ public class HierarchicalLinearizer extends DefaultLinearizer {
 	}
 
 	@Override
-	public void increment(double[] counts, StateSet stateSet, int tag,
+	public void increment(SparseCounts counts, StateSet stateSet, int tag,
 			double[] weights, boolean isGold) {
 		int globalSigIndex = stateSet.sigIndex;
 		if (globalSigIndex != -1) {
@@ -318,9 +318,9 @@ public class HierarchicalLinearizer extends DefaultLinearizer {
 				int finalLevel = lexicon.getFinalLevel(globalSigIndex, tag);
 				for (int i = 0; i < nSubstates; i++) {
 					if (isGold)
-						counts[startIndexWord + lexiconMapping[finalLevel][i]] += weights[i];
+						counts.add(startIndexWord + lexiconMapping[finalLevel][i], weights[i]);
 					else
-						counts[startIndexWord + lexiconMapping[finalLevel][i]] -= weights[i];
+						counts.add(startIndexWord + lexiconMapping[finalLevel][i], -weights[i]);
 				}
 			}
 		}
@@ -330,9 +330,9 @@ public class HierarchicalLinearizer extends DefaultLinearizer {
 			int finalLevel = lexicon.getFinalLevel(globalWordIndex, tag);
 			for (int i = 0; i < nSubstates; i++) {
 				if (isGold)
-					counts[startIndexWord + lexiconMapping[finalLevel][i]] += weights[i];
+					counts.add(startIndexWord + lexiconMapping[finalLevel][i], weights[i]);
 				else
-					counts[startIndexWord + lexiconMapping[finalLevel][i]] -= weights[i];
+					counts.add(startIndexWord + lexiconMapping[finalLevel][i], -weights[i]);
 				weights[i] = 0;
 			}
 		} else {
@@ -343,8 +343,8 @@ public class HierarchicalLinearizer extends DefaultLinearizer {
 	}
 
 	@Override
-	public void increment(double[] counts, UnaryRule rule, double[] weights,
-			boolean isGold) {
+	public void increment(SparseCounts counts, UnaryRule rule,
+			double[] weights, boolean isGold) {
 		HierarchicalUnaryRule hr = (HierarchicalUnaryRule) rule;
 		int thisStartIndex = hr.identifier;
 		int finalLevel = hr.lastLevel;
@@ -354,9 +354,9 @@ public class HierarchicalLinearizer extends DefaultLinearizer {
 				double val = weights[curInd];
 				if (val > 0) {
 					if (isGold)
-						counts[thisStartIndex + lexiconMapping[finalLevel][cp]] += val;
+						counts.add(thisStartIndex + lexiconMapping[finalLevel][cp], val);
 					else
-						counts[thisStartIndex + lexiconMapping[finalLevel][cp]] -= val;
+						counts.add(thisStartIndex + lexiconMapping[finalLevel][cp], -val);
 					weights[curInd] = 0;
 				}
 				curInd++;
@@ -370,11 +370,11 @@ public class HierarchicalLinearizer extends DefaultLinearizer {
 				double val = weights[curInd];
 				if (val > 0) {
 					if (isGold)
-						counts[thisStartIndex
-								+ unaryMapping[finalLevel][cp][np]] += val;
+						counts.add(thisStartIndex
+								+ unaryMapping[finalLevel][cp][np], val);
 					else
-						counts[thisStartIndex
-								+ unaryMapping[finalLevel][cp][np]] -= val;
+						counts.add(thisStartIndex
+								+ unaryMapping[finalLevel][cp][np], -val);
 					weights[curInd] = 0;
 				}
 				curInd++;
@@ -383,8 +383,8 @@ public class HierarchicalLinearizer extends DefaultLinearizer {
 	}
 
 	@Override
-	public void increment(double[] counts, BinaryRule rule, double[] weights,
-			boolean isGold) {
+	public void increment(SparseCounts counts, BinaryRule rule,
+			double[] weights, boolean isGold) {
 		HierarchicalBinaryRule hr = (HierarchicalBinaryRule) rule;
 		int thisStartIndex = hr.identifier;
 		int finalLevel = hr.lastLevel;
@@ -396,11 +396,11 @@ public class HierarchicalLinearizer extends DefaultLinearizer {
 					double val = weights[curInd];
 					if (val > 0) {
 						if (isGold)
-							counts[thisStartIndex
-									+ binaryMapping[finalLevel][lp][rp][np]] += val;
+							counts.add(thisStartIndex
+									+ binaryMapping[finalLevel][lp][rp][np], val);
 						else
-							counts[thisStartIndex
-									+ binaryMapping[finalLevel][lp][rp][np]] -= val;
+							counts.add(thisStartIndex
+									+ binaryMapping[finalLevel][lp][rp][np], -val);
 						weights[curInd] = 0;
 					}
 					curInd++;
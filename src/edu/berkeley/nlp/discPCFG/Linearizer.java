@@ -33,16 +33,16 @@ public interface Linearizer {
 
 	public SpanPredictor getSpanPredictor();
 
-	public void increment(double[] counts, StateSet stateSet, int tag,
+	public void increment(SparseCounts counts, StateSet stateSet, int tag,
 			double[] weights, boolean isGold);
 
-	public void increment(double[] counts, UnaryRule rule, double[] weights,
-			boolean isGold);
+	public void increment(SparseCounts counts, UnaryRule rule,
+			double[] weights, boolean isGold);
 
-	public void increment(double[] counts, BinaryRule rule, double[] weights,
-			boolean isGold);
+	public void increment(SparseCounts counts, BinaryRule rule,
+			double[] weights, boolean isGold);
 
-	public void increment(double[] counts, List<StateSet> sentence,
+	public void increment(SparseCounts counts, List<StateSet> sentence,
 			double[][][] weights, boolean isGold);
 
 	public int dimension();
@@ -6,6 +6,8 @@ package edu.berkeley.nlp.discPCFG;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
@@ -25,7 +27,12 @@ import edu.berkeley.nlp.PCFGLA.ParserData;
 import edu.berkeley.nlp.PCFGLA.SimpleLexicon;
 import edu.berkeley.nlp.PCFGLA.SpanPredictor;
 import edu.berkeley.nlp.PCFGLA.StateSetTreeList;
+import edu.berkeley.nlp.math.L1Regularizer;
+import edu.berkeley.nlp.math.L2Regularizer;
+import edu.berkeley.nlp.math.ObjectiveItemDifferentiableFunction;
+import edu.berkeley.nlp.math.Regularizer;
 import edu.berkeley.nlp.math.SloppyMath;
+import edu.berkeley.nlp.math.StochasticObjectiveOptimizer;
 import edu.berkeley.nlp.syntax.StateSet;
 import edu.berkeley.nlp.syntax.Tree;
 import edu.berkeley.nlp.util.Numberer;
@@ -68,6 +75,11 @@ public class ParsingObjectiveFunction implements ObjectiveFunction {
 
 	double[] spanGoldCounts;
 
+	// all training trees and their constraints, for minimizeStochastically
+	List<Tree<StateSet>> itemTrees;
+	List<boolean[][][][]> itemConstraints;
+	double[] delinearizedWeights;
+
 	public int dimension() {
 		return dimension;
 	}
@@ -104,6 +116,7 @@ public class ParsingObjectiveFunction implements ObjectiveFunction {
 			}
 
 			System.out.print("Task: ");
+			long countingStart = System.currentTimeMillis();
 
 			Future[] submits = new Future[nProcesses];
 			// pool =
@@ -127,6 +140,8 @@ public class ParsingObjectiveFunction implements ObjectiveFunction {
 			double objective = 0;
 			int nUnparasble = 0, nIncorrectLL = 0;
 			double[] derivatives = new double[dimension];
+			long countingTime = 0, mergingTime = 0, accumulatorBytes = 0;
+			int maxNonZeros = 0;
 			for (int i = 0; i < nProcesses; i++) {
 				Counts counts = null;
 				if (nProcesses == 1) {
@@ -145,9 +160,14 @@ public class ParsingObjectiveFunction implements ObjectiveFunction {
 					}
 				}
 				objective += counts.myObjective;// tasks[i].getMyObjective();
-				for (int j = 0; j < dimension; j++) {
-					derivatives[j] += counts.myDerivatives[j];
-				}
+				long mergeStart = System.currentTimeMillis();
+				if (i == nProcesses - 1)
+					countingTime = mergeStart - countingStart;
+				counts.myDerivatives.addTo(derivatives);
+				mergingTime += System.currentTimeMillis() - mergeStart;
+				accumulatorBytes += counts.myDerivatives.memoryBytes();
+				maxNonZeros = Math.max(maxNonZeros, counts.myDerivatives
+						.nonZeros());
 				nUnparasble += counts.unparsableTrees;
 				nIncorrectLL += counts.incorrectLLTrees;
 			}
@@ -170,6 +190,11 @@ public class ParsingObjectiveFunction implements ObjectiveFunction {
 			}
 
 			System.out.print(" done. ");
+			System.out.printf(
+					"\nCounting took %.1f s, merging %d ms; the largest accumulator touched %d of %d weights, %.1f MB in %d accumulators (dense: %.1f MB).",
+					countingTime / 1000.0, mergingTime, maxNonZeros, dimension,
+					accumulatorBytes / 1048576.0, nProcesses, 8.0 * dimension
+							* nProcesses / 1048576.0);
 			if (nUnparasble > 0)
 				System.out.println(nUnparasble + " trees were not parsable.");
 			if (nIncorrectLL > 0)
@@ -250,11 +275,11 @@ public class ParsingObjectiveFunction implements ObjectiveFunction {
 
 	class Counts {
 		double myObjective;
-		double[] myDerivatives;
+		SparseCounts myDerivatives;
 		int unparsableTrees, incorrectLLTrees;
 
-		public Counts(double myObjective, double[] myDerivatives, int unpars,
-				int incorr) {
+		public Counts(double myObjective, SparseCounts myDerivatives,
+				int unpars, int incorr) {
 			this.myObjective = myObjective;
 			this.myDerivatives = myDerivatives;
 			this.unparsableTrees = unpars;
@@ -262,7 +287,8 @@ public class ParsingObjectiveFunction implements ObjectiveFunction {
 		}
 	}
 
-	class Calculator implements Callable {
+	class Calculator implements Callable,
+			ObjectiveItemDifferentiableFunction<Integer> {
 		// int nGrWeights;
 		ArrayParser gParser;
 		ConstrainedTwoChartsParser eParser;
@@ -274,7 +300,10 @@ public class ParsingObjectiveFunction implements ObjectiveFunction {
 		boolean[][][][][] myConstraints;
 		int unparsableTrees, incorrectLLTrees;
 		boolean doNotProjectConstraints;
-		double[] myDerivatives;
+		double totalBias;
+		// reused from iteration to iteration
+		SparseCounts myDerivatives;
+		SparseCounts itemCounts;
 
 		Calculator(StateSetTreeList myT, String consN, int i, Grammar gr,
 				Lexicon lex, SpanPredictor sp, int dimension, boolean notProject) {
@@ -341,8 +370,10 @@ public class ParsingObjectiveFunction implements ObjectiveFunction {
 		 */
 		public Counts call() {
 			double myObjective = 0;
-			myDerivatives = new double[dimension];
-			// double[] myDerivatives = new double[nCounts];
+			if (myDerivatives == null)
+				myDerivatives = new SparseCounts(dimension);
+			else
+				myDerivatives.clear();
 			unparsableTrees = 0;
 			incorrectLLTrees = 0;
 
@@ -351,13 +382,11 @@ public class ParsingObjectiveFunction implements ObjectiveFunction {
 
 			int i = -1;
 			int block = 0;
-			double totalBias = 0;
+			totalBias = 0;
 			for (Tree<StateSet> stateSetTree : myTrees) {
 				i++;
 				List<StateSet> yield = stateSetTree.getYield();
 
-				boolean noSmoothing = false /* true */, debugOutput = false;
-
 				// parse the sentence
 				boolean[][][][] cons = null;
 				if (consName != null) {
@@ -371,55 +400,10 @@ public class ParsingObjectiveFunction implements ObjectiveFunction {
 						System.exit(-1);
 					}
 				}
-				double allLL = eParser.doConstrainedInsideOutsideScores(yield,
-						cons, noSmoothing, null, null, false);
-
-				// compute the ll of the gold tree
-				double goldLL = (ConditionalTrainer.Options.hierarchicalChart) ? eParser
-						.doInsideOutsideScores(stateSetTree, noSmoothing,
-								debugOutput, eParser.spanScores) : gParser
-						.doInsideOutsideScores(stateSetTree, noSmoothing,
-								debugOutput, eParser.spanScores);
-
+				double ll = addCounts(stateSetTree, cons, myDerivatives);
 				if (i % 500 == 0)
 					System.out.print(".");
-
-				if (!sanityCheckLLs(goldLL, allLL, stateSetTree)) {
-					myObjective += -1000;
-					continue;
-				}
-
-				if (false) { // compute exhaustive iS/oS to get exact
-								// expectations and then compute bias
-					double[] myExpectedCounts = new double[myDerivatives.length];
-					eParser.incrementExpectedCounts(linearizer,
-							myExpectedCounts, yield);
-
-					double[] myExactExpectedCounts = new double[myDerivatives.length];
-					double exactLL = eParser.doConstrainedInsideOutsideScores(
-							yield, null, noSmoothing, null, null, false);
-					eParser.incrementExpectedCounts(linearizer,
-							myExactExpectedCounts, yield);
-
-					double bias = 0;
-					for (int ii = 0; ii < myDerivatives.length; ii++) {
-						double diff = myExpectedCounts[ii]
-								- myExactExpectedCounts[ii];
-						bias += diff * diff;
-					}
-					totalBias += bias;
-					System.out.println(allLL + "\t" + exactLL + "\t" + bias);
-				}
-
-				eParser.incrementExpectedCounts(linearizer, myDerivatives,
-						yield);
-				if (ConditionalTrainer.Options.hierarchicalChart)
-					eParser.incrementExpectedGoldCounts(linearizer,
-							myDerivatives, stateSetTree);
-				else
-					gParser.incrementExpectedGoldCounts(linearizer,
-							myDerivatives, stateSetTree);
-				myObjective += (goldLL - allLL);
+				myObjective += (Double.isNaN(ll)) ? -1000 : ll;
 
 				// System.out.println(stateSetTree);
 				// double old = gParser.doInsideOutsideScores(stateSetTree,
@@ -438,6 +422,96 @@ public class ParsingObjectiveFunction implements ObjectiveFunction {
 			return myCounts;
 		}
 
+		/**
+		 * Parses the sentence of one training tree (within the constraints,
+		 * if any) and the tree itself and adds the gold minus the expected
+		 * counts to counts. Returns the gold minus the sentence log
+		 * likelihood, or NaN (leaving counts alone) if either could not be
+		 * computed.
+		 */
+		protected double addCounts(Tree<StateSet> stateSetTree,
+				boolean[][][][] cons, SparseCounts counts) {
+			List<StateSet> yield = stateSetTree.getYield();
+			boolean noSmoothing = false /* true */, debugOutput = false;
+			double allLL = eParser.doConstrainedInsideOutsideScores(yield,
+					cons, noSmoothing, null, null, false);
+
+			// compute the ll of the gold tree
+			double goldLL = (ConditionalTrainer.Options.hierarchicalChart) ? eParser
+					.doInsideOutsideScores(stateSetTree, noSmoothing,
+							debugOutput, eParser.spanScores) : gParser
+					.doInsideOutsideScores(stateSetTree, noSmoothing,
+							debugOutput, eParser.spanScores);
+
+			if (!sanityCheckLLs(goldLL, allLL, stateSetTree))
+				return Double.NaN;
+
+			if (false) { // compute exhaustive iS/oS to get exact
+							// expectations and then compute bias
+				SparseCounts myExpectedCounts = new SparseCounts(dimension);
+				eParser.incrementExpectedCounts(linearizer,
+						myExpectedCounts, yield);
+
+				SparseCounts myExactExpectedCounts = new SparseCounts(
+						dimension);
+				double exactLL = eParser.doConstrainedInsideOutsideScores(
+						yield, null, noSmoothing, null, null, false);
+				eParser.incrementExpectedCounts(linearizer,
+						myExactExpectedCounts, yield);
+
+				double bias = 0;
+				for (int ii = 0; ii < dimension; ii++) {
+					double diff = myExpectedCounts.get(ii)
+							- myExactExpectedCounts.get(ii);
+					bias += diff * diff;
+				}
+				totalBias += bias;
+				System.out.println(allLL + "\t" + exactLL + "\t" + bias);
+			}
+
+			eParser.incrementExpectedCounts(linearizer, counts, yield);
+			if (ConditionalTrainer.Options.hierarchicalChart)
+				eParser.incrementExpectedGoldCounts(linearizer, counts,
+						stateSetTree);
+			else
+				gParser.incrementExpectedGoldCounts(linearizer, counts,
+						stateSetTree);
+			return goldLL - allLL;
+		}
+
+		public void setWeights(double[] weights) {
+			useWeights(weights);
+		}
+
+		/**
+		 * The negated log likelihood difference of the item-th tree of
+		 * itemTrees, adding its derivatives (with the gold span feature counts
+		 * spread evenly over the trees) to grad.
+		 */
+		public double update(Integer item, double[] grad) {
+			if (itemCounts == null)
+				itemCounts = new SparseCounts(dimension);
+			else
+				itemCounts.clear();
+			double ll = addCounts(itemTrees.get(item), itemConstraints
+					.get(item), itemCounts);
+			if (Double.isNaN(ll))
+				return 1000;
+			itemCounts.addTo(grad, -1.0);
+			if (spanPredictor != null) {
+				int offset = dimension - spanGoldCounts.length;
+				for (int rule = 0; rule < spanGoldCounts.length; rule++) {
+					grad[offset + rule] -= spanGoldCounts[rule]
+							/ itemTrees.size();
+				}
+			}
+			return -ll;
+		}
+
+		public int dimension() {
+			return dimension;
+		}
+
 		public boolean[][][][][] loadData(String fileName) {
 			boolean[][][][][] data = null;
 			try {
@@ -727,6 +801,66 @@ public class ParsingObjectiveFunction implements ObjectiveFunction {
 		this.bestObjectiveSoFar = Double.POSITIVE_INFINITY;
 	}
 
+	/**
+	 * Minimizes the objective by mini-batch stochastic gradient descent
+	 * instead of handing it to a batch minimizer, so that the weights are
+	 * updated after every batchSize trees rather than once per pass over the
+	 * training set. The calculators parse the trees of a batch in parallel,
+	 * with the same weights. The regularization is the same as for the batch
+	 * objective, spread evenly over the updates.
+	 */
+	public double[] minimizeStochastically(double[] initWeights, int nPasses,
+			int batchSize, double learningRate, double learningRateDecay) {
+		if (itemTrees == null) {
+			itemTrees = new ArrayList<Tree<StateSet>>();
+			itemConstraints = new ArrayList<boolean[][][][]>();
+			for (Calculator task : tasks) {
+				if (task.myConstraints == null)
+					task.loadConstraints();
+				for (int i = 0; i < task.myTrees.size(); i++) {
+					itemTrees.add(task.myTrees.get(i));
+					itemConstraints.add(task.myConstraints[i]);
+				}
+			}
+		}
+		List<Integer> items = new ArrayList<Integer>();
+		for (int i = 0; i < itemTrees.size(); i++) {
+			items.add(i);
+		}
+		Regularizer regularizer = null;
+		switch (myRegularization) {
+		case L2_REGULARIZATION:
+			regularizer = new L2Regularizer(2 * sigma * sigma);
+			break;
+		case L1_REGULARIZATION:
+			regularizer = new L1Regularizer(1.0 / (sigma * sigma));
+			break;
+		default:
+			break;
+		}
+
+		StochasticObjectiveOptimizer<Integer> optimizer = new StochasticObjectiveOptimizer<Integer>(
+				learningRate, 1.0, 0.5);
+		optimizer.batchSize = Math.max(1, batchSize);
+		optimizer.learningRateDecay = learningRateDecay;
+		optimizer.shuffleData = true;
+		double[] weights = optimizer.minimize(initWeights, nPasses, items,
+				Arrays.asList(tasks), regularizer);
+		useWeights(weights);
+		x = null;
+		return weights;
+	}
+
+	synchronized void useWeights(double[] weights) {
+		if (weights == delinearizedWeights)
+			return;
+		linearizer.delinearizeWeights(weights);
+		grammar = linearizer.getGrammar();
+		lexicon = linearizer.getLexicon();
+		spanPredictor = linearizer.getSpanPredictor();
+		delinearizedWeights = weights;
+	}
+
 	public void shutdown() {
 		pool.shutdown();
 	}
@@ -0,0 +1,182 @@
+package edu.berkeley.nlp.discPCFG;
+
+import java.util.Arrays;
+
+/**
+ * Accumulates the expected and gold counts of a worker for a weight vector of
+ * a given dimension. The Linearizers add to it through add(index, value) only,
+ * so it can keep the touched indices in an open-addressed int->double table
+ * instead of a dense double[dimension]; most sentences touch a small fraction
+ * of the rules. Once so many indices were touched that the table would take
+ * more memory than a dense array it switches to one. Every index receives its
+ * additions in the same order as a dense array would, so the sums are
+ * identical to summing into a double[].
+ */
+public class SparseCounts {
+
+	private static final int EMPTY = -1;
+
+	final int dimension;
+	int[] keys;
+	double[] values;
+	int size;
+	double[] dense;
+
+	public SparseCounts(int dimension) {
+		this(dimension, 1024);
+	}
+
+	public SparseCounts(int dimension, int initialCapacity) {
+		this.dimension = dimension;
+		int capacity = 16;
+		while (capacity < 2 * initialCapacity)
+			capacity <<= 1;
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity) {
+		if (3L * capacity > 2L * dimension) {
+			// a small vector, the table would not save anything
+			dense = new double[dimension];
+			keys = null;
+			values = null;
+			return;
+		}
+		keys = new int[capacity];
+		Arrays.fill(keys, EMPTY);
+		values = new double[capacity];
+		size = 0;
+	}
+
+	private static int slot(int index, int mask) {
+		int h = index * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	public void add(int index, double value) {
+		if (value == 0)
+			return;
+		if (dense != null) {
+			dense[index] += value;
+			return;
+		}
+		int mask = keys.length - 1;
+		int slot = slot(index, mask);
+		while (true) {
+			int key = keys[slot];
+			if (key == index) {
+				values[slot] += value;
+				return;
+			}
+			if (key == EMPTY)
+				break;
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = index;
+		values[slot] = value;
+		if (++size > keys.length / 2)
+			grow();
+	}
+
+	public double get(int index) {
+		if (dense != null)
+			return dense[index];
+		int mask = keys.length - 1;
+		int slot = slot(index, mask);
+		while (true) {
+			int key = keys[slot];
+			if (key == index)
+				return values[slot];
+			if (key == EMPTY)
+				return 0;
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * Doubles the table, or switches to a dense array if the doubled table
+	 * (12 bytes per slot) would be larger than it (8 bytes per index).
+	 */
+	private void grow() {
+		int[] oldKeys = keys;
+		double[] oldValues = values;
+		allocate(2 * oldKeys.length);
+		if (dense != null) {
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldKeys[i] != EMPTY)
+					dense[oldKeys[i]] = oldValues[i];
+			}
+			return;
+		}
+		int mask = keys.length - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			int key = oldKeys[i];
+			if (key == EMPTY)
+				continue;
+			int slot = slot(key, mask);
+			while (keys[slot] != EMPTY)
+				slot = (slot + 1) & mask;
+			keys[slot] = key;
+			values[slot] = oldValues[i];
+			size++;
+		}
+	}
+
+	/** Adds the counts into target, a vector of the full dimension. */
+	public void addTo(double[] target) {
+		addTo(target, 1.0);
+	}
+
+	/** Adds scale times the counts into target. */
+	public void addTo(double[] target, double scale) {
+		if (dense != null) {
+			for (int i = 0; i < dimension; i++) {
+				target[i] += scale * dense[i];
+			}
+			return;
+		}
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != EMPTY)
+				target[keys[i]] += scale * values[i];
+		}
+	}
+
+	public double[] toArray() {
+		double[] array = new double[dimension];
+		addTo(array);
+		return array;
+	}
+
+	/**
+	 * Drops all counts. A dense accumulator stays dense and is zeroed in
+	 * place, since a worker that needed it once will most likely need it
+	 * again for the next batch.
+	 */
+	public void clear() {
+		if (dense != null) {
+			Arrays.fill(dense, 0);
+		} else if (size > 0) {
+			Arrays.fill(keys, EMPTY);
+			Arrays.fill(values, 0);
+			size = 0;
+		}
+	}
+
+	public int dimension() {
+		return dimension;
+	}
+
+	public boolean isDense() {
+		return dense != null;
+	}
+
+	/** The number of indices that were touched (all of them once dense). */
+	public int nonZeros() {
+		return (dense != null) ? dimension : size;
+	}
+
+	public long memoryBytes() {
+		return (dense != null) ? 8L * dense.length : 12L * keys.length;
+	}
+
+}
@@ -0,0 +1,378 @@
+package edu.berkeley.nlp.io;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import edu.berkeley.nlp.syntax.Tree;
+import edu.berkeley.nlp.syntax.Trees;
+
+/**
+ * Reads Penn Treebank trees like Trees.PennTreeReader, but scans a char[]
+ * buffer instead of a PushbackReader and looks labels up in a table keyed on
+ * the buffer contents, so that a label seen before costs no allocation. It can
+ * also normalize the trees while reading them, giving the same trees as
+ * Trees.StandardTreeNormalizer (or FunctionLabelRetainingTreeNormalizer) in
+ * a single pass: function labels are stripped, empty nodes and the nodes
+ * left without children are dropped and X over X unaries are collapsed.
+ * Trees that are empty after normalization are skipped.
+ */
+public class FastPennTreeReader implements Iterator<Tree<String>> {
+
+	Reader in;
+	char[] buffer;
+	int pos, limit;
+	// start of the token being read, which must survive refilling the buffer
+	int mark = -1;
+	boolean eof;
+
+	final boolean normalize, stripFunctionLabels;
+	Tree<String> nextTree;
+
+	// canonical label strings, open addressing on the String hash code
+	String[] labels = new String[1024];
+	int nLabels;
+	Map<String, String> strippedLabels = new HashMap<String, String>();
+
+	public FastPennTreeReader(Reader in) {
+		this(in, false, false);
+	}
+
+	/**
+	 * @param normalize
+	 *            normalize the trees while reading them
+	 * @param keepFunctionLabels
+	 *            do not strip function labels when normalizing
+	 */
+	public FastPennTreeReader(Reader in, boolean normalize,
+			boolean keepFunctionLabels) {
+		this.in = in;
+		this.buffer = new char[1 << 16];
+		this.normalize = normalize;
+		this.stripFunctionLabels = normalize && !keepFunctionLabels;
+		nextTree = readRootTree();
+	}
+
+	/**
+	 * Reads a single (not normalized) tree from the string and returns null
+	 * if there was a problem.
+	 */
+	public static Tree<String> parseEasy(String treeString) {
+		try {
+			return new FastPennTreeReader(new StringReader(treeString)).next();
+		} catch (RuntimeException e) {
+			return null;
+		}
+	}
+
+	public boolean hasNext() {
+		return nextTree != null;
+	}
+
+	public Tree<String> next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		Tree<String> tree = nextTree;
+		nextTree = readRootTree();
+		return tree;
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	private Tree<String> readRootTree() {
+		try {
+			while (true) {
+				readWhiteSpace();
+				if (peek() != '(')
+					return null;
+				Tree<String> tree = readTree(true);
+				if (tree != null)
+					return tree;
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private Tree<String> readTree(boolean isRoot) throws IOException {
+		readLeftParen();
+		readWhiteSpace();
+		String label = readText(false);
+		if (label.length() == 0 && isRoot)
+			label = Trees.PennTreeReader.ROOT_LABEL;
+		if (peek() == ')') {
+			// special case where terminal item is surround by brackets e.g.
+			// '(1)'
+			pos++;
+			return leaf(label);
+		}
+		if (stripFunctionLabels)
+			label = stripFunctionLabel(label);
+		List<Tree<String>> children = readChildren();
+		readRightParen();
+		if (!normalize)
+			return new Tree<String>(label, children);
+		if (children.isEmpty() || label.equals("-NONE-"))
+			return null;
+		if (children.size() == 1) {
+			Tree<String> child = children.get(0);
+			if (!child.isLeaf() && label.equals(child.getLabel()))
+				children = child.getChildren();
+		}
+		return new Tree<String>(label, children);
+	}
+
+	/**
+	 * Reads the children of a node up to its closing paren. Children that
+	 * normalization removes still count as read.
+	 */
+	private List<Tree<String>> readChildren() throws IOException {
+		readWhiteSpace();
+		List<Tree<String>> children = new ArrayList<Tree<String>>(2);
+		int nRead = 0;
+		while (peek() != ')' || nRead == 0) {
+			readWhiteSpace();
+			int ch = peek();
+			Tree<String> child;
+			if (ch == '(') {
+				if (peek(1) == ')')
+					child = leaf(readText(true));
+				else
+					child = readTree(false);
+			} else if (ch == -1) {
+				throw new RuntimeException(
+						"Unmatched parentheses in tree input.");
+			} else {
+				child = leaf(readText(true));
+			}
+			nRead++;
+			if (child != null)
+				children.add(child);
+			readWhiteSpace();
+		}
+		return children;
+	}
+
+	private Tree<String> leaf(String label) {
+		if (normalize && label.equals("-NONE-"))
+			return null;
+		return new Tree<String>(label);
+	}
+
+	private void readLeftParen() throws IOException {
+		readWhiteSpace();
+		if (read() != '(')
+			throw new RuntimeException("Format error reading tree.");
+	}
+
+	private void readRightParen() throws IOException {
+		readWhiteSpace();
+		if (read() != ')')
+			throw new RuntimeException("Format error reading tree.");
+	}
+
+	private void readWhiteSpace() throws IOException {
+		while (true) {
+			if (pos == limit && !fill())
+				return;
+			char ch = buffer[pos];
+			if (ch != ' ' && ch != '\t' && ch != '\f' && ch != '\r'
+					&& ch != '\n')
+				return;
+			pos++;
+		}
+	}
+
+	/**
+	 * Reads up to the next white space, paren or the end of the input; if
+	 * atLeastOne, the first character is taken whatever it is.
+	 */
+	private String readText(boolean atLeastOne) throws IOException {
+		if (pos == limit)
+			fill();
+		mark = pos;
+		if (atLeastOne && pos < limit)
+			pos++;
+		while (true) {
+			if (pos == limit && !fill())
+				break;
+			char ch = buffer[pos];
+			if (ch == ' ' || ch == '\t' || ch == '\f' || ch == '\r'
+					|| ch == '\n' || ch == '(' || ch == ')')
+				break;
+			pos++;
+		}
+		String text = label(mark, pos);
+		mark = -1;
+		return text;
+	}
+
+	private int read() throws IOException {
+		if (pos == limit && !fill())
+			return -1;
+		return buffer[pos++];
+	}
+
+	private int peek() throws IOException {
+		if (pos == limit && !fill())
+			return -1;
+		return buffer[pos];
+	}
+
+	private int peek(int ahead) throws IOException {
+		while (pos + ahead >= limit) {
+			if (!fill())
+				return -1;
+		}
+		return buffer[pos + ahead];
+	}
+
+	/**
+	 * Reads more input after the buffered characters from mark (or pos if
+	 * there is no mark) on, which are moved to the front of the buffer.
+	 * Returns false at the end of the input.
+	 */
+	private boolean fill() throws IOException {
+		if (eof)
+			return false;
+		int keep = (mark >= 0) ? mark : pos;
+		int kept = limit - keep;
+		if (kept == buffer.length) {
+			char[] newBuffer = new char[2 * buffer.length];
+			System.arraycopy(buffer, keep, newBuffer, 0, kept);
+			buffer = newBuffer;
+		} else if (kept > 0) {
+			System.arraycopy(buffer, keep, buffer, 0, kept);
+		}
+		pos -= keep;
+		if (mark >= 0)
+			mark = 0;
+		limit = kept;
+		int n = in.read(buffer, limit, buffer.length - limit);
+		if (n < 0) {
+			eof = true;
+			return false;
+		}
+		limit += n;
+		return true;
+	}
+
+	/** The canonical (interned) string for buffer[start..end). */
+	private String label(int start, int end) {
+		int h = 0;
+		for (int i = start; i < end; i++) {
+			h = 31 * h + buffer[i];
+		}
+		int mask = labels.length - 1;
+		int slot = (h ^ (h >>> 16)) & mask;
+		String s;
+		while ((s = labels[slot]) != null) {
+			if (s.hashCode() == h && matches(s, start, end))
+				return s;
+			slot = (slot + 1) & mask;
+		}
+		s = new String(buffer, start, end - start).intern();
+		labels[slot] = s;
+		if (++nLabels > labels.length / 2)
+			rehash();
+		return s;
+	}
+
+	private boolean matches(String s, int start, int end) {
+		if (s.length() != end - start)
+			return false;
+		for (int i = start; i < end; i++) {
+			if (s.charAt(i - start) != buffer[i])
+				return false;
+		}
+		return true;
+	}
+
+	private void rehash() {
+		String[] oldLabels = labels;
+		labels = new String[2 * oldLabels.length];
+		int mask = labels.length - 1;
+		for (String s : oldLabels) {
+			if (s == null)
+				continue;
+			int h = s.hashCode();
+			int slot = (h ^ (h >>> 16)) & mask;
+			while (labels[slot] != null)
+				slot = (slot + 1) & mask;
+			labels[slot] = s;
+		}
+	}
+
+	/**
+	 * Reads the trees of a treebank directory with PennTreebankReader and
+	 * StandardTreeNormalizer and with this reader, serially and in parallel,
+	 * checks that they agree and reports the timings.
+	 *
+	 * Usage: FastPennTreeReader path [lowFileNum highFileNum [nThreads]]
+	 */
+	public static void main(String[] args) {
+		String path = args[0];
+		int low = (args.length > 2) ? Integer.parseInt(args[1]) : -1;
+		int high = (args.length > 2) ? Integer.parseInt(args[2])
+				: Integer.MAX_VALUE;
+		int nThreads = (args.length > 3) ? Integer.parseInt(args[3]) : 4;
+		Charset charset = Charset.defaultCharset();
+		List<Tree<String>> oldTrees = null, newTrees = null;
+		for (int round = 0; round < 5; round++) {
+			long start = System.nanoTime();
+			oldTrees = new ArrayList<Tree<String>>();
+			Trees.TreeTransformer<String> normalizer = new Trees.StandardTreeNormalizer();
+			for (Tree<String> tree : PennTreebankReader.readTrees(path, low,
+					high, charset)) {
+				oldTrees.add(normalizer.transformTree(tree));
+			}
+			long middle = System.nanoTime();
+			newTrees = toList(PennTreebankReader.iterateTrees(path, low,
+					high, charset, false, 1));
+			long end = System.nanoTime();
+			List<Tree<String>> parallelTrees = toList(PennTreebankReader
+					.iterateTrees(path, low, high, charset, false, nThreads));
+			long parallelEnd = System.nanoTime();
+			if (!parallelTrees.toString().equals(newTrees.toString()))
+				System.out.println("Parallel reading changed the trees!");
+			System.out.printf(
+					"read and normalize %.1f ms, one pass %.1f ms, %d threads %.1f ms\n",
+					(middle - start) / 1e6, (end - middle) / 1e6, nThreads,
+					(parallelEnd - end) / 1e6);
+		}
+		int nDifferent = 0;
+		for (int i = 0; i < Math.min(oldTrees.size(), newTrees.size()); i++) {
+			if (!oldTrees.get(i).toString().equals(newTrees.get(i).toString()))
+				nDifferent++;
+		}
+		System.out.println(oldTrees.size() + " / " + newTrees.size()
+				+ " trees, " + nDifferent + " different");
+	}
+
+	private static List<Tree<String>> toList(Iterator<Tree<String>> trees) {
+		List<Tree<String>> list = new ArrayList<Tree<String>>();
+		while (trees.hasNext())
+			list.add(trees.next());
+		return list;
+	}
+
+	private String stripFunctionLabel(String label) {
+		String stripped = strippedLabels.get(label);
+		if (stripped == null) {
+			stripped = Trees.FunctionNodeStripper.transformLabel(label)
+					.intern();
+			strippedLabels.put(label, stripped);
+		}
+		return stripped;
+	}
+
+}
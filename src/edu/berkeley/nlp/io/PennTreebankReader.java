@@ -7,6 +7,7 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.nio.charset.Charset;
 import java.nio.charset.UnsupportedCharsetException;
 import java.util.AbstractCollection;
@@ -14,9 +15,17 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import edu.berkeley.nlp.syntax.Tree;
 import edu.berkeley.nlp.syntax.Trees;
@@ -117,14 +126,14 @@ public class PennTreebankReader {
 			return size;
 		}
 
-		private List<File> getFilesUnder(String path, FileFilter fileFilter) {
+		static List<File> getFilesUnder(String path, FileFilter fileFilter) {
 			File root = new File(path);
 			List<File> files = new ArrayList<File>();
 			addFilesUnder(root, files, fileFilter);
 			return files;
 		}
 
-		private void addFilesUnder(File root, List<File> files,
+		private static void addFilesUnder(File root, List<File> files,
 				FileFilter fileFilter) {
 			if (!fileFilter.accept(root))
 				return;
@@ -161,6 +170,111 @@ public class PennTreebankReader {
 		}
 	}
 
+	/**
+	 * Streams the trees of the .mrg files numbered lowFileNum to highFileNum
+	 * under path in file order, normalized while they are read (see
+	 * FastPennTreeReader). The files are parsed by nThreads threads, at most a
+	 * few files ahead of the consumer, so only the trees of those files are
+	 * held in memory.
+	 */
+	static class ParallelTreeIterator implements Iterator<Tree<String>> {
+		List<File> files;
+		Charset charset;
+		boolean keepFunctionLabels;
+		int nextFile, maxPending;
+		ExecutorService pool;
+		LinkedList<Future<List<Tree<String>>>> pending;
+		Iterator<Tree<String>> currentTrees;
+
+		ParallelTreeIterator(List<File> files, Charset charset,
+				boolean keepFunctionLabels, int nThreads) {
+			this.files = files;
+			this.charset = charset;
+			this.keepFunctionLabels = keepFunctionLabels;
+			this.maxPending = 2 * nThreads;
+			this.pending = new LinkedList<Future<List<Tree<String>>>>();
+			this.pool = Executors.newFixedThreadPool(nThreads,
+					new ThreadFactory() {
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "treebank-reader");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			submitFiles();
+		}
+
+		private void submitFiles() {
+			while (pending.size() < maxPending && nextFile < files.size()) {
+				final File file = files.get(nextFile++);
+				pending.add(pool.submit(new Callable<List<Tree<String>>>() {
+					public List<Tree<String>> call() throws IOException {
+						return readFile(file);
+					}
+				}));
+			}
+		}
+
+		private List<Tree<String>> readFile(File file) throws IOException {
+			List<Tree<String>> trees = new ArrayList<Tree<String>>();
+			Reader reader;
+			try {
+				reader = new InputStreamReader(new FileInputStream(file),
+						charset);
+			} catch (FileNotFoundException e) {
+				return trees;
+			}
+			try {
+				FastPennTreeReader treeReader = new FastPennTreeReader(reader,
+						true, keepFunctionLabels);
+				while (treeReader.hasNext())
+					trees.add(treeReader.next());
+			} finally {
+				reader.close();
+			}
+			return trees;
+		}
+
+		public boolean hasNext() {
+			while (currentTrees == null || !currentTrees.hasNext()) {
+				if (pending.isEmpty()) {
+					pool.shutdown();
+					return false;
+				}
+				try {
+					currentTrees = pending.removeFirst().get().iterator();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				} catch (ExecutionException e) {
+					throw new RuntimeException("Error reading trees", e
+							.getCause());
+				}
+				submitFiles();
+			}
+			return true;
+		}
+
+		public Tree<String> next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			return currentTrees.next();
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	public static Iterator<Tree<String>> iterateTrees(String path,
+			int lowFileNum, int highFileNum, Charset charset,
+			boolean keepFunctionLabels, int nThreads) {
+		FileFilter fileFilter = new NumberRangeFileFilter(".mrg", lowFileNum,
+				highFileNum, true);
+		return new ParallelTreeIterator(TreeCollection.getFilesUnder(path,
+				fileFilter), charset, keepFunctionLabels, Math.max(1,
+				nThreads));
+	}
+
 	public static Collection<Tree<String>> readTrees(String path,
 			Charset charset) {
 		return readTrees(path, -1, Integer.MAX_VALUE, charset);
@@ -0,0 +1,42 @@
+package edu.berkeley.nlp.math;
+
+/**
+ * lambda * sum |w|, with the subgradient sign(w) * lambda (0 at w = 0).
+ */
+public class L1Regularizer implements Regularizer {
+	double lambda = 1.0;
+
+	public L1Regularizer(double lambda) {
+		this.lambda = lambda;
+	}
+
+	public L1Regularizer() {
+
+	}
+
+	public double getLambda() {
+		return lambda;
+	}
+
+	public void setLambda(double lambda) {
+		this.lambda = lambda;
+	}
+
+	public double update(double[] weights, double[] grad, double c) {
+		double l1 = 0.0;
+		for (int w = 0; w < weights.length; w++) {
+			double weight = weights[w];
+			l1 += c * lambda * Math.abs(weight);
+			grad[w] += c * lambda * Math.signum(weight);
+		}
+		return l1;
+	}
+
+	public double val(double[] weights, double c) {
+		double l1 = 0.0;
+		for (int w = 0; w < weights.length; w++) {
+			l1 += lambda * Math.abs(weights[w]);
+		}
+		return l1;
+	}
+}
@@ -0,0 +1,123 @@
+package edu.berkeley.nlp.math;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times ITERATIONS iterations of LBFGSMinimizer and of ParallelLBFGSMinimizer
+ * on a badly conditioned separable quadratic of 1M, 10M and 50M dimensions,
+ * or of the given dimensions. The time spent in the function is measured
+ * separately and subtracted, so what is reported is the time of the
+ * minimizers themselves. Also prints the relative difference of the final
+ * values (0 with one thread and double history). The larger dimensions need
+ * a heap of several gigabytes.
+ *
+ * Usage: LBFGSBenchmark nThreads [-float] [dimension ...]
+ */
+public class LBFGSBenchmark {
+	static final int ITERATIONS = 10;
+
+	/** sum_i a_i (x_i - c_i)^2 / 2 with a_i between 1 and 1000. */
+	static class Quadratic implements DifferentiableFunction {
+		final double[] a, c;
+		long nanos;
+		double[] lastX;
+		double lastValue;
+
+		Quadratic(int dimension) {
+			Random random = new Random(1);
+			a = new double[dimension];
+			c = new double[dimension];
+			for (int i = 0; i < dimension; i++) {
+				a[i] = Math.exp(random.nextDouble() * Math.log(1000));
+				c[i] = random.nextGaussian();
+			}
+		}
+
+		public int dimension() {
+			return a.length;
+		}
+
+		public double valueAt(double[] x) {
+			if (x == lastX)
+				return lastValue;
+			long start = System.nanoTime();
+			double value = 0.0;
+			for (int i = 0; i < x.length; i++) {
+				double d = x[i] - c[i];
+				value += a[i] * d * d / 2;
+			}
+			lastX = x;
+			lastValue = value;
+			nanos += System.nanoTime() - start;
+			return value;
+		}
+
+		public double[] derivativeAt(double[] x) {
+			long start = System.nanoTime();
+			double[] derivative = new double[x.length];
+			for (int i = 0; i < x.length; i++) {
+				derivative[i] = a[i] * (x[i] - c[i]);
+			}
+			nanos += System.nanoTime() - start;
+			return derivative;
+		}
+
+		public double[] unregularizedDerivativeAt(double[] x) {
+			return derivativeAt(x);
+		}
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.out
+					.println("Usage: LBFGSBenchmark nThreads [-float] [dimension ...]");
+			System.exit(2);
+		}
+		int nThreads = Integer.parseInt(args[0]);
+		boolean floatHistory = false;
+		List<Integer> dimensions = new ArrayList<Integer>();
+		for (int i = 1; i < args.length; i++) {
+			if (args[i].equals("-float"))
+				floatHistory = true;
+			else
+				dimensions.add(Integer.parseInt(args[i]));
+		}
+		if (dimensions.isEmpty()) {
+			dimensions.add(1000000);
+			dimensions.add(10000000);
+			dimensions.add(50000000);
+		}
+
+		for (int dimension : dimensions) {
+			Quadratic function = new Quadratic(dimension);
+			double[] initial = new double[dimension];
+
+			LBFGSMinimizer minimizer = new LBFGSMinimizer(ITERATIONS);
+			minimizer.setVerbose(false);
+			long start = System.nanoTime();
+			double value = function.valueAt(minimizer.minimize(function,
+					initial, 0.0));
+			double time = (System.nanoTime() - start - function.nanos) / 1e6;
+			minimizer = null;
+
+			function.nanos = 0;
+			function.lastX = null;
+			LBFGSMinimizer parallelMinimizer = new ParallelLBFGSMinimizer(
+					ITERATIONS, nThreads, floatHistory);
+			parallelMinimizer.setVerbose(false);
+			start = System.nanoTime();
+			double parallelValue = function.valueAt(parallelMinimizer
+					.minimize(function, initial, 0.0));
+			double parallelTime = (System.nanoTime() - start - function.nanos) / 1e6;
+
+			System.out.printf("dimension %-9d LBFGSMinimizer %9.1f ms   "
+					+ "ParallelLBFGSMinimizer %9.1f ms   speedup %.2fx   "
+					+ "value difference %.2e\n", dimension, time,
+					parallelTime, time / parallelTime, Math.abs(parallelValue
+							- value)
+							/ Math.abs(value));
+		}
+	}
+}
@@ -0,0 +1,215 @@
+package edu.berkeley.nlp.math;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Some of the DoubleArrays operations on long vectors, computed by nThreads
+ * threads over contiguous chunks of the vectors, with the calling thread
+ * taking the first chunk. Vectors shorter than MIN_PARALLEL_LENGTH are done
+ * in the calling thread alone. Dot products add up the sums of the chunks in
+ * order, so their result depends on nThreads but not on the scheduling; with
+ * one thread every operation gives what the DoubleArrays one does.
+ * <p/>
+ * The operations on float[] vectors are there for keeping long-lived vectors
+ * (like the L-BFGS history) in half the memory.
+ */
+public class ParallelDoubleArrays {
+	public static final int MIN_PARALLEL_LENGTH = 1 << 15;
+
+	private final int nThreads;
+	private ExecutorService pool;
+
+	public ParallelDoubleArrays(int nThreads) {
+		this.nThreads = Math.max(1, nThreads);
+	}
+
+	/**
+	 * An operation on the elements from..to-1 of some vectors, returning the
+	 * part of a sum over these elements, if the operation has one.
+	 */
+	private static abstract class Chunk {
+		abstract double run(int from, int to);
+	}
+
+	private double sum(final Chunk chunk, int n) {
+		int nChunks = (n < MIN_PARALLEL_LENGTH) ? 1 : nThreads;
+		if (nChunks == 1)
+			return chunk.run(0, n);
+		if (pool == null)
+			pool = Executors.newFixedThreadPool(nThreads - 1,
+					new ThreadFactory() {
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "vector-ops");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		List<Future<Double>> sums = new ArrayList<Future<Double>>(nChunks - 1);
+		for (int c = 1; c < nChunks; c++) {
+			final int from = (int) ((long) n * c / nChunks);
+			final int to = (int) ((long) n * (c + 1) / nChunks);
+			sums.add(pool.submit(new Callable<Double>() {
+				public Double call() {
+					return chunk.run(from, to);
+				}
+			}));
+		}
+		double result = chunk.run(0, (int) ((long) n / nChunks));
+		try {
+			for (Future<Double> sum : sums) {
+				result += sum.get();
+			}
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		return result;
+	}
+
+	private static void checkLengths(int xLength, int yLength) {
+		if (xLength != yLength)
+			throw new RuntimeException("diff lengths: " + xLength + " "
+					+ yLength);
+	}
+
+	public double innerProduct(final double[] x, final double[] y) {
+		checkLengths(x.length, y.length);
+		return sum(new Chunk() {
+			double run(int from, int to) {
+				double result = 0.0;
+				for (int i = from; i < to; i++) {
+					result += x[i] * y[i];
+				}
+				return result;
+			}
+		}, x.length);
+	}
+
+	public double innerProduct(final float[] x, final double[] y) {
+		checkLengths(x.length, y.length);
+		return sum(new Chunk() {
+			double run(int from, int to) {
+				double result = 0.0;
+				for (int i = from; i < to; i++) {
+					result += x[i] * y[i];
+				}
+				return result;
+			}
+		}, x.length);
+	}
+
+	public double innerProduct(final float[] x, final float[] y) {
+		checkLengths(x.length, y.length);
+		return sum(new Chunk() {
+			double run(int from, int to) {
+				double result = 0.0;
+				for (int i = from; i < to; i++) {
+					result += (double) x[i] * y[i];
+				}
+				return result;
+			}
+		}, x.length);
+	}
+
+	/** x += c * y */
+	public void addMultipleInPlace(final double[] x, final double c,
+			final double[] y) {
+		checkLengths(x.length, y.length);
+		sum(new Chunk() {
+			double run(int from, int to) {
+				for (int i = from; i < to; i++) {
+					x[i] += c * y[i];
+				}
+				return 0.0;
+			}
+		}, x.length);
+	}
+
+	/** x += c * y */
+	public void addMultipleInPlace(final double[] x, final double c,
+			final float[] y) {
+		checkLengths(x.length, y.length);
+		sum(new Chunk() {
+			double run(int from, int to) {
+				for (int i = from; i < to; i++) {
+					x[i] += c * y[i];
+				}
+				return 0.0;
+			}
+		}, x.length);
+	}
+
+	/** A new array x * xMultiplier + y * yMultiplier. */
+	public double[] addMultiples(final double[] x, final double xMultiplier,
+			final double[] y, final double yMultiplier) {
+		checkLengths(x.length, y.length);
+		final double[] z = new double[x.length];
+		sum(new Chunk() {
+			double run(int from, int to) {
+				for (int i = from; i < to; i++) {
+					z[i] = x[i] * xMultiplier + y[i] * yMultiplier;
+				}
+				return 0.0;
+			}
+		}, x.length);
+		return z;
+	}
+
+	/** z = x - y */
+	public void subtract(final double[] z, final double[] x, final double[] y) {
+		checkLengths(x.length, y.length);
+		checkLengths(z.length, x.length);
+		sum(new Chunk() {
+			double run(int from, int to) {
+				for (int i = from; i < to; i++) {
+					z[i] = x[i] - y[i];
+				}
+				return 0.0;
+			}
+		}, x.length);
+	}
+
+	/** z = x - y, rounded to floats */
+	public void subtract(final float[] z, final double[] x, final double[] y) {
+		checkLengths(x.length, y.length);
+		checkLengths(z.length, x.length);
+		sum(new Chunk() {
+			double run(int from, int to) {
+				for (int i = from; i < to; i++) {
+					z[i] = (float) (x[i] - y[i]);
+				}
+				return 0.0;
+			}
+		}, x.length);
+	}
+
+	public void scale(final double[] x, final double c) {
+		sum(new Chunk() {
+			double run(int from, int to) {
+				for (int i = from; i < to; i++) {
+					x[i] *= c;
+				}
+				return 0.0;
+			}
+		}, x.length);
+	}
+
+	/** x = y */
+	public void assign(final double[] x, final double[] y) {
+		checkLengths(x.length, y.length);
+		sum(new Chunk() {
+			double run(int from, int to) {
+				System.arraycopy(y, from, x, from, to - from);
+				return 0.0;
+			}
+		}, x.length);
+	}
+}
@@ -0,0 +1,257 @@
+package edu.berkeley.nlp.math;
+
+import edu.berkeley.nlp.util.Logger;
+
+/**
+ * An LBFGSMinimizer for very high-dimensional functions. The history is kept
+ * in a ring of buffers that are allocated once, optionally as floats, and the
+ * search direction is computed in a buffer of its own; together with the
+ * backtracking line search, all the vector operations are done by nThreads
+ * threads (see ParallelDoubleArrays). The only vectors allocated per
+ * iteration are the points handed to the function, since the function may
+ * hold on to them.
+ * <p/>
+ * With one thread and double history the iterates are the same as those of
+ * LBFGSMinimizer.
+ */
+public class ParallelLBFGSMinimizer extends LBFGSMinimizer {
+	private static final long serialVersionUID = 1L;
+
+	// as in BacktrackingLineSearcher
+	static final double SUFFICIENT_DECREASE_CONSTANT = 1e-4;
+	static final double MIN_STEP_SIZE = 1e-10;
+
+	final int nThreads;
+	final boolean floatHistory;
+	transient ParallelDoubleArrays arrays;
+
+	// the history: slot (newest - i) mod the ring size holds the i-th most
+	// recent input and derivative differences, s and y
+	double[][] inputDifferences, derivativeDifferences;
+	float[][] floatInputDifferences, floatDerivativeDifferences;
+	// s.y and y.y of each slot
+	double[] curvatures, derivativeDifferenceNorms;
+	int newest, nHistory;
+
+	double[] direction;
+	double[] alphas;
+
+	public ParallelLBFGSMinimizer(int maxIterations, int nThreads,
+			boolean floatHistory) {
+		super(maxIterations);
+		this.nThreads = Math.max(1, nThreads);
+		this.floatHistory = floatHistory;
+	}
+
+	public ParallelLBFGSMinimizer(int maxIterations, int nThreads) {
+		this(maxIterations, nThreads, false);
+	}
+
+	@Override
+	public double[] minimize(DifferentiableFunction function, double[] initial,
+			double tolerance, boolean printProgress) {
+		if (arrays == null)
+			arrays = new ParallelDoubleArrays(nThreads);
+		allocate(function.dimension());
+		double[] guess = DoubleArrays.clone(initial);
+		int iteration = 0;
+		for (iteration = 0; iteration < maxIterations; iteration++) {
+			if (historyDropIters > 0 && iteration % historyDropIters == 0) {
+				dumpHistory();
+				if (verbose)
+					Logger.logs(
+							"[ParallelLBFGSMinimizer.minimize] Dumped History at iter %d",
+							iteration);
+			}
+			double[] derivative = function.derivativeAt(guess);
+			double value = function.valueAt(guess);
+			computeDirection(derivative);
+			double[] nextGuess = lineSearch(function, guess, value,
+					derivative, (iteration == 0) ? initialStepSizeMultiplier
+							: stepSizeMultiplier);
+			double nextValue = function.valueAt(nextGuess);
+			double[] nextDerivative = function.derivativeAt(nextGuess);
+			if (printProgress && verbose)
+				Logger.logs(
+						"[ParallelLBFGSMinimizer.minimize] Iteration %d ended with value %.6f",
+						iteration, nextValue);
+
+			if (iteration >= minIterations
+					&& converged(value, nextValue, tolerance)) {
+				if (verbose)
+					Logger.logs("[ParallelLBFGSMinimizer.minimize] Converged.");
+				if (dumpHistoryBeforeConverge && !alreadyDumped) {
+					dumpHistory();
+					if (verbose)
+						Logger.logs("[ParallelLBFGSMinimizer.minimize] Dumping History. Doing Iteration Over");
+					alreadyDumped = true;
+					iteration--;
+					continue;
+				} else {
+					return nextGuess;
+				}
+			}
+			updateHistories(guess, nextGuess, derivative, nextDerivative);
+			guess = nextGuess;
+			value = nextValue;
+			derivative = nextDerivative;
+			if (iterCallbackFunction != null) {
+				iterCallbackFunction.callback(guess, iteration, value,
+						derivative);
+			}
+		}
+		if (verbose)
+			Logger.logs("[ParallelLBFGSMinimizer.minimize] Stopped after "
+					+ iteration + " iterations.");
+		return guess;
+	}
+
+	/**
+	 * (Re)allocates the buffers if the dimension or the history size changed,
+	 * which also drops the history.
+	 */
+	private void allocate(int dimension) {
+		int ringSize = Math.max(1, maxHistorySize);
+		if (direction != null && direction.length == dimension
+				&& curvatures.length == ringSize)
+			return;
+		if (floatHistory) {
+			floatInputDifferences = new float[ringSize][];
+			floatDerivativeDifferences = new float[ringSize][];
+		} else {
+			inputDifferences = new double[ringSize][];
+			derivativeDifferences = new double[ringSize][];
+		}
+		curvatures = new double[ringSize];
+		derivativeDifferenceNorms = new double[ringSize];
+		alphas = new double[ringSize];
+		direction = new double[dimension];
+		dumpHistory();
+	}
+
+	@Override
+	public void dumpHistory() {
+		nHistory = 0;
+		newest = -1;
+	}
+
+	private int slot(int i) {
+		int ringSize = curvatures.length;
+		return (newest - i + ringSize) % ringSize;
+	}
+
+	@Override
+	protected void updateHistories(double[] guess, double[] nextGuess,
+			double[] derivative, double[] nextDerivative) {
+		if (maxHistorySize <= 0)
+			return;
+		newest = (newest + 1) % curvatures.length;
+		if (nHistory < curvatures.length)
+			nHistory++;
+		int dimension = guess.length;
+		double curvature, norm;
+		if (floatHistory) {
+			if (floatInputDifferences[newest] == null) {
+				floatInputDifferences[newest] = new float[dimension];
+				floatDerivativeDifferences[newest] = new float[dimension];
+			}
+			float[] s = floatInputDifferences[newest];
+			float[] y = floatDerivativeDifferences[newest];
+			arrays.subtract(s, nextGuess, guess);
+			arrays.subtract(y, nextDerivative, derivative);
+			curvature = arrays.innerProduct(s, y);
+			norm = arrays.innerProduct(y, y);
+		} else {
+			if (inputDifferences[newest] == null) {
+				inputDifferences[newest] = new double[dimension];
+				derivativeDifferences[newest] = new double[dimension];
+			}
+			double[] s = inputDifferences[newest];
+			double[] y = derivativeDifferences[newest];
+			arrays.subtract(s, nextGuess, guess);
+			arrays.subtract(y, nextDerivative, derivative);
+			curvature = arrays.innerProduct(s, y);
+			norm = arrays.innerProduct(y, y);
+		}
+		curvatures[newest] = curvature;
+		derivativeDifferenceNorms[newest] = norm;
+	}
+
+	private double inputDifferenceProduct(int slot, double[] x) {
+		if (floatHistory)
+			return arrays.innerProduct(floatInputDifferences[slot], x);
+		return arrays.innerProduct(inputDifferences[slot], x);
+	}
+
+	private double derivativeDifferenceProduct(int slot, double[] x) {
+		if (floatHistory)
+			return arrays.innerProduct(floatDerivativeDifferences[slot], x);
+		return arrays.innerProduct(derivativeDifferences[slot], x);
+	}
+
+	private void addInputDifference(double[] x, double c, int slot) {
+		if (floatHistory)
+			arrays.addMultipleInPlace(x, c, floatInputDifferences[slot]);
+		else
+			arrays.addMultipleInPlace(x, c, inputDifferences[slot]);
+	}
+
+	private void addDerivativeDifference(double[] x, double c, int slot) {
+		if (floatHistory)
+			arrays.addMultipleInPlace(x, c, floatDerivativeDifferences[slot]);
+		else
+			arrays.addMultipleInPlace(x, c, derivativeDifferences[slot]);
+	}
+
+	/**
+	 * The two-loop recursion, leaving minus the product of the inverse
+	 * Hessian approximation and the derivative in direction.
+	 */
+	private void computeDirection(double[] derivative) {
+		arrays.assign(direction, derivative);
+		for (int i = nHistory - 1; i >= 0; i--) {
+			int slot = slot(i);
+			if (curvatures[slot] == 0.0)
+				throw new RuntimeException(
+						"[ParallelLBFGSMinimizer.computeDirection]: Curvature problem.");
+			alphas[i] = inputDifferenceProduct(slot, direction)
+					/ curvatures[slot];
+			addDerivativeDifference(direction, -1.0 * alphas[i], slot);
+		}
+		double scale = 1.0;
+		if (nHistory >= 1)
+			scale = curvatures[slot(0)] / derivativeDifferenceNorms[slot(0)];
+		arrays.scale(direction, scale);
+		for (int i = 0; i < nHistory; i++) {
+			int slot = slot(i);
+			double beta = derivativeDifferenceProduct(slot, direction)
+					/ curvatures[slot];
+			addInputDifference(direction, alphas[i] - beta, slot);
+		}
+		arrays.scale(direction, -1.0);
+	}
+
+	/** BacktrackingLineSearcher.minimize along direction. */
+	private double[] lineSearch(DifferentiableFunction function,
+			double[] initial, double initialValue, double[] derivative,
+			double multiplier) {
+		double stepSize = 1.0;
+		double initialDirectionalDerivative = arrays.innerProduct(derivative,
+				direction);
+		while (true) {
+			double[] guess = arrays.addMultiples(initial, 1.0, direction,
+					stepSize);
+			double guessValue = function.valueAt(guess);
+			double sufficientDecreaseValue = initialValue
+					+ SUFFICIENT_DECREASE_CONSTANT
+					* initialDirectionalDerivative * stepSize;
+			if (guessValue <= sufficientDecreaseValue)
+				return guess;
+			stepSize *= multiplier;
+			if (stepSize < MIN_STEP_SIZE) {
+				Logger.err("ParallelLBFGSMinimizer.lineSearch: stepSize underflow.");
+				return initial;
+			}
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package edu.berkeley.nlp.math;
+
+import java.util.Random;
+
+import edu.berkeley.nlp.util.ScalingTools;
+
+/**
+ * Micro-benchmark for the scale factors of the inside/outside passes:
+ * ScalingTools.calcScaleFactor, which looks small integral scales up in a
+ * table, against the Math.pow computation it used before, and
+ * ScalingTools.calcLogScaleFactor against taking the log of the scale factor.
+ * Every case is warmed up before it is timed.
+ *
+ * Usage: ScaledArithmeticBenchmark [nRepetitions]
+ */
+public class ScaledArithmeticBenchmark {
+
+	static final int N = 4096;
+	static final int WARMUP_ROUNDS = 5;
+	static final int TIMED_ROUNDS = 10;
+
+	/**
+	 * One benchmarked operation. run() returns a checksum so that the JIT
+	 * cannot optimize the work away.
+	 */
+	static abstract class Case {
+		final String name;
+
+		Case(String name) {
+			this.name = name;
+		}
+
+		abstract double run(int reps);
+	}
+
+	static double sink;
+
+	static double time(Case c, int reps) {
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			sink += c.run(reps);
+		}
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < TIMED_ROUNDS; i++) {
+			long start = System.nanoTime();
+			sink += c.run(reps);
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		return best / ((double) reps * N);
+	}
+
+	static void compare(Case reference, Case candidate, int reps) {
+		double refTime = time(reference, reps);
+		double newTime = time(candidate, reps);
+		System.out.printf("%-28s %8.2f ns/op   %-28s %8.2f ns/op   speedup %.2fx\n",
+				reference.name, refTime, candidate.name, newTime, refTime
+						/ newTime);
+	}
+
+	// The scale factor before it was tabulated
+
+	static double powScaleFactor(double logScale) {
+		return ScalingTools.calcScaleFactor(logScale, ScalingTools.SCALE);
+	}
+
+	public static void main(String[] args) {
+		int reps = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+		Random random = new Random(1);
+
+		final int[] scales = new int[N];
+		for (int i = 0; i < N; i++) {
+			scales[i] = random.nextInt(7) - 3;
+		}
+
+		compare(new Case("Math.pow scale factor") {
+			@Override
+			double run(int reps) {
+				double sum = 0;
+				for (int r = 0; r < reps; r++)
+					for (int i = 0; i < N; i++)
+						sum += powScaleFactor(scales[i] + 4);
+				return sum;
+			}
+		}, new Case("tabulated scale factor") {
+			@Override
+			double run(int reps) {
+				double sum = 0;
+				for (int r = 0; r < reps; r++)
+					for (int i = 0; i < N; i++)
+						sum += ScalingTools.calcScaleFactor(scales[i] + 4);
+				return sum;
+			}
+		}, reps);
+
+		compare(new Case("log(calcScaleFactor)") {
+			@Override
+			double run(int reps) {
+				double sum = 0;
+				for (int r = 0; r < reps; r++)
+					for (int i = 0; i < N; i++)
+						sum += Math.log(ScalingTools.calcScaleFactor(scales[i]));
+				return sum;
+			}
+		}, new Case("calcLogScaleFactor") {
+			@Override
+			double run(int reps) {
+				double sum = 0;
+				for (int r = 0; r < reps; r++)
+					for (int i = 0; i < N; i++)
+						sum += ScalingTools.calcLogScaleFactor(scales[i]);
+				return sum;
+			}
+		}, reps);
+
+		if (sink == 42)
+			System.out.println();
+	}
+
+}
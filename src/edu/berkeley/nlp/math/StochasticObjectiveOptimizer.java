@@ -1,6 +1,7 @@
 package edu.berkeley.nlp.math;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Random;
@@ -36,6 +37,20 @@ public class StochasticObjectiveOptimizer<I> {
 	public boolean doAveraging = false;
 	@Option
 	public boolean shuffleData = false;
+	/**
+	 * If positive, the items are processed in mini-batches of this size: all
+	 * item functions see the same weights during a batch and there is one
+	 * update per batch, with the averaged gradient. Otherwise every item
+	 * updates the weights as soon as it is done.
+	 */
+	@Option
+	public int batchSize = 0;
+	/**
+	 * The step size of the t-th update is alpha / (1 + learningRateDecay * t),
+	 * on top of the adaptation of alpha after each pass.
+	 */
+	@Option
+	public double learningRateDecay = 0.0;
 
 	double[] sumWeightVector;
 	int numUpdates;
@@ -88,6 +103,22 @@ public class StochasticObjectiveOptimizer<I> {
 		}
 	}
 
+	// Accumulate the gradient of the items of a mini-batch
+	class BatchGradMapper implements SimpleMapper<I> {
+		double val = 0.0;
+		double[] grad;
+		ObjectiveItemDifferentiableFunction<I> itemFn;
+
+		BatchGradMapper(ObjectiveItemDifferentiableFunction<I> itemFn) {
+			this.itemFn = itemFn;
+			this.grad = new double[dimension()];
+		}
+
+		public void map(I elem) {
+			val += itemFn.update(elem, grad);
+		}
+	}
+
 	// Compute the function value for a fixed set of parameters
 	class ValMapper implements SimpleMapper<I> {
 		double val = 0.0;
@@ -104,6 +135,8 @@ public class StochasticObjectiveOptimizer<I> {
 	}
 
 	private double doIter() {
+		if (batchSize > 0)
+			return doBatchIter();
 		List<GradMapper> gradMappers = new ArrayList<GradMapper>();
 		for (ObjectiveItemDifferentiableFunction<I> itemFn : itemFns) {
 			gradMappers.add(new GradMapper(itemFn));
@@ -125,6 +158,51 @@ public class StochasticObjectiveOptimizer<I> {
 		return val;
 	}
 
+	/**
+	 * One pass in mini-batches. The weights are handed to the item functions
+	 * one after the other before each batch (as a fresh copy), so that item
+	 * functions sharing a model only need to update it when the array
+	 * changes.
+	 */
+	private double doBatchIter() {
+		List<BatchGradMapper> gradMappers = new ArrayList<BatchGradMapper>();
+		for (ObjectiveItemDifferentiableFunction<I> itemFn : itemFns) {
+			gradMappers.add(new BatchGradMapper(itemFn));
+		}
+		List<I> shuffledItems = shuffleData ? CollectionUtils.shuffle(items,
+				rand) : new ArrayList<I>(items);
+		double val = 0.0;
+		double[] grad = new double[dimension()];
+		for (int start = 0; start < shuffledItems.size(); start += batchSize) {
+			List<I> batch = shuffledItems.subList(start, Math.min(start
+					+ batchSize, shuffledItems.size()));
+			double[] batchWeights = DoubleArrays.clone(weights);
+			for (BatchGradMapper mapper : gradMappers) {
+				mapper.itemFn.setWeights(batchWeights);
+			}
+			AsynchronousMapper.doMapping(batch, gradMappers);
+
+			Arrays.fill(grad, 0.0);
+			for (BatchGradMapper mapper : gradMappers) {
+				DoubleArrays.addInPlace(grad, mapper.grad);
+				Arrays.fill(mapper.grad, 0.0);
+			}
+			if (regularizer != null) {
+				val += regularizer.update(weights, grad, (double) batch.size()
+						/ items.size());
+			}
+			double stepSize = alpha / (1.0 + learningRateDecay * numUpdates);
+			DoubleArrays.addInPlace(weights, grad, -stepSize / batch.size());
+			if (doAveraging)
+				DoubleArrays.addInPlace(sumWeightVector, weights);
+			numUpdates++;
+		}
+		for (BatchGradMapper mapper : gradMappers) {
+			val += mapper.val;
+		}
+		return val;
+	}
+
 	public double[] minimize(double[] initWeights, int numIters,
 			Collection<I> items,
 			List<? extends ObjectiveItemDifferentiableFunction<I>> itemFns,
@@ -3,10 +3,18 @@ package edu.berkeley.nlp.parser;
 import java.io.PrintWriter;
 import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import edu.berkeley.nlp.syntax.Tree;
 import edu.berkeley.nlp.syntax.Trees;
@@ -199,8 +207,8 @@ public class EnglishPennTreebankParseEvaluator<L> {
 
 		}
 
-		private double displayPRF(String prefixStr, int correct, int guessed,
-				int gold, int exact, int total, PrintWriter pw) {
+		private static double displayPRF(String prefixStr, int correct,
+				int guessed, int gold, int exact, int total, PrintWriter pw) {
 			double precision = (guessed > 0 ? correct / (double) guessed : 1.0);
 			double recall = (gold > 0 ? correct / (double) gold : 1.0);
 			double f1 = (precision > 0.0 && recall > 0.0 ? 2.0 / (1.0 / precision + 1.0 / recall)
@@ -384,6 +392,232 @@ public class EnglishPennTreebankParseEvaluator<L> {
 
 	}
 
+	/**
+	 * Gives the same numbers as LabeledConstituentEval, but without a
+	 * HashSet of constituent objects per tree: each constituent is packed
+	 * into a long (label id, start, end), the keys of a tree are sorted and
+	 * deduplicated in a reused buffer and guess and gold are intersected by
+	 * merging the two arrays. evaluate() may be called from several threads
+	 * and the counts of separate evaluators can be merged, see
+	 * evaluateAll().
+	 */
+	public static class PackedLabeledConstituentEval<L> {
+
+		/** Bracket counts, summed over sentences. */
+		public static class Counts {
+			int correct, guessed, gold, exact, total;
+
+			public synchronized void add(int correct, int guessed, int gold) {
+				this.correct += correct;
+				this.guessed += guessed;
+				this.gold += gold;
+				if (correct == guessed && correct == gold)
+					exact++;
+				total++;
+			}
+
+			public synchronized void merge(Counts other) {
+				synchronized (other) {
+					correct += other.correct;
+					guessed += other.guessed;
+					gold += other.gold;
+					exact += other.exact;
+					total += other.total;
+				}
+			}
+		}
+
+		static final int SPAN_BITS = 20;
+
+		protected String str = "";
+		Set<L> labelsToIgnore;
+		Set<L> punctuationTags;
+		Counts counts = new Counts();
+		ConcurrentHashMap<L, Integer> labelIds = new ConcurrentHashMap<L, Integer>();
+		AtomicInteger nLabels = new AtomicInteger(1);
+		ThreadLocal<KeyList[]> buffers = new ThreadLocal<KeyList[]>() {
+			@Override
+			protected KeyList[] initialValue() {
+				return new KeyList[] { new KeyList(), new KeyList() };
+			}
+		};
+
+		/** A growable long array, reused across sentences. */
+		static class KeyList {
+			long[] keys = new long[64];
+			int size;
+
+			void add(long key) {
+				if (size == keys.length) {
+					long[] newKeys = new long[2 * keys.length];
+					System.arraycopy(keys, 0, newKeys, 0, size);
+					keys = newKeys;
+				}
+				keys[size++] = key;
+			}
+
+			/**
+			 * Sorts the keys and removes duplicates (the original evaluator
+			 * works with sets).
+			 */
+			void sortUnique() {
+				Arrays.sort(keys, 0, size);
+				int nUnique = 0;
+				for (int i = 0; i < size; i++) {
+					if (nUnique == 0 || keys[i] != keys[nUnique - 1])
+						keys[nUnique++] = keys[i];
+				}
+				size = nUnique;
+			}
+		}
+
+		public PackedLabeledConstituentEval(Set<L> labelsToIgnore,
+				Set<L> punctuationTags) {
+			this.labelsToIgnore = labelsToIgnore;
+			this.punctuationTags = punctuationTags;
+		}
+
+		public double evaluate(Tree<L> guess, Tree<L> gold) {
+			return evaluate(guess, gold, new PrintWriter(System.out, true));
+		}
+
+		public double evaluate(Tree<L> guess, Tree<L> gold, boolean b) {
+			return evaluate(guess, gold, null);
+		}
+
+		public double evaluate(Tree<L> guess, Tree<L> gold, PrintWriter pw) {
+			int[] result = compare(guess, gold);
+			counts.add(result[0], result[1], result[2]);
+			int currentExact = (result[0] == result[1] && result[0] == result[2]) ? 1
+					: 0;
+			return AbstractEval.displayPRF(str + " [Current] ", result[0],
+					result[1], result[2], currentExact, 1, pw);
+		}
+
+		/**
+		 * Evaluates the guesses against the golds with nThreads threads, each
+		 * summing its own counts, which are merged into this evaluator.
+		 */
+		public void evaluateAll(final List<Tree<L>> guesses,
+				final List<Tree<L>> golds, int nThreads) {
+			assert (guesses.size() == golds.size());
+			ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+			List<Future<Counts>> results = new ArrayList<Future<Counts>>();
+			int chunk = (guesses.size() + nThreads - 1) / nThreads;
+			for (int from = 0; from < guesses.size(); from += chunk) {
+				final int start = from, end = Math.min(from + chunk, guesses
+						.size());
+				results.add(pool.submit(new Callable<Counts>() {
+					public Counts call() {
+						Counts partial = new Counts();
+						for (int i = start; i < end; i++) {
+							int[] result = compare(guesses.get(i), golds.get(i));
+							partial.add(result[0], result[1], result[2]);
+						}
+						return partial;
+					}
+				}));
+			}
+			try {
+				for (Future<Counts> result : results)
+					counts.merge(result.get());
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		public void merge(PackedLabeledConstituentEval<L> other) {
+			counts.merge(other.counts);
+		}
+
+		public int getHammingDistance(Tree<L> guess, Tree<L> gold) {
+			int[] result = compare(guess, gold);
+			return (result[1] - result[0]) + (result[2] - result[0]);
+		}
+
+		public double display(boolean verbose) {
+			return display(verbose, new PrintWriter(System.out, true));
+		}
+
+		public double display(boolean verbose, PrintWriter pw) {
+			synchronized (counts) {
+				return AbstractEval.displayPRF(str + " [Average] ",
+						counts.correct, counts.guessed, counts.gold,
+						counts.exact, counts.total, pw);
+			}
+		}
+
+		/** {correct, guessed, gold} for one sentence. */
+		int[] compare(Tree<L> guess, Tree<L> gold) {
+			KeyList[] buffer = buffers.get();
+			makeKeys(guess, buffer[0]);
+			makeKeys(gold, buffer[1]);
+			long[] guessed = buffer[0].keys, golds = buffer[1].keys;
+			int nGuessed = buffer[0].size, nGold = buffer[1].size;
+			int correct = 0;
+			for (int i = 0, j = 0; i < nGuessed && j < nGold;) {
+				if (guessed[i] < golds[j])
+					i++;
+				else if (guessed[i] > golds[j])
+					j++;
+				else {
+					correct++;
+					i++;
+					j++;
+				}
+			}
+			return new int[] { correct, nGuessed, nGold };
+		}
+
+		/** The sorted, distinct keys of the constituents of the tree. */
+		void makeKeys(Tree<L> tree, KeyList keys) {
+			keys.size = 0;
+			if (!tree.isLeaf() && !tree.isPreTerminal())
+				addKeys(tree, 0, keys);
+			keys.sortUnique();
+		}
+
+		// like LabeledConstituentEval.addConstituents on the tree with its
+		// leaves stripped: pre-terminals span one word unless they are
+		// punctuation, the words themselves span nothing
+		private int addKeys(Tree<L> tree, int start, KeyList keys) {
+			int end = start;
+			for (Tree<L> child : tree.getChildren()) {
+				if (child.isLeaf())
+					continue;
+				if (child.isPreTerminal()) {
+					if (!punctuationTags.contains(child.getLabel()))
+						end++;
+					continue;
+				}
+				end = addKeys(child, end, keys);
+			}
+			L label = tree.getLabel();
+			if (!labelsToIgnore.contains(label)) {
+				keys.add(((long) labelId(label) << (2 * SPAN_BITS))
+						| ((long) start << SPAN_BITS) | end);
+			}
+			return end;
+		}
+
+		private int labelId(L label) {
+			if (label == null)
+				return 0;
+			Integer id = labelIds.get(label);
+			if (id == null) {
+				Integer newId = nLabels.getAndIncrement();
+				id = labelIds.putIfAbsent(label, newId);
+				if (id == null)
+					id = newId;
+			}
+			return id;
+		}
+	}
+
 	public static void main(String[] args) throws Throwable {
 		Tree<String> goldTree = (new Trees.PennTreeReader(new StringReader(
 				"(ROOT (S (NP (DT the) (NN can)) (VP (VBD fell))))"))).next();
@@ -70,7 +70,16 @@ public class Trees {
 		 * @return
 		 */
 		public static String transformLabel(Tree<String> tree) {
-			String transformedLabel = tree.getLabel();
+			if (tree.isLeaf())
+				return tree.getLabel();
+			return transformLabel(tree.getLabel());
+		}
+
+		/**
+		 * Strips the function label off the label of a non-terminal.
+		 */
+		public static String transformLabel(String label) {
+			String transformedLabel = label;
 			int cutIndex = transformedLabel.indexOf('-');
 			int cutIndex2 = transformedLabel.indexOf('=');
 			final int cutIndex3 = transformedLabel.indexOf('^');
@@ -78,7 +87,7 @@ public class Trees {
 				cutIndex2 = cutIndex3;
 			if (cutIndex2 > 0 && (cutIndex2 < cutIndex || cutIndex <= 0))
 				cutIndex = cutIndex2;
-			if (cutIndex > 0 && !tree.isLeaf()) {
+			if (cutIndex > 0) {
 				transformedLabel = new String(transformedLabel.substring(0,
 						cutIndex));
 			}
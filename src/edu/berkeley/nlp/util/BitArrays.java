@@ -0,0 +1,127 @@
+package edu.berkeley.nlp.util;
+
+/**
+ * Static helpers for bitsets stored as plain long[] words, bit i being bit
+ * (i & 63) of word (i >>> 6). Unlike java.util.BitSet these carry no object
+ * overhead, which matters when there is one per chart cell.
+ */
+public class BitArrays {
+
+	public static int numWords(int nBits) {
+		return (nBits + 63) >>> 6;
+	}
+
+	/** A bitset with room for nBits bits, none of which is set. */
+	public static long[] create(int nBits) {
+		return new long[numWords(nBits)];
+	}
+
+	/** A bitset with the bits 0..nBits-1 set. */
+	public static long[] allSet(int nBits) {
+		long[] bits = create(nBits);
+		for (int w = 0; w < bits.length; w++) {
+			bits[w] = -1L;
+		}
+		int rest = nBits & 63;
+		if (rest != 0)
+			bits[bits.length - 1] = (1L << rest) - 1;
+		return bits;
+	}
+
+	public static boolean get(long[] bits, int i) {
+		return (bits[i >>> 6] & (1L << i)) != 0;
+	}
+
+	public static void set(long[] bits, int i) {
+		bits[i >>> 6] |= (1L << i);
+	}
+
+	public static void clear(long[] bits, int i) {
+		bits[i >>> 6] &= ~(1L << i);
+	}
+
+	public static boolean isEmpty(long[] bits) {
+		for (int w = 0; w < bits.length; w++) {
+			if (bits[w] != 0)
+				return false;
+		}
+		return true;
+	}
+
+	public static int cardinality(long[] bits) {
+		int n = 0;
+		for (int w = 0; w < bits.length; w++) {
+			n += Long.bitCount(bits[w]);
+		}
+		return n;
+	}
+
+	/** The index of the first set bit at or after from, -1 if there is none. */
+	public static int nextSetBit(long[] bits, int from) {
+		int w = from >>> 6;
+		if (w >= bits.length)
+			return -1;
+		long word = bits[w] & (-1L << from);
+		while (true) {
+			if (word != 0)
+				return (w << 6) + Long.numberOfTrailingZeros(word);
+			if (++w == bits.length)
+				return -1;
+			word = bits[w];
+		}
+	}
+
+	/**
+	 * Writes the indices of the set bits in increasing order into list and
+	 * returns how many there are.
+	 */
+	public static int toList(long[] bits, short[] list) {
+		int n = 0;
+		for (int w = 0; w < bits.length; w++) {
+			long word = bits[w];
+			while (word != 0) {
+				list[n++] = (short) ((w << 6) + Long.numberOfTrailingZeros(word));
+				word &= word - 1;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Maps every set bit i to the bits lMap[i] and rMap[i] of a new bitset of
+	 * nNewBits bits. Zero words are skipped and only set bits are visited.
+	 */
+	public static long[] project(long[] bits, int[] lMap, int[] rMap,
+			int nNewBits) {
+		long[] projected = create(nNewBits);
+		for (int w = 0; w < bits.length; w++) {
+			long word = bits[w];
+			while (word != 0) {
+				int i = (w << 6) + Long.numberOfTrailingZeros(word);
+				set(projected, lMap[i]);
+				set(projected, rMap[i]);
+				word &= word - 1;
+			}
+		}
+		return projected;
+	}
+
+	public static long[] fromBooleans(boolean[] values) {
+		long[] bits = create(values.length);
+		for (int i = 0; i < values.length; i++) {
+			if (values[i])
+				set(bits, i);
+		}
+		return bits;
+	}
+
+	public static boolean[] toBooleans(long[] bits, int nBits) {
+		boolean[] values = new boolean[nBits];
+		for (int i = nextSetBit(bits, 0); i >= 0 && i < nBits; i = nextSetBit(
+				bits, i + 1)) {
+			values[i] = true;
+		}
+		return values;
+	}
+
+}
@@ -0,0 +1,139 @@
+package edu.berkeley.nlp.util;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A FastCounter that several threads can increment at once. The counts are
+ * split over a fixed number of stripes, each a FastCounter guarded by its own
+ * lock. The stripes are handed out in turn to the threads as they first count,
+ * and a thread always adds to the same one. With at least as many stripes as
+ * counting threads (the default is twice the number of processors) each thread
+ * has a stripe of its own and never waits for another; with more threads, some
+ * share a stripe.
+ * The reads add up the stripes, so they are slower than the writes; the
+ * typical use is to count in parallel and call toFastCounter() once at the
+ * end. Counts that are whole numbers come out exactly as if they had been
+ * counted by one thread.
+ */
+public class ConcurrentCounter<E> {
+
+	final FastCounter<E>[] stripes;
+	private final AtomicInteger nextStripe = new AtomicInteger();
+	private final ThreadLocal<Integer> stripeIndex = new ThreadLocal<Integer>() {
+		@Override
+		protected Integer initialValue() {
+			return nextStripe.getAndIncrement() % stripes.length;
+		}
+	};
+
+	public ConcurrentCounter() {
+		this(2 * Runtime.getRuntime().availableProcessors());
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public ConcurrentCounter(int nStripes) {
+		stripes = new FastCounter[Math.max(1, nStripes)];
+		for (int i = 0; i < stripes.length; i++) {
+			stripes[i] = new FastCounter<E>();
+		}
+	}
+
+	private FastCounter<E> stripe() {
+		return stripes[stripeIndex.get()];
+	}
+
+	public void incrementCount(E key, double increment) {
+		FastCounter<E> stripe = stripe();
+		synchronized (stripe) {
+			stripe.incrementCount(key, increment);
+		}
+	}
+
+	public void incrementAll(FastCounter<? extends E> counter) {
+		FastCounter<E> stripe = stripe();
+		synchronized (stripe) {
+			stripe.incrementAll(counter);
+		}
+	}
+
+	public double getCount(E key) {
+		double count = 0;
+		for (FastCounter<E> stripe : stripes) {
+			synchronized (stripe) {
+				count += stripe.getCount(key);
+			}
+		}
+		return count;
+	}
+
+	public boolean containsKey(E key) {
+		for (FastCounter<E> stripe : stripes) {
+			synchronized (stripe) {
+				if (stripe.containsKey(key))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	public double totalCount() {
+		double total = 0;
+		for (FastCounter<E> stripe : stripes) {
+			synchronized (stripe) {
+				total += stripe.totalCount();
+			}
+		}
+		return total;
+	}
+
+	/** A copy of the keys of all stripes. */
+	public Set<E> keySet() {
+		Set<E> keys = new HashSet<E>();
+		for (FastCounter<E> stripe : stripes) {
+			synchronized (stripe) {
+				keys.addAll(stripe.keySet());
+			}
+		}
+		return keys;
+	}
+
+	public int size() {
+		return keySet().size();
+	}
+
+	/** The sum of the stripes, in a counter of its own. */
+	public FastCounter<E> toFastCounter() {
+		FastCounter<E> counter = new FastCounter<E>();
+		for (FastCounter<E> stripe : stripes) {
+			synchronized (stripe) {
+				counter.incrementAll(stripe);
+			}
+		}
+		return counter;
+	}
+
+	public Counter<E> toCounter() {
+		FastCounter<E> merged = toFastCounter();
+		Counter<E> counter = new Counter<E>();
+		for (E key : merged.keySet()) {
+			counter.setCount(key, merged.getCount(key));
+		}
+		return counter;
+	}
+
+	public void clear() {
+		for (FastCounter<E> stripe : stripes) {
+			synchronized (stripe) {
+				stripe.clear();
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return toFastCounter().toString();
+	}
+
+}
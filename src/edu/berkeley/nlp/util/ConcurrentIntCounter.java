@@ -0,0 +1,111 @@
+package edu.berkeley.nlp.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The IntCounter version of ConcurrentCounter: every thread adds to a stripe
+ * of its own, as long as there are enough of them, each behind its own lock,
+ * and the reads add up the stripes.
+ */
+public class ConcurrentIntCounter {
+
+	final IntCounter[] stripes;
+	private final AtomicInteger nextStripe = new AtomicInteger();
+	private final ThreadLocal<Integer> stripeIndex = new ThreadLocal<Integer>() {
+		@Override
+		protected Integer initialValue() {
+			return nextStripe.getAndIncrement() % stripes.length;
+		}
+	};
+
+	public ConcurrentIntCounter() {
+		this(2 * Runtime.getRuntime().availableProcessors());
+	}
+
+	public ConcurrentIntCounter(int nStripes) {
+		stripes = new IntCounter[Math.max(1, nStripes)];
+		for (int i = 0; i < stripes.length; i++) {
+			stripes[i] = new IntCounter();
+		}
+	}
+
+	private IntCounter stripe() {
+		return stripes[stripeIndex.get()];
+	}
+
+	public void incrementCount(int key, double increment) {
+		IntCounter stripe = stripe();
+		synchronized (stripe) {
+			stripe.incrementCount(key, increment);
+		}
+	}
+
+	public void incrementAll(IntCounter counter) {
+		IntCounter stripe = stripe();
+		synchronized (stripe) {
+			stripe.incrementAll(counter);
+		}
+	}
+
+	public double getCount(int key) {
+		double count = 0;
+		for (IntCounter stripe : stripes) {
+			synchronized (stripe) {
+				count += stripe.getCount(key);
+			}
+		}
+		return count;
+	}
+
+	public double totalCount() {
+		double total = 0;
+		for (IntCounter stripe : stripes) {
+			synchronized (stripe) {
+				total += stripe.totalCount();
+			}
+		}
+		return total;
+	}
+
+	/** The sum of the stripes, in a counter of its own. */
+	public IntCounter toIntCounter() {
+		IntCounter counter = new IntCounter();
+		for (IntCounter stripe : stripes) {
+			synchronized (stripe) {
+				counter.incrementAll(stripe);
+			}
+		}
+		return counter;
+	}
+
+	/**
+	 * The counts as an array indexed by key; the keys must be smaller than
+	 * length.
+	 */
+	public double[] toArray(int length) {
+		double[] array = new double[length];
+		for (IntCounter stripe : stripes) {
+			synchronized (stripe) {
+				for (int i = 0; i < stripe.keys.length; i++) {
+					if (stripe.keys[i] >= 0)
+						array[stripe.keys[i]] += stripe.values[i];
+				}
+			}
+		}
+		return array;
+	}
+
+	public void clear() {
+		for (IntCounter stripe : stripes) {
+			synchronized (stripe) {
+				stripe.clear();
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return toIntCounter().toString();
+	}
+
+}
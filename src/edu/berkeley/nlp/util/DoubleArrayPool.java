@@ -0,0 +1,77 @@
+package edu.berkeley.nlp.util;
+
+import java.util.Arrays;
+
+/**
+ * Hands out zeroed double[]s by length and takes all of them back at once.
+ * This is for scratch arrays whose lifetimes end together, like the score
+ * arrays of the nodes of one tree: after releaseAll() the next get() calls
+ * return the same arrays again instead of allocating new ones. Not thread
+ * safe, use one pool per thread.
+ */
+public class DoubleArrayPool {
+
+	// free[length] is a stack of nFree[length] arrays
+	double[][][] free = new double[0][][];
+	int[] nFree = new int[0];
+	double[][] used = new double[64][];
+	int nUsed;
+
+	public double[] get(int length) {
+		double[] array;
+		if (length < nFree.length && nFree[length] > 0) {
+			array = free[length][--nFree[length]];
+			free[length][nFree[length]] = null;
+			Arrays.fill(array, 0);
+		} else {
+			array = new double[length];
+		}
+		if (nUsed == used.length) {
+			double[][] newUsed = new double[2 * used.length][];
+			System.arraycopy(used, 0, newUsed, 0, nUsed);
+			used = newUsed;
+		}
+		used[nUsed++] = array;
+		return array;
+	}
+
+	/**
+	 * Takes back all the arrays handed out since the last call; they must not
+	 * be used anymore.
+	 */
+	public void releaseAll() {
+		for (int i = 0; i < nUsed; i++) {
+			double[] array = used[i];
+			used[i] = null;
+			int length = array.length;
+			if (length >= nFree.length) {
+				int newLength = Math.max(length + 1, 2 * nFree.length);
+				double[][][] newFree = new double[newLength][][];
+				System.arraycopy(free, 0, newFree, 0, free.length);
+				int[] newNFree = new int[newLength];
+				System.arraycopy(nFree, 0, newNFree, 0, nFree.length);
+				free = newFree;
+				nFree = newNFree;
+			}
+			if (free[length] == null) {
+				free[length] = new double[16][];
+			} else if (nFree[length] == free[length].length) {
+				double[][] newStack = new double[2 * nFree[length]][];
+				System.arraycopy(free[length], 0, newStack, 0, nFree[length]);
+				free[length] = newStack;
+			}
+			free[length][nFree[length]++] = array;
+		}
+		nUsed = 0;
+	}
+
+	/** The number of arrays owned by the pool, handed out or not. */
+	public int size() {
+		int n = nUsed;
+		for (int i = 0; i < nFree.length; i++) {
+			n += nFree[i];
+		}
+		return n;
+	}
+
+}
@@ -0,0 +1,178 @@
+package edu.berkeley.nlp.util;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A counter for int keys, kept in an open-addressed table of primitive keys
+ * and values, so that neither the keys nor the counts are boxed. The keys are
+ * the non-negative ints (states, substates, word indices and such).
+ */
+public class IntCounter implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private static final int EMPTY = -1;
+
+	int[] keys;
+	double[] values;
+	int size;
+
+	public IntCounter() {
+		this(16);
+	}
+
+	public IntCounter(int expectedSize) {
+		int capacity = 16;
+		while (capacity < 2 * expectedSize)
+			capacity <<= 1;
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		Arrays.fill(keys, EMPTY);
+		values = new double[capacity];
+		size = 0;
+	}
+
+	private static int slot(int key, int mask) {
+		int h = key * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	/** The slot of key, or of the empty slot where it would go. */
+	private int find(int key) {
+		if (key < 0)
+			throw new IllegalArgumentException("Negative key " + key);
+		int mask = keys.length - 1;
+		int slot = slot(key, mask);
+		while (keys[slot] != key && keys[slot] != EMPTY)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	public double getCount(int key) {
+		int slot = find(key);
+		return (keys[slot] == EMPTY) ? 0 : values[slot];
+	}
+
+	public boolean containsKey(int key) {
+		return keys[find(key)] != EMPTY;
+	}
+
+	public void setCount(int key, double count) {
+		int slot = find(key);
+		if (keys[slot] == EMPTY) {
+			keys[slot] = key;
+			values[slot] = count;
+			if (++size > keys.length / 2)
+				grow();
+		} else {
+			values[slot] = count;
+		}
+	}
+
+	public void incrementCount(int key, double increment) {
+		int slot = find(key);
+		if (keys[slot] == EMPTY) {
+			keys[slot] = key;
+			values[slot] = increment;
+			if (++size > keys.length / 2)
+				grow();
+		} else {
+			values[slot] += increment;
+		}
+	}
+
+	public void incrementAll(IntCounter counter) {
+		int[] otherKeys = counter.keys;
+		double[] otherValues = counter.values;
+		for (int i = 0; i < otherKeys.length; i++) {
+			if (otherKeys[i] != EMPTY)
+				incrementCount(otherKeys[i], otherValues[i]);
+		}
+	}
+
+	private void grow() {
+		int[] oldKeys = keys;
+		double[] oldValues = values;
+		allocate(2 * oldKeys.length);
+		int mask = keys.length - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			int key = oldKeys[i];
+			if (key == EMPTY)
+				continue;
+			int slot = slot(key, mask);
+			while (keys[slot] != EMPTY)
+				slot = (slot + 1) & mask;
+			keys[slot] = key;
+			values[slot] = oldValues[i];
+			size++;
+		}
+	}
+
+	/** The number of keys, not the total count. */
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public double totalCount() {
+		double total = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != EMPTY)
+				total += values[i];
+		}
+		return total;
+	}
+
+	/** The keys in increasing order. */
+	public int[] keys() {
+		int[] result = new int[size];
+		int n = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != EMPTY)
+				result[n++] = keys[i];
+		}
+		Arrays.sort(result);
+		return result;
+	}
+
+	/**
+	 * The counts as an array indexed by key; the keys must be smaller than
+	 * length.
+	 */
+	public double[] toArray(int length) {
+		double[] array = new double[length];
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != EMPTY)
+				array[keys[i]] = values[i];
+		}
+		return array;
+	}
+
+	public void clear() {
+		if (size > 0) {
+			Arrays.fill(keys, EMPTY);
+			Arrays.fill(values, 0);
+			size = 0;
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("[");
+		int[] sortedKeys = keys();
+		for (int i = 0; i < sortedKeys.length; i++) {
+			if (i > 0)
+				sb.append(", ");
+			sb.append(sortedKeys[i]).append(" : ").append(
+					getCount(sortedKeys[i]));
+		}
+		return sb.append("]").toString();
+	}
+
+}
@@ -0,0 +1,72 @@
+package edu.berkeley.nlp.util;
+
+import java.util.Arrays;
+
+/**
+ * Records the latencies of requests, keeping the most recent ones (up to the
+ * capacity) in a ring, and reports percentiles over those. Can be shared by
+ * several threads.
+ */
+public class LatencyRecorder {
+	private final long[] latencies;
+	private int next;
+	private long count, nErrors;
+
+	public LatencyRecorder(int capacity) {
+		latencies = new long[capacity];
+	}
+
+	public LatencyRecorder() {
+		this(10000);
+	}
+
+	public synchronized void record(long nanos) {
+		latencies[next] = nanos;
+		next = (next + 1) % latencies.length;
+		count++;
+	}
+
+	public synchronized void recordError() {
+		nErrors++;
+	}
+
+	public synchronized long getCount() {
+		return count;
+	}
+
+	public synchronized long getErrorCount() {
+		return nErrors;
+	}
+
+	/**
+	 * The latencies at the given percentiles (between 0 and 100) of the
+	 * recent requests, in milliseconds, or NaN if there are none.
+	 */
+	public double[] getPercentiles(double... percentiles) {
+		long[] recent;
+		synchronized (this) {
+			recent = Arrays.copyOf(latencies, (int) Math.min(count,
+					latencies.length));
+		}
+		Arrays.sort(recent);
+		double[] result = new double[percentiles.length];
+		for (int i = 0; i < percentiles.length; i++) {
+			if (recent.length == 0) {
+				result[i] = Double.NaN;
+				continue;
+			}
+			int rank = (int) Math.ceil(percentiles[i] / 100 * recent.length) - 1;
+			rank = Math.max(0, Math.min(recent.length - 1, rank));
+			result[i] = recent[rank] / 1e6;
+		}
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		double[] p = getPercentiles(50, 90, 99, 100);
+		return String.format(
+				"requests %d errors %d p50 %.2f ms p90 %.2f ms p99 %.2f ms max %.2f ms",
+				getCount(), getErrorCount(), p[0], p[1], p[2], p[3]);
+	}
+}
@@ -5,7 +5,6 @@ package edu.berkeley.nlp.util;
 
 import java.util.Arrays;
 
-import edu.berkeley.nlp.math.DoubleArrays;
 import edu.berkeley.nlp.math.SloppyMath;
 
 /**
@@ -19,10 +18,41 @@ public class ScalingTools {
 
 	// Note: e^709 is the largest double java can handle.
 
+	// SCALE^k for -MAX_TABULATED_SCALE <= k <= MAX_TABULATED_SCALE. Anything
+	// outside of this range under-/overflows anyways.
+	private static final int MAX_TABULATED_SCALE = 8;
+	private static final double[] SCALE_POWERS = new double[2 * MAX_TABULATED_SCALE + 1];
+	static {
+		for (int k = -MAX_TABULATED_SCALE; k <= MAX_TABULATED_SCALE; k++) {
+			SCALE_POWERS[k + MAX_TABULATED_SCALE] = calcScaleFactor(k, SCALE);
+		}
+	}
+
 	public static double calcScaleFactor(double logScale) {
+		if (logScale >= -MAX_TABULATED_SCALE && logScale <= MAX_TABULATED_SCALE) {
+			int k = (int) logScale;
+			if (k == logScale)
+				return SCALE_POWERS[k + MAX_TABULATED_SCALE];
+		}
 		return calcScaleFactor(logScale, SCALE);
 	}
 
+	/**
+	 * Returns Math.log(calcScaleFactor(logScale)) without going through
+	 * exp/log, i.e. logScale*LOGSCALE or +/-Infinity when the scale factor
+	 * itself would under-/overflow.
+	 */
+	public static double calcLogScaleFactor(int logScale) {
+		if (logScale == Integer.MIN_VALUE)
+			return Double.NEGATIVE_INFINITY;
+		double factor = calcScaleFactor(logScale);
+		if (factor == 0.0)
+			return Double.NEGATIVE_INFINITY;
+		if (factor == Double.POSITIVE_INFINITY)
+			return Double.POSITIVE_INFINITY;
+		return logScale * (double) LOGSCALE;
+	}
+
 	public static double calcScaleFactor(double logScale, double scale) {
 		if (logScale == Integer.MIN_VALUE) {
 			return 0.0;// System.out.println("give me a break!");
@@ -45,13 +75,25 @@ public class ScalingTools {
 	}
 
 	public static int scaleArray(double[] scores, int previousScale) {
+		return scaleArray(scores, scores.length, previousScale);
+	}
+
+	/**
+	 * Same as scaleArray(scores, previousScale) but only looks at the first
+	 * length entries, e.g. the substates of a state in a scratch array that is
+	 * sized for the largest state.
+	 */
+	public static int scaleArray(double[] scores, int length, int previousScale) {
 		if (previousScale == Integer.MIN_VALUE) {
 			return previousScale;// System.out.println("give me a break!");
 		}
-		// if (true) return previousScale;
 		int logScale = 0;
 		double scale = 1.0;
-		double max = DoubleArrays.max(scores);
+		double max = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < length; i++) {
+			if (scores[i] > max)
+				max = scores[i];
+		}
 		if (max == Double.POSITIVE_INFINITY) {
 			// System.out.println("Infinity");
 			return 0;
@@ -69,7 +111,7 @@ public class ScalingTools {
 			logScale -= 1;
 		}
 		if (logScale != 0) {
-			for (int i = 0; i < scores.length; i++) {
+			for (int i = 0; i < length; i++) {
 				scores[i] /= scale;
 			}
 		}
@@ -81,22 +123,30 @@ public class ScalingTools {
 
 	public static void scaleArrayToScale(double[] scores, int previousScale,
 			int newScale) {
+		scaleArrayToScale(scores, scores.length, previousScale, newScale);
+	}
+
+	public static void scaleArrayToScale(double[] scores, int length,
+			int previousScale, int newScale) {
 		int scaleDiff = previousScale - newScale;
 		if (scaleDiff == 0)
 			return; // nothing to do
-		double max = DoubleArrays.max(scores);
+		double max = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < length; i++) {
+			if (scores[i] > max)
+				max = scores[i];
+		}
 		if (SloppyMath.isDangerous(max))
 			return;
 
-		double scale = calcScaleFactor(scaleDiff);
-
 		if (Math.abs(scaleDiff) >= 800) {
 			// under-/overflow...
-			Arrays.fill(scores, 0.0);
+			Arrays.fill(scores, 0, length, 0.0);
 			return;
 		}
 
-		for (int i = 0; i < scores.length; i++) {
+		double scale = calcScaleFactor(scaleDiff);
+		for (int i = 0; i < length; i++) {
 			scores[i] *= scale;
 		}
 		// if (SloppyMath.isDangerous(ArrayMath.max(scores))){